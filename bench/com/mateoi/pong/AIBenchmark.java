@@ -0,0 +1,70 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link AIPlayer#move(PongGame)} on its own, and a full AI-vs-AI
+ * frame: both decisions plus the physics step.
+ *
+ * Run with the JMH runner and the GC profiler to see the allocation rate:
+ * {@code java -cp <classpath> org.openjdk.jmh.Main AIBenchmark -prof gc}
+ *
+ * @author mateo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AIBenchmark {
+
+    /** Generated once, as every lookup table player shares one */
+    private static final PolicyTable TABLE = PolicyTable.generate(500, 300);
+
+    @Param({ "RALLY", "SERVE", "FAST" })
+    private Scenario scenario;
+
+    private PongGame game;
+    private Player leftPlayer;
+    private Player rightPlayer;
+    private Player tablePlayer;
+
+    @Setup
+    public void setUp() {
+        game = scenario.newGame(42);
+        leftPlayer = new AIPlayer(true);
+        rightPlayer = new AIPlayer(false);
+        tablePlayer = new TablePlayer(TABLE, true);
+    }
+
+    @Benchmark
+    public int aiMove() {
+        return leftPlayer.move(game);
+    }
+
+    @Benchmark
+    public int tableMove() {
+        return tablePlayer.move(game);
+    }
+
+    @Benchmark
+    public PongGame aiVsAiFrame() {
+        final int leftMove = leftPlayer.move(game);
+        final int rightMove = rightPlayer.move(game);
+        game.nextFrame(leftMove, rightMove);
+        return game;
+    }
+}
@@ -0,0 +1,73 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares playing every frame with {@link PongGame#nextFrame(int, int)} to
+ * fast-forwarding exactly and in closed form, with constant inputs: idle
+ * paddles, or both paddles held against a border. Every operation is one
+ * frame, so the scores are frames per microsecond. The larger the field, the
+ * longer the stretches between events that a fast-forward jumps over.
+ *
+ * @author mateo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastForwardBenchmark {
+
+    /** Frames played by every invocation */
+    private static final int FRAMES = 100_000;
+
+    @Param({ "500", "5000" })
+    private double width;
+
+    @Param({ "0", "1" })
+    private int move;
+
+    private PongGame game;
+
+    @Setup
+    public void setUp() {
+        game = new PongGame(width, 0.6 * width, 42);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public PongGame nextFrame() {
+        for (int i = 0; i < FRAMES; i++) {
+            game.nextFrame(move, -move);
+        }
+        return game;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public PongGame exact() {
+        game.fastForward(move, -move, FRAMES, true);
+        return game;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public PongGame analytic() {
+        game.fastForward(move, -move, FRAMES, false);
+        return game;
+    }
+}
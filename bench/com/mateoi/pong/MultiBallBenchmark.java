@@ -0,0 +1,60 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a frame of a {@link MultiBallGame} for growing numbers of balls.
+ * The field grows with the balls so they are always as crowded as 4000 balls
+ * on a 500x300 field; with the grid, the time per frame should then grow
+ * about linearly with the balls. On a field of fixed size the number of
+ * collisions itself grows with the square of the balls.
+ *
+ * @author mateo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiBallBenchmark {
+
+    @Param({ "1000", "4000", "16000", "64000" })
+    private int balls;
+
+    private MultiBallGame game;
+
+    @Setup
+    public void setUp() {
+        final double scale = Math.sqrt(balls / 4000.0);
+        game = new MultiBallGame(balls, 500 * scale, 300 * scale, 42);
+        // Let the balls spread over the field before measuring
+        for (int i = 0; i < 600; i++) {
+            game.nextFrame(game.trackingMove(true), game.trackingMove(false));
+        }
+    }
+
+    @Benchmark
+    public MultiBallGame nextFrame() {
+        game.nextFrame(game.trackingMove(true), game.trackingMove(false));
+        return game;
+    }
+
+    @Benchmark
+    public MultiBallGame collideBalls() {
+        game.collideBalls();
+        return game;
+    }
+}
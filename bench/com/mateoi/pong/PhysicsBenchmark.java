@@ -0,0 +1,67 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link PongGame#nextFrame(int, int)} with scripted inputs, so only
+ * the physics is timed, and {@link BatchPongGame#nextFrame(int[], int[])} on
+ * a batch of games in the same scenario. Every operation is one frame of one
+ * game, so the two scores compare directly.
+ *
+ * Run with the JMH runner and the GC profiler to see the allocation rate:
+ * {@code java -cp <classpath> org.openjdk.jmh.Main PhysicsBenchmark -prof gc}
+ *
+ * @author mateo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhysicsBenchmark {
+
+    @Param({ "RALLY", "SERVE", "FAST" })
+    private Scenario scenario;
+
+    /** Games in the batch */
+    private static final int BATCH = 1024;
+
+    private PongGame game;
+    private BatchPongGame batch;
+    private final int[] leftMoves = new int[BATCH];
+    private final int[] rightMoves = new int[BATCH];
+
+    @Setup
+    public void setUp() {
+        game = scenario.newGame(42);
+        batch = scenario.newBatch(BATCH, 42);
+    }
+
+    @Benchmark
+    public PongGame nextFrame() {
+        game.nextFrame(scenario.leftMove(game), scenario.rightMove(game));
+        return game;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public BatchPongGame batchNextFrame() {
+        scenario.moves(batch, leftMoves, rightMoves);
+        batch.nextFrame(leftMoves, rightMoves);
+        return batch;
+    }
+}
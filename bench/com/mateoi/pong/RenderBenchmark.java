@@ -0,0 +1,58 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.TimeUnit;
+
+import javafx.embed.swing.JFXPanel;
+import javafx.scene.canvas.Canvas;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link PongController#drawField()} on an offscreen canvas. The
+ * canvas is never shown, so this times building the drawing commands, not
+ * rasterizing them.
+ *
+ * Run with the JMH runner and the GC profiler to see the allocation rate:
+ * {@code java -cp <classpath> org.openjdk.jmh.Main RenderBenchmark -prof gc}
+ *
+ * @author mateo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    private static final int WALL_OFFSET = 10;
+    private static final int LINE_THICKNESS = 3;
+
+    private PongGame game;
+    private PongController controller;
+
+    @Setup
+    public void setUp() {
+        // Starts the JavaFX toolkit, which fonts need
+        new JFXPanel();
+        game = Scenario.RALLY.newGame(42);
+        Canvas canvas = new Canvas(game.getFieldWidth() + 2 * WALL_OFFSET, game.getFieldHeight() + 2 * WALL_OFFSET);
+        controller = new PongController(game, canvas, new AIPlayer(true), new AIPlayer(false), WALL_OFFSET,
+                LINE_THICKNESS);
+    }
+
+    @Benchmark
+    public void drawField() {
+        game.nextFrame(Scenario.RALLY.leftMove(game), Scenario.RALLY.rightMove(game));
+        controller.drawField();
+    }
+}
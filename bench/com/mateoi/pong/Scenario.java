@@ -0,0 +1,101 @@
+package com.mateoi.pong;
+
+/**
+ * Game situations that the benchmarks are run against.
+ *
+ * @author mateo
+ */
+public enum Scenario {
+
+    /** Long rallies: both paddles track the ball */
+    RALLY(500, 300, PongGame.DEFAULT_INITIAL_SPEED, true),
+    /** Idle paddles on a narrow field, so almost every frame ends near a serve */
+    SERVE(60, 300, PongGame.DEFAULT_INITIAL_SPEED, false),
+    /** A ball as fast as it would be after thirty paddle hits */
+    FAST(500, 300, PongGame.DEFAULT_INITIAL_SPEED * Math.pow(PongGame.DEFAULT_ELASTIC_COEFFICIENT, 30), true);
+
+    /** Frames played before measuring, so the game is in a steady state */
+    private static final int WARMUP_FRAMES = 10_000;
+
+    private final double width;
+    private final double height;
+    private final double initialSpeed;
+    /** Whether the paddles follow the ball or stay idle */
+    private final boolean tracking;
+
+    private Scenario(double width, double height, double initialSpeed, boolean tracking) {
+        this.width = width;
+        this.height = height;
+        this.initialSpeed = initialSpeed;
+        this.tracking = tracking;
+    }
+
+    /**
+     * Creates a game for this scenario, already played for a while.
+     *
+     * @param seed
+     * @return
+     */
+    public PongGame newGame(long seed) {
+        PongGame game = new PongGame(width, height, seed);
+        game.setInitialSpeed(initialSpeed);
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            game.nextFrame(leftMove(game), rightMove(game));
+        }
+        return game;
+    }
+
+    /**
+     * Creates a batch of games for this scenario, already played for a while.
+     *
+     * @param count
+     * @param seed
+     *            The seed of the first game; the others follow it
+     * @return
+     */
+    public BatchPongGame newBatch(int count, long seed) {
+        final long[] seeds = new long[count];
+        for (int i = 0; i < count; i++) {
+            seeds[i] = seed + i;
+        }
+        BatchPongGame batch = new BatchPongGame(width, height, seeds);
+        batch.setInitialSpeed(initialSpeed);
+        final int[] leftMoves = new int[count];
+        final int[] rightMoves = new int[count];
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            moves(batch, leftMoves, rightMoves);
+            batch.nextFrame(leftMoves, rightMoves);
+        }
+        return batch;
+    }
+
+    /**
+     * Computes the cheap scripted moves of every game of a batch.
+     *
+     * @param batch
+     * @param leftMoves
+     * @param rightMoves
+     */
+    public void moves(BatchPongGame batch, int[] leftMoves, int[] rightMoves) {
+        for (int i = 0; i < batch.getCount(); i++) {
+            leftMoves[i] = tracking ? (int) Math.signum(batch.getBallY(i) - batch.getLeftPaddleY(i)) : 0;
+            rightMoves[i] = tracking ? (int) Math.signum(batch.getBallY(i) - batch.getRightPaddleY(i)) : 0;
+        }
+    }
+
+    /**
+     * @param game
+     * @return The cheap scripted move of the left paddle.
+     */
+    public int leftMove(PongGame game) {
+        return tracking ? (int) Math.signum(game.getBallY() - game.getLeftPaddleY()) : 0;
+    }
+
+    /**
+     * @param game
+     * @return The cheap scripted move of the right paddle.
+     */
+    public int rightMove(PongGame game) {
+        return tracking ? (int) Math.signum(game.getBallY() - game.getRightPaddleY()) : 0;
+    }
+}
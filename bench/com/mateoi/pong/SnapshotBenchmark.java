@@ -0,0 +1,64 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures saving and restoring game state, alone and as used by a lookahead
+ * search: save, simulate a number of frames ahead, and restore.
+ *
+ * @author mateo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    @Param({ "16" })
+    private int lookahead;
+
+    private PongGame game;
+    private final SnapshotBuffer buffer = new SnapshotBuffer(1);
+
+    @Setup
+    public void setUp() {
+        game = Scenario.RALLY.newGame(42);
+    }
+
+    @Benchmark
+    public PongGame saveRestore() {
+        buffer.save(0, game);
+        buffer.restore(0, game);
+        return game;
+    }
+
+    @Benchmark
+    public double lookahead() {
+        buffer.push(game);
+        for (int i = 0; i < lookahead; i++) {
+            game.nextFrame(1, -1);
+        }
+        final double ballY = game.getBallY();
+        buffer.pop(game);
+        return ballY;
+    }
+
+    @Benchmark
+    public PongGame[] fork() {
+        return game.fork(4);
+    }
+}
@@ -0,0 +1,63 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many frames per second {@link SoftwareRenderer} draws into a
+ * pixel buffer, with no display. Run with {@code -t} set to the number of
+ * cores to see how it scales when frames are drawn in parallel; every thread
+ * has its own buffer and shares the renderer.
+ *
+ * @author mateo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoftwareRenderBenchmark {
+
+    private static final int WALL_OFFSET = 10;
+    private static final int LINE_THICKNESS = 3;
+
+    /** Shared by every benchmark thread, like the renderer of an export */
+    @State(Scope.Benchmark)
+    public static class Shared {
+        SoftwareRenderer renderer;
+
+        @Setup
+        public void setUp() {
+            renderer = new SoftwareRenderer(Scenario.RALLY.newGame(42), WALL_OFFSET, LINE_THICKNESS);
+        }
+    }
+
+    private PongGame game;
+    private final RenderState state = new RenderState();
+    private int[] pixels;
+
+    @Setup
+    public void setUp(Shared shared) {
+        game = Scenario.RALLY.newGame(42);
+        pixels = shared.renderer.newBuffer();
+    }
+
+    @Benchmark
+    public int[] render(Shared shared) {
+        game.nextFrame(Scenario.RALLY.leftMove(game), Scenario.RALLY.rightMove(game));
+        state.copyFrom(game);
+        shared.renderer.render(state, pixels);
+        return pixels;
+    }
+}
@@ -0,0 +1,136 @@
+package com.mateoi.pong;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the trace archive: how fast frames are appended by a
+ * {@link TraceWriter}, and how fast a {@link TraceReader} can jump to a random
+ * rally of a large archive and decode the frames that follow.
+ *
+ * The archive for the read benchmark is generated on the first run and kept in
+ * the temporary directory, since writing several gigabytes takes a while. Set
+ * {@code -Dtrace.dir=<dir>} to put it somewhere else.
+ *
+ * @author mateo
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceBenchmark {
+
+    /**
+     * A game played by two AIs, with a writer that appends every frame.
+     */
+    @State(Scope.Thread)
+    public static class WriteState {
+        private File file;
+        private TraceWriter writer;
+        private PongGame game;
+        private AIPlayer left;
+        private AIPlayer right;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            file = File.createTempFile("pong-trace", ".bin");
+            writer = new TraceWriter(file);
+            game = new PongGame(500, 300, 42);
+            left = new AIPlayer(true);
+            right = new AIPlayer(false);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            writer.close();
+            TraceWriter.indexFile(file).delete();
+            file.delete();
+        }
+    }
+
+    /**
+     * A large archive, opened for reading.
+     */
+    @State(Scope.Thread)
+    public static class ReadState {
+        @Param({ "4096" })
+        private int archiveMegabytes;
+
+        @Param({ "64" })
+        private int framesPerSeek;
+
+        private TraceReader reader;
+        private final TraceFrame frame = new TraceFrame();
+        private final SplittableRandom random = new SplittableRandom(42);
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            final File dir = new File(System.getProperty("trace.dir", System.getProperty("java.io.tmpdir")));
+            final File file = new File(dir, "pong-trace-" + archiveMegabytes + "mb.bin");
+            if (!file.exists() || !TraceWriter.indexFile(file).exists()) {
+                generate(file, (long) archiveMegabytes << 20);
+            }
+            reader = new TraceReader(file);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            reader.close();
+        }
+
+        /**
+         * Writes AI-vs-AI matches to an archive until it reaches the given
+         * size.
+         */
+        private static void generate(File file, long size) throws IOException {
+            try (TraceWriter writer = new TraceWriter(file)) {
+                long seed = 0;
+                while (writer.getSize() < size) {
+                    final PongGame game = new PongGame(500, 300, seed++);
+                    final HeadlessMatch match = new HeadlessMatch(game, new AIPlayer(true), new AIPlayer(false), 11);
+                    match.setMaxFrames(1_000_000);
+                    while (!match.step() && writer.getSize() < size) {
+                        writer.append(game);
+                    }
+                    writer.endMatch();
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public long append(WriteState state) throws IOException {
+        final PongGame game = state.game;
+        game.nextFrame(state.left.move(game), state.right.move(game));
+        state.writer.append(game);
+        return game.getFrames();
+    }
+
+    @Benchmark
+    public double seekAndRead(ReadState state) throws IOException {
+        final TraceReader reader = state.reader;
+        reader.seekRally(state.random.nextInt(reader.getRallyCount()));
+        double sum = 0;
+        for (int i = 0; i < state.framesPerSeek && reader.next(state.frame); i++) {
+            sum += state.frame.getBallX();
+        }
+        return sum;
+    }
+}
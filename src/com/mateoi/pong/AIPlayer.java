@@ -1,9 +1,13 @@
 package com.mateoi.pong;
 
-import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
-
 /**
- * An AI player that plays Pong.
+ * An AI player that plays Pong. It moves its paddle towards the point where
+ * the ball will cross its goal line, which is only recomputed when the ball
+ * is served or hit, or its velocity changes.
+ *
+ * Its skill can be lowered with an aim error, a random offset picked once for
+ * every serve or paddle hit and kept across the wall bounces that follow, and
+ * a dead zone in which it does not bother to move.
  *
  * @author mateo
  *
@@ -15,50 +19,155 @@ public class AIPlayer implements Player {
     /** A value that points away from the player */
     private final int awayDirection;
 
+    /** Ball x velocity the cached target was computed for */
+    private double cachedVelocityX = Double.NaN;
+    /** Ball y velocity the cached target was computed for */
+    private double cachedVelocityY = Double.NaN;
+    /** Number of serves when the cached target was computed */
+    private int cachedServes = -1;
+    /** Number of paddle hits when the cached target was computed */
+    private int cachedHits = -1;
+    /** Where the ball will cross this player's goal line */
+    private double cachedTarget;
+    /** Random offset added to the target since the last serve or hit */
+    private double aimOffset;
+
+    /** Largest random offset added to the target */
+    private double aimError = 0;
+    /** Distance from the target within which the paddle is left alone */
+    private double deadZone = 0;
+    /** Source of the aim errors */
+    private final SplitMix64 random;
+
     /**
      * Creates a new AI player.
      *
      * @param isLeft
      */
     public AIPlayer(boolean isLeft) {
+        this(isLeft, 0);
+    }
+
+    /**
+     * Creates a new AI player whose aim errors are generated from the given
+     * seed.
+     *
+     * @param isLeft
+     * @param seed
+     */
+    public AIPlayer(boolean isLeft, long seed) {
         this.isLeft = isLeft;
         awayDirection = isLeft ? 1 : -1;
+        random = new SplitMix64(seed);
     }
 
     /**
-     * Given a game state, return the position of this player's paddle.
+     * Given a game state, return the vertical position of this player's
+     * paddle.
      *
      * @param state
      * @return
      */
-    private Vector2D getSelfPosition(PongGame state) {
-        return isLeft ? state.getLeftPaddleCenter() : state.getRightPaddleCenter();
+    private double getSelfY(PongGame state) {
+        return isLeft ? state.getLeftPaddleY() : state.getRightPaddleY();
     }
 
     @Override
     public int move(PongGame state) {
-        if (Math.signum(state.getBallVelocity().getX()) == awayDirection) {
+        if (Math.signum(state.getBallVelocityX()) == awayDirection) {
+            return 0;
+        }
+        final double velocityX = state.getBallVelocityX();
+        final double velocityY = state.getBallVelocityY();
+        final int serves = state.getServes();
+        final int hits = state.getLeftHits() + state.getRightHits();
+        // A serve or a hit starts a new trajectory, aimed off by a new amount
+        // until the next one; wall bounces only bend the current one
+        if (serves != cachedServes || hits != cachedHits) {
+            aimOffset = aimError > 0 ? (2 * random.nextDouble() - 1) * aimError : 0;
+            cachedServes = serves;
+            cachedHits = hits;
+            cachedVelocityX = Double.NaN;
+        }
+        // The ball travels in a straight line until its velocity changes
+        if (velocityX != cachedVelocityX || velocityY != cachedVelocityY) {
+            cachedTarget = extendTrajectory(state) + aimOffset;
+            cachedVelocityX = velocityX;
+            cachedVelocityY = velocityY;
+        }
+        double finalY = cachedTarget;
+        double selfY = getSelfY(state);
+        if (Math.abs(finalY - selfY) <= deadZone) {
             return 0;
         }
-        double finalY = extendTrajectory(state) % state.getFieldHeight();
-        double selfY = getSelfPosition(state).getY();
         return (int) Math.signum(finalY - selfY);
     }
 
     /**
      * Given a game state, calculates the y-position at which the ball will
-     * intersect the player's goal line.
+     * intersect the player's goal line, including any bounces off the top and
+     * bottom walls.
      * 
      * @param state
      * @return
      */
     private double extendTrajectory(PongGame state) {
-        Vector2D ballV = state.getBallVelocity();
-        Vector2D ballPos = state.getBallPosition();
         double target = isLeft ? 0 : state.getFieldWidth();
-        double ticksToTarget = (target - ballPos.getX()) / ballV.getX();
-        double finalY = ballPos.getY() + ticksToTarget * ballV.getY();
-        return finalY;
+        double ticksToTarget = (target - state.getBallX()) / state.getBallVelocityX();
+        double finalY = state.getBallY() + ticksToTarget * state.getBallVelocityY();
+        return foldIntoField(finalY, state.getFieldHeight());
+    }
+
+    /**
+     * Maps a y-position on the straight, unbounced path of the ball to where
+     * the ball actually is after reflecting off the walls at 0 and height. The
+     * bounces mirror the field, so the path repeats every two heights.
+     *
+     * @param y
+     * @param height
+     * @return
+     */
+    static double foldIntoField(double y, double height) {
+        final double period = 2 * height;
+        double folded = y % period;
+        if (folded < 0) {
+            folded += period;
+        }
+        return folded > height ? period - folded : folded;
+    }
+
+    /**
+     * Set the largest random offset added to every target. A new offset is
+     * picked on every serve or paddle hit, and kept across wall bounces.
+     *
+     * @param aimError
+     */
+    public void setAimError(double aimError) {
+        this.aimError = aimError;
+    }
+
+    /**
+     * Set the distance from the target within which the paddle is not moved.
+     *
+     * @param deadZone
+     */
+    public void setDeadZone(double deadZone) {
+        this.deadZone = deadZone;
+    }
+
+    /**
+     * @return The largest random offset added to every target.
+     */
+    public double getAimError() {
+        return aimError;
+    }
+
+    /**
+     * @return The distance from the target within which the paddle is not
+     *         moved.
+     */
+    public double getDeadZone() {
+        return deadZone;
     }
 
 }
@@ -0,0 +1,62 @@
+package com.mateoi.pong;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that playing a game allocates nothing: plays AI-vs-AI frames with
+ * {@link PongGame#nextFrame(int, int)} and fails if the bytes the thread has
+ * allocated, as counted by the JVM, changed while doing so.
+ *
+ * Usage: AllocationTest [frames]
+ *
+ * The frames are played once first without measuring, so that the compiled
+ * code is measured rather than the interpreter.
+ *
+ * @author mateo
+ */
+public class AllocationTest {
+
+    /** Frames played before measuring */
+    private static final int WARMUP_FRAMES = 2_000_000;
+
+    public static void main(String[] args) {
+        final long frames = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000;
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            throw new IllegalStateException("This JVM does not count allocated bytes");
+        }
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        final long thread = Thread.currentThread().getId();
+
+        final PongGame game = new PongGame(500, 300, 1);
+        final AIPlayer left = new AIPlayer(true, 2);
+        final AIPlayer right = new AIPlayer(false, 3);
+        play(game, left, right, WARMUP_FRAMES);
+
+        // What reading the counter allocates by itself
+        final long overhead = -threads.getThreadAllocatedBytes(thread) + threads.getThreadAllocatedBytes(thread);
+        final long before = threads.getThreadAllocatedBytes(thread);
+        play(game, left, right, frames);
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+
+        System.out.printf("%d frames, %d - %d, %d bytes allocated%n", frames, game.getLeftScore(),
+                game.getRightScore(), allocated);
+        if (allocated != 0) {
+            throw new IllegalStateException(allocated + " bytes allocated by " + frames + " frames");
+        }
+    }
+
+    /**
+     * Plays frames with moves from the AIs.
+     *
+     * @param game
+     * @param left
+     * @param right
+     * @param frames
+     */
+    private static void play(PongGame game, Player left, Player right, long frames) {
+        for (long i = 0; i < frames; i++) {
+            game.nextFrame(left.move(game), right.move(game));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.mateoi.pong;
+
+/**
+ * Checks that a {@link BatchPongGame} follows exactly the rules of
+ * {@link PongGame}: plays AI-vs-AI matches on seeded games and on a batch with
+ * the same seeds, with the same moves, and fails at the first frame where any
+ * game's state differs in any bit.
+ *
+ * Usage: BatchEquivalenceTest [games] [frames]
+ *
+ * The AIs aim a little off, so the matches have goals, dead balls and rallies
+ * of every length.
+ *
+ * @author mateo
+ */
+public class BatchEquivalenceTest {
+
+    public static void main(String[] args) {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        final long frames = args.length > 1 ? Long.parseLong(args[1]) : 500_000;
+
+        final long[] seeds = new long[count];
+        final PongGame[] games = new PongGame[count];
+        final AIPlayer[] leftPlayers = new AIPlayer[count];
+        final AIPlayer[] rightPlayers = new AIPlayer[count];
+        for (int i = 0; i < count; i++) {
+            seeds[i] = SplitMix64.mix(i);
+            games[i] = new PongGame(500, 300, seeds[i]);
+            leftPlayers[i] = new AIPlayer(true, seeds[i] + 1);
+            leftPlayers[i].setAimError(20);
+            rightPlayers[i] = new AIPlayer(false, seeds[i] + 2);
+            rightPlayers[i].setAimError(20);
+        }
+        final BatchPongGame batch = new BatchPongGame(500, 300, seeds);
+        final int[] leftMoves = new int[count];
+        final int[] rightMoves = new int[count];
+
+        compare(games, batch, 0);
+        for (long frame = 1; frame <= frames; frame++) {
+            for (int i = 0; i < count; i++) {
+                leftMoves[i] = leftPlayers[i].move(games[i]);
+                rightMoves[i] = rightPlayers[i].move(games[i]);
+                games[i].nextFrame(leftMoves[i], rightMoves[i]);
+            }
+            batch.nextFrame(leftMoves, rightMoves);
+            compare(games, batch, frame);
+        }
+
+        long goals = 0;
+        long hits = 0;
+        for (PongGame game : games) {
+            goals += game.getLeftScore() + game.getRightScore();
+            hits += game.getLeftHits() + game.getRightHits();
+        }
+        System.out.printf("%d games, %d frames each, %d goals and %d hits: identical%n", count, frames, goals,
+                hits);
+    }
+
+    /**
+     * Compares every game with its counterpart in the batch.
+     *
+     * @param games
+     * @param batch
+     * @param frame
+     *            Number of frames played, for the error message
+     */
+    private static void compare(PongGame[] games, BatchPongGame batch, long frame) {
+        for (int i = 0; i < games.length; i++) {
+            final PongGame game = games[i];
+            check("ball x", i, frame, game.getBallX(), batch.getBallX(i));
+            check("ball y", i, frame, game.getBallY(), batch.getBallY(i));
+            check("ball x velocity", i, frame, game.getBallVelocityX(), batch.getBallVelocityX(i));
+            check("ball y velocity", i, frame, game.getBallVelocityY(), batch.getBallVelocityY(i));
+            check("left paddle", i, frame, game.getLeftPaddleY(), batch.getLeftPaddleY(i));
+            check("left paddle velocity", i, frame, game.getLeftPaddleVelocityY(), batch.getLeftPaddleVelocityY(i));
+            check("right paddle", i, frame, game.getRightPaddleY(), batch.getRightPaddleY(i));
+            check("right paddle velocity", i, frame, game.getRightPaddleVelocityY(),
+                    batch.getRightPaddleVelocityY(i));
+            check("left score", i, frame, game.getLeftScore(), batch.getLeftScore(i));
+            check("right score", i, frame, game.getRightScore(), batch.getRightScore(i));
+            check("left hits", i, frame, game.getLeftHits(), batch.getLeftHits(i));
+            check("right hits", i, frame, game.getRightHits(), batch.getRightHits(i));
+            check("longest rally", i, frame, game.getLongestRally(), batch.getLongestRally(i));
+            check("dead balls", i, frame, game.getDeadBalls(), batch.getDeadBalls(i));
+        }
+    }
+
+    /**
+     * Fails unless two values are the same bit for bit.
+     *
+     * @param name
+     * @param game
+     * @param frame
+     * @param expected
+     *            The value in the {@link PongGame}
+     * @param actual
+     *            The value in the batch
+     */
+    private static void check(String name, int game, long frame, double expected, double actual) {
+        if (Double.doubleToRawLongBits(expected) != Double.doubleToRawLongBits(actual)) {
+            throw new IllegalStateException("Game " + game + " differs after " + frame + " frames: " + name + " is "
+                    + actual + " instead of " + expected);
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package com.mateoi.pong;
+
+/**
+ * Steps many independent Pong games at once. The state of every game is kept
+ * in parallel primitive arrays (structure of arrays) indexed by game, so a
+ * frame for all games is a single linear pass over memory.
+ *
+ * Each game follows exactly the rules of {@link PongGame}: a game in this
+ * batch that is configured like a {@link PongGame} with the same seed produces
+ * the same state frame for frame. Swept collisions are not supported.
+ *
+ * @author mateo
+ */
+public class BatchPongGame {
+
+    /** Number of games in the batch */
+    private final int count;
+
+    // Per-game state
+    private final double[] ballX;
+    private final double[] ballY;
+    private final double[] ballVX;
+    private final double[] ballVY;
+    private final double[] leftPaddleY;
+    private final double[] leftPaddleVY;
+    private final double[] rightPaddleY;
+    private final double[] rightPaddleVY;
+    private final int[] leftScore;
+    private final int[] rightScore;
+    private final int[] wallBounces;
+    /** State of each game's {@link SplitMix64} serve generator */
+    private final long[] randomState;
+
+    // Per-game statistics
+    private final int[] longestRally;
+    private final int[] totalPaddleHits;
+    private final int[] deadBalls;
+    private final int[] currentRally;
+    private final int[] leftHits;
+    private final int[] rightHits;
+
+    // Physics parameters, shared by all games
+    private double initialBallSpeed = PongGame.DEFAULT_INITIAL_SPEED;
+    private double paddleRadius = PongGame.DEFAULT_PADDLE_RADIUS;
+    private double paddleCurvature = PongGame.DEFAULT_PADDLE_CURVATURE;
+    private double paddleAcceleration = PongGame.DEFAULT_PADDLE_ACCELERATION;
+    private double paddleFriction = PongGame.DEFAULT_PADDLE_FRICTION;
+    private double paddleElasticCoefficient = PongGame.DEFAULT_ELASTIC_COEFFICIENT;
+    private double spinFactor = PongGame.DEFAULT_SPIN_FACTOR;
+    private final int maxWallBounces = PongGame.MAX_WALL_BOUNCES;
+
+    /** Total width of the field */
+    private final double fieldWidth;
+    /** Total height of the field */
+    private final double fieldHeight;
+
+    /**
+     * Creates a batch of games with the given field size.
+     *
+     * @param count
+     *            Number of games in the batch
+     * @param width
+     *            The total width of the playing field
+     * @param height
+     *            The total height of the playing field.
+     */
+    public BatchPongGame(int count, double width, double height) {
+        this(width, height, newSeeds(count));
+    }
+
+    /**
+     * Creates a batch of games with the given field size, one per seed.
+     *
+     * @param width
+     *            The total width of the playing field
+     * @param height
+     *            The total height of the playing field.
+     * @param seeds
+     *            The seed of each game's serves, as in
+     *            {@link PongGame#PongGame(double, double, long)}
+     */
+    public BatchPongGame(double width, double height, long[] seeds) {
+        count = seeds.length;
+        fieldWidth = width;
+        fieldHeight = height;
+        randomState = seeds.clone();
+
+        ballX = new double[count];
+        ballY = new double[count];
+        ballVX = new double[count];
+        ballVY = new double[count];
+        leftPaddleY = new double[count];
+        leftPaddleVY = new double[count];
+        rightPaddleY = new double[count];
+        rightPaddleVY = new double[count];
+        leftScore = new int[count];
+        rightScore = new int[count];
+        wallBounces = new int[count];
+        longestRally = new int[count];
+        totalPaddleHits = new int[count];
+        deadBalls = new int[count];
+        currentRally = new int[count];
+        leftHits = new int[count];
+        rightHits = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            leftPaddleY[i] = height / 2;
+            rightPaddleY[i] = height / 2;
+            serve(i);
+        }
+    }
+
+    /**
+     * @param count
+     * @return An array of seeds that differ between runs.
+     */
+    private static long[] newSeeds(int count) {
+        SplitMix64 random = new SplitMix64(System.nanoTime() * SplitMix64.GAMMA);
+        long[] seeds = new long[count];
+        for (int i = 0; i < count; i++) {
+            seeds[i] = random.nextLong();
+        }
+        return seeds;
+    }
+
+    /**
+     * Advances the serve generator of a game.
+     *
+     * @param i
+     * @return The next pseudorandom double in [0, 1) for that game.
+     */
+    private double nextDouble(int i) {
+        randomState[i] += SplitMix64.GAMMA;
+        return SplitMix64.toDouble(SplitMix64.mix(randomState[i]));
+    }
+
+    /**
+     * Places the ball of a game in the middle of the field with a random
+     * direction.
+     *
+     * @param i
+     */
+    private void serve(int i) {
+        ballX[i] = fieldWidth / 2;
+        ballY[i] = fieldHeight / 2;
+        final double x = 10 * nextDouble(i) - 5;
+        final double y = 2 * nextDouble(i) - 1;
+        final double inverseNorm = 1 / Math.sqrt(x * x + y * y);
+        ballVX[i] = x * inverseNorm * initialBallSpeed;
+        ballVY[i] = y * inverseNorm * initialBallSpeed;
+        currentRally[i] = 0;
+    }
+
+    /**
+     * Updates every game by one frame given the players' inputs. This is the
+     * same as calling {@link PongGame#nextFrame(int, int)} on each game.
+     *
+     * @param leftMoves
+     *            The left player's move for each game
+     * @param rightMoves
+     *            The right player's move for each game
+     */
+    public void nextFrame(int[] leftMoves, int[] rightMoves) {
+        final double friction = 1 - paddleFriction;
+        final double minPaddleY = paddleRadius;
+        final double maxPaddleY = fieldHeight - paddleRadius;
+        for (int i = 0; i < count; i++) {
+            // To prevent bouncing around forever
+            if (wallBounces[i] >= maxWallBounces) {
+                deadBalls[i]++;
+                wallBounces[i] = 0;
+                serve(i);
+            }
+
+            // Accelerate and move the paddles
+            final int leftMove = leftMoves[i];
+            final int rightMove = rightMoves[i];
+            double ly = leftPaddleY[i];
+            double lvy = leftPaddleVY[i];
+            if (leftMove == 0 || ly <= minPaddleY && leftMove == -1 || ly >= maxPaddleY && leftMove == 1) {
+                lvy = lvy * friction;
+            } else {
+                lvy = lvy + leftMove * paddleAcceleration;
+            }
+            ly = ly + lvy;
+            if (ly < minPaddleY) {
+                ly = minPaddleY;
+            } else if (ly > maxPaddleY) {
+                ly = maxPaddleY;
+            }
+            double ry = rightPaddleY[i];
+            double rvy = rightPaddleVY[i];
+            if (rightMove == 0 || ry <= minPaddleY && rightMove == -1 || ry >= maxPaddleY && rightMove == 1) {
+                rvy = rvy * friction;
+            } else {
+                rvy = rvy + rightMove * paddleAcceleration;
+            }
+            ry = ry + rvy;
+            if (ry < minPaddleY) {
+                ry = minPaddleY;
+            } else if (ry > maxPaddleY) {
+                ry = maxPaddleY;
+            }
+            leftPaddleY[i] = ly;
+            leftPaddleVY[i] = lvy;
+            rightPaddleY[i] = ry;
+            rightPaddleVY[i] = rvy;
+
+            // Move and bounce the ball
+            double x = ballX[i];
+            double y = ballY[i];
+            double vx = ballVX[i];
+            double vy = ballVY[i];
+            if (y <= 0) {
+                wallBounces[i]++;
+                // Reflecting along a vertical normal flips the y velocity
+                vy = -vy;
+            } else if (y >= fieldHeight) {
+                wallBounces[i]++;
+                vy = -vy;
+            } else if (x <= 0 && y >= ly - paddleRadius && y <= ly + paddleRadius) {
+                wallBounces[i] = 0;
+                leftHits[i]++;
+                currentRally[i]++;
+                x = 0;
+                final double normalY = (y - ly) * paddleCurvature + lvy * spinFactor;
+                final double inverseNorm = 1 / Math.sqrt(1 + normalY * normalY);
+                final double normalX = inverseNorm;
+                final double unitNormalY = normalY * inverseNorm;
+                final double height = 2 * (normalX * vx + unitNormalY * vy);
+                vx = (vx - normalX * height) * paddleElasticCoefficient;
+                vy = (vy - unitNormalY * height) * paddleElasticCoefficient;
+            } else if (x >= fieldWidth && y >= ry - paddleRadius && y <= ry + paddleRadius) {
+                wallBounces[i] = 0;
+                rightHits[i]++;
+                currentRally[i]++;
+                x = fieldWidth;
+                final double normalY = (y - ry) * paddleCurvature + rvy * spinFactor;
+                final double inverseNorm = 1 / Math.sqrt(1 + normalY * normalY);
+                final double normalX = -inverseNorm;
+                final double unitNormalY = normalY * inverseNorm;
+                final double height = 2 * (normalX * vx + unitNormalY * vy);
+                vx = (vx - normalX * height) * paddleElasticCoefficient;
+                vy = (vy - unitNormalY * height) * paddleElasticCoefficient;
+            }
+            x += vx;
+            y += vy;
+            ballX[i] = x;
+            ballY[i] = y;
+            ballVX[i] = vx;
+            ballVY[i] = vy;
+
+            // Check for a goal
+            if (x <= -10 || x >= fieldWidth + 10) {
+                if (x <= -10) {
+                    rightScore[i]++;
+                } else {
+                    leftScore[i]++;
+                }
+                if (currentRally[i] > longestRally[i]) {
+                    longestRally[i] = currentRally[i];
+                }
+                totalPaddleHits[i] += currentRally[i];
+                serve(i);
+            }
+        }
+    }
+
+    /**
+     * @return The number of games in the batch.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param i
+     * @return The ball's current x position in the given game.
+     */
+    public double getBallX(int i) {
+        return ballX[i];
+    }
+
+    /**
+     * @param i
+     * @return The ball's current y position in the given game.
+     */
+    public double getBallY(int i) {
+        return ballY[i];
+    }
+
+    /**
+     * @param i
+     * @return The ball's current x velocity in the given game.
+     */
+    public double getBallVelocityX(int i) {
+        return ballVX[i];
+    }
+
+    /**
+     * @param i
+     * @return The ball's current y velocity in the given game.
+     */
+    public double getBallVelocityY(int i) {
+        return ballVY[i];
+    }
+
+    /**
+     * @param i
+     * @return The y position of the left paddle's center in the given game.
+     */
+    public double getLeftPaddleY(int i) {
+        return leftPaddleY[i];
+    }
+
+    /**
+     * @param i
+     * @return The y velocity of the left paddle in the given game.
+     */
+    public double getLeftPaddleVelocityY(int i) {
+        return leftPaddleVY[i];
+    }
+
+    /**
+     * @param i
+     * @return The y position of the right paddle's center in the given game.
+     */
+    public double getRightPaddleY(int i) {
+        return rightPaddleY[i];
+    }
+
+    /**
+     * @param i
+     * @return The y velocity of the right paddle in the given game.
+     */
+    public double getRightPaddleVelocityY(int i) {
+        return rightPaddleVY[i];
+    }
+
+    /**
+     * @param i
+     * @return The left player's score in the given game.
+     */
+    public int getLeftScore(int i) {
+        return leftScore[i];
+    }
+
+    /**
+     * @param i
+     * @return The right player's score in the given game.
+     */
+    public int getRightScore(int i) {
+        return rightScore[i];
+    }
+
+    /**
+     * @param i
+     * @return The current number of consecutive wall bounces in the given
+     *         game.
+     */
+    public int getWallBounces(int i) {
+        return wallBounces[i];
+    }
+
+    /**
+     * @param i
+     * @return The length of the current rally in the given game.
+     */
+    public int getCurrentRally(int i) {
+        return currentRally[i];
+    }
+
+    /**
+     * @param i
+     * @return The longest rally in the given game.
+     */
+    public int getLongestRally(int i) {
+        return longestRally[i];
+    }
+
+    /**
+     * @param i
+     * @return The number of dead balls in the given game.
+     */
+    public int getDeadBalls(int i) {
+        return deadBalls[i];
+    }
+
+    /**
+     * @param i
+     * @return The number of times the left player has hit the ball in the
+     *         given game.
+     */
+    public int getLeftHits(int i) {
+        return leftHits[i];
+    }
+
+    /**
+     * @param i
+     * @return The number of times the right player has hit the ball in the
+     *         given game.
+     */
+    public int getRightHits(int i) {
+        return rightHits[i];
+    }
+
+    /**
+     * @return The total width of the play area.
+     */
+    public double getFieldWidth() {
+        return fieldWidth;
+    }
+
+    /**
+     * @return The total height of the play area.
+     */
+    public double getFieldHeight() {
+        return fieldHeight;
+    }
+
+    /**
+     * Set the size of the game paddles.
+     *
+     * @param paddleSize
+     */
+    public void setPaddleRadius(double paddleSize) {
+        paddleRadius = paddleSize;
+    }
+
+    /**
+     * Change the amount by which the paddles curve and deflect a ball by.
+     *
+     * @param paddleCurvature
+     */
+    public void setPaddleCurvature(double paddleCurvature) {
+        this.paddleCurvature = paddleCurvature;
+    }
+
+    /**
+     * Set the rate at which the paddles respond to player input.
+     *
+     * @param paddleAcceleration
+     */
+    public void setPaddleAcceleration(double paddleAcceleration) {
+        this.paddleAcceleration = paddleAcceleration;
+    }
+
+    /**
+     * Set the rate at which the paddles slow down when there is no input
+     * applied.
+     *
+     * @param paddleFriction
+     */
+    public void setPaddleFriction(double paddleFriction) {
+        this.paddleFriction = paddleFriction;
+    }
+
+    /**
+     * Set how much a paddle's movement affects the trajectory of a bouncing
+     * ball.
+     *
+     * @param spinFactor
+     */
+    public void setSpinFactor(double spinFactor) {
+        this.spinFactor = spinFactor;
+    }
+
+    /**
+     * Set the speed increase of the ball when it bounces with a paddle.
+     *
+     * @param elasticCoefficient
+     */
+    public void setElasticCoefficient(double elasticCoefficient) {
+        paddleElasticCoefficient = elasticCoefficient;
+    }
+
+    /**
+     * Set the initial speed of the balls when served.
+     *
+     * @param initialSpeed
+     */
+    public void setInitialSpeed(double initialSpeed) {
+        initialBallSpeed = initialSpeed;
+    }
+}
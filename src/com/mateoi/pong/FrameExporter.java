@@ -0,0 +1,236 @@
+package com.mateoi.pong;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Turns recorded matches into images with a {@link SoftwareRenderer}, either
+ * one PNG file per frame or a single stream of raw RGB frames that video
+ * tools can read, for instance with
+ * {@code ffmpeg -f rawvideo -pix_fmt rgb24 -s 520x320 -r 60 -i match.rgb match.mp4}.
+ *
+ * The match is replayed in batches of frames. Each batch is first simulated,
+ * which is cheap, and its frames are then drawn and encoded in parallel on a
+ * fork-join pool, every worker reusing its own pixel buffer.
+ *
+ * Usage: FrameExporter recording output [png|raw] [step] [wallOffset]
+ * [lineThickness]
+ *
+ * The output is a directory for PNG files and a file for raw frames. Only
+ * every step-th frame is exported.
+ *
+ * @author mateo
+ */
+public class FrameExporter {
+
+    /** Frames drawn in parallel at a time */
+    static final int BATCH = 64;
+
+    /** Draws the frames */
+    private final SoftwareRenderer renderer;
+    /** Runs the drawing and encoding */
+    private final ForkJoinPool pool;
+    /** Every worker's image, whose pixels are drawn into directly */
+    private final ThreadLocal<BufferedImage> images;
+    /** States of the frames of the current batch */
+    private final RenderState[] states = new RenderState[BATCH];
+
+    /**
+     * Creates an exporter drawing with the given renderer on the given pool.
+     *
+     * @param renderer
+     * @param pool
+     */
+    public FrameExporter(SoftwareRenderer renderer, ForkJoinPool pool) {
+        this.renderer = renderer;
+        this.pool = pool;
+        images = ThreadLocal.withInitial(
+                () -> new BufferedImage(renderer.getWidth(), renderer.getHeight(), BufferedImage.TYPE_INT_RGB));
+        for (int i = 0; i < BATCH; i++) {
+            states[i] = new RenderState();
+        }
+    }
+
+    /**
+     * Something done with every batch of frames.
+     */
+    private interface BatchHandler {
+        /**
+         * @param count
+         *            Frames in the batch, whose states are in the first slots
+         * @param first
+         *            Number of the batch's first exported frame
+         */
+        void handle(int count, long first) throws IOException;
+    }
+
+    /**
+     * Replays a recording, filling the states of a batch at a time.
+     *
+     * @param recording
+     * @param step
+     *            Only every step-th frame is kept
+     * @param handler
+     * @return The number of frames kept
+     * @throws IOException
+     */
+    private long replay(MatchRecording recording, int step, BatchHandler handler) throws IOException {
+        if (step < 1) {
+            throw new IllegalArgumentException("Step must be positive: " + step);
+        }
+        final PongGame game = recording.newGame();
+        long exported = 0;
+        int count = 0;
+        states[count++].copyFrom(game);
+        for (int i = 0; i < recording.getRunCount(); i++) {
+            final int run = recording.getRun(i);
+            final int leftMove = MatchRecording.leftMove(run);
+            final int rightMove = MatchRecording.rightMove(run);
+            for (int k = MatchRecording.length(run); k > 0; k--) {
+                game.nextFrame(leftMove, rightMove);
+                if (game.getFrames() % step != 0) {
+                    continue;
+                }
+                states[count++].copyFrom(game);
+                if (count == BATCH) {
+                    handler.handle(count, exported);
+                    exported += count;
+                    count = 0;
+                }
+            }
+        }
+        handler.handle(count, exported);
+        return exported + count;
+    }
+
+    /**
+     * Writes every frame of a recording as a PNG file, numbered in order from
+     * frame-000000.png.
+     *
+     * @param recording
+     * @param directory
+     * @param step
+     *            Only every step-th frame is written
+     * @return The number of frames written
+     * @throws IOException
+     */
+    public long writePngs(MatchRecording recording, File directory, int step) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create " + directory);
+        }
+        return replay(recording, step, (count, first) -> parallel(count, i -> {
+            final BufferedImage image = images.get();
+            renderer.render(states[i], ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+            final File file = new File(directory, String.format("frame-%06d.png", first + i));
+            if (!ImageIO.write(image, "png", file)) {
+                throw new IOException("No PNG writer available");
+            }
+        }));
+    }
+
+    /**
+     * Writes every frame of a recording to a stream as raw 24-bit RGB pixels,
+     * one row after another from the top, with no header.
+     *
+     * @param recording
+     * @param out
+     * @param step
+     *            Only every step-th frame is written
+     * @return The number of frames written
+     * @throws IOException
+     */
+    public long writeRaw(MatchRecording recording, OutputStream out, int step) throws IOException {
+        final int pixels = renderer.getWidth() * renderer.getHeight();
+        final byte[][] frames = new byte[BATCH][3 * pixels];
+        return replay(recording, step, (count, first) -> {
+            parallel(count, i -> {
+                final int[] argb = ((DataBufferInt) images.get().getRaster().getDataBuffer()).getData();
+                renderer.render(states[i], argb);
+                final byte[] rgb = frames[i];
+                for (int p = 0, b = 0; p < pixels; p++) {
+                    final int color = argb[p];
+                    rgb[b++] = (byte) (color >>> 16);
+                    rgb[b++] = (byte) (color >>> 8);
+                    rgb[b++] = (byte) color;
+                }
+            });
+            for (int i = 0; i < count; i++) {
+                out.write(frames[i]);
+            }
+        });
+    }
+
+    /**
+     * Work done for one frame of a batch.
+     */
+    private interface FrameTask {
+        void run(int frame) throws IOException;
+    }
+
+    /**
+     * Runs a task for every frame of a batch on the pool.
+     *
+     * @param count
+     * @param task
+     * @throws IOException
+     *             The first exception thrown by the task
+     */
+    private void parallel(int count, FrameTask task) throws IOException {
+        try {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(i -> {
+                try {
+                    task.run(i);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: FrameExporter recording output [png|raw] [step] [wallOffset] [lineThickness]");
+            return;
+        }
+        System.setProperty("java.awt.headless", "true");
+        final File output = new File(args[1]);
+        final boolean png = args.length <= 2 || args[2].equals("png");
+        final int step = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        final int wallOffset = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        final int lineThickness = args.length > 5 ? Integer.parseInt(args[5]) : 3;
+
+        final MatchRecording recording;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])))) {
+            recording = MatchRecording.read(in);
+        }
+        final SoftwareRenderer renderer = new SoftwareRenderer(recording.newGame(), wallOffset, lineThickness);
+        final FrameExporter exporter = new FrameExporter(renderer, ForkJoinPool.commonPool());
+        final long start = System.nanoTime();
+        final long frames;
+        if (png) {
+            frames = exporter.writePngs(recording, output, step);
+        } else {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 20)) {
+                frames = exporter.writeRaw(recording, out, step);
+            }
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d frames of %dx%d in %.2f s, %.0f frames per second%n", frames, renderer.getWidth(),
+                renderer.getHeight(), seconds, frames / seconds);
+    }
+}
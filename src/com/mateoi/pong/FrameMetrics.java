@@ -0,0 +1,262 @@
+package com.mateoi.pong;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures where the time of each frame goes: a latency histogram for every
+ * phase of a frame, the time between screen pulses, and the pulses that were
+ * missed because a frame took too long.
+ *
+ * Recording is done by the game loops, and every phase is always recorded by
+ * the same thread. While disabled, the loops skip all measuring after a single
+ * check. The metrics can be exported periodically to a file in the Prometheus
+ * text format, for instance for the node exporter's textfile collector.
+ *
+ * @author mateo
+ */
+public class FrameMetrics {
+
+    /**
+     * The measured parts of a frame.
+     */
+    public enum Phase {
+        /** Time between two screen pulses */
+        PULSE("pulse"),
+        /** Drawing the field */
+        DRAW("draw"),
+        /** Getting the left player's move */
+        LEFT_MOVE("left_move"),
+        /** Getting the right player's move */
+        RIGHT_MOVE("right_move"),
+        /** Advancing the game */
+        PHYSICS("physics"),
+        /** All the work of a frame */
+        FRAME("frame"),
+        /** Time from a key event to the first frame drawn with its effect */
+        INPUT("input");
+
+        /** Name used in exported metrics */
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return The name used in exported metrics.
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /** Quantiles exported */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /** The histogram of each phase, in nanoseconds */
+    private final Histogram[] histograms = new Histogram[Phase.values().length];
+    /** Whether the game loops should measure */
+    private volatile boolean enabled = true;
+    /** Expected time between screen pulses */
+    private long pulseNanos = TimeUnit.SECONDS.toNanos(1) / 60;
+    /** Time of the last screen pulse, or 0 */
+    private long lastPulse = 0;
+    /** Number of screen pulses missed */
+    private volatile long missedPulses = 0;
+
+    /** Thread writing the export file, if exporting */
+    private volatile Thread exporter;
+
+    /**
+     * Creates new, enabled metrics.
+     */
+    public FrameMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @return Whether the game loops should measure.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set whether the game loops should measure.
+     *
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        lastPulse = 0;
+    }
+
+    /**
+     * Set the expected time between screen pulses, used to count the missed
+     * ones. The default is a 60 Hz screen.
+     *
+     * @param pulseNanos
+     */
+    public void setPulseNanos(long pulseNanos) {
+        this.pulseNanos = pulseNanos;
+    }
+
+    /**
+     * Records the time a phase took.
+     *
+     * @param phase
+     * @param nanos
+     */
+    public void record(Phase phase, long nanos) {
+        histograms[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records the time since a phase started and returns the current time, so
+     * consecutive phases can be timed with one clock read each.
+     *
+     * @param phase
+     * @param start
+     *            When the phase started, from {@link System#nanoTime()}
+     * @return The current time
+     */
+    public long lap(Phase phase, long start) {
+        final long now = System.nanoTime();
+        histograms[phase.ordinal()].record(now - start);
+        return now;
+    }
+
+    /**
+     * Records a screen pulse, and counts the pulses missed since the previous
+     * one. Must always be called from the same thread.
+     *
+     * @param now
+     *            The time of the pulse
+     */
+    public void pulse(long now) {
+        if (lastPulse != 0) {
+            final long interval = now - lastPulse;
+            histograms[Phase.PULSE.ordinal()].record(interval);
+            if (interval > pulseNanos + pulseNanos / 2) {
+                missedPulses += (interval + pulseNanos / 2) / pulseNanos - 1;
+            }
+        }
+        lastPulse = now;
+    }
+
+    /**
+     * Copies the histogram of a phase. Safe to call from any thread.
+     *
+     * @param phase
+     * @param target
+     */
+    public void snapshot(Phase phase, Histogram target) {
+        histograms[phase.ordinal()].copyInto(target);
+    }
+
+    /**
+     * @return The number of screen pulses missed.
+     */
+    public long getMissedPulses() {
+        return missedPulses;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format: a summary of each
+     * phase in seconds and a counter of missed pulses.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        final Histogram copy = new Histogram();
+        out.write("# HELP pong_phase_seconds Time taken by each phase of a frame.\n");
+        out.write("# TYPE pong_phase_seconds summary\n");
+        for (Phase phase : Phase.values()) {
+            snapshot(phase, copy);
+            for (double quantile : QUANTILES) {
+                out.write(String.format(Locale.ROOT, "pong_phase_seconds{phase=\"%s\",quantile=\"%s\"} %.9f\n",
+                        phase.getLabel(), quantile, copy.getValueAtPercentile(quantile * 100) / 1e9));
+            }
+            out.write(String.format(Locale.ROOT, "pong_phase_seconds_sum{phase=\"%s\"} %.9f\n", phase.getLabel(),
+                    copy.getSum() / 1e9));
+            out.write(String.format(Locale.ROOT, "pong_phase_seconds_count{phase=\"%s\"} %d\n", phase.getLabel(),
+                    copy.getCount()));
+        }
+        out.write("# HELP pong_missed_pulses_total Screen pulses missed because a frame took too long.\n");
+        out.write("# TYPE pong_missed_pulses_total counter\n");
+        out.write("pong_missed_pulses_total " + missedPulses + "\n");
+    }
+
+    /**
+     * Writes the metrics to a file, replacing it at once so readers never see
+     * a partly written file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void export(File file) throws IOException {
+        final File temporary = new File(file.getPath() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+            writePrometheus(out);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Starts exporting the metrics to a file periodically on a daemon thread.
+     *
+     * @param file
+     * @param periodMillis
+     */
+    public void startExport(File file, long periodMillis) {
+        if (exporter != null) {
+            throw new IllegalStateException("Already exporting");
+        }
+        final Thread thread = new Thread(() -> {
+            while (true) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(periodMillis));
+                if (exporter != Thread.currentThread()) {
+                    return;
+                }
+                try {
+                    export(file);
+                } catch (IOException e) {
+                    System.err.println("Could not export metrics: " + e.getMessage());
+                }
+            }
+        }, "Metrics export");
+        thread.setDaemon(true);
+        exporter = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops exporting the metrics.
+     */
+    public void stopExport() {
+        final Thread thread = exporter;
+        exporter = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * @return Whether the metrics are being exported.
+     */
+    public boolean isExporting() {
+        return exporter != null;
+    }
+}
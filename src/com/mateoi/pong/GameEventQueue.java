@@ -0,0 +1,210 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands the events of a game to listeners on another thread. Added to a game
+ * as a listener, it stores every event in a lock-free single-producer
+ * single-consumer ring of primitive arrays; the consumer then calls
+ * {@link #drain(GameListener)}, for instance once per drawn frame, to replay
+ * every stored event to its own listener in one batch.
+ *
+ * Nothing is allocated for an event. When the consumer falls so far behind
+ * that the ring is full, new events are dropped and counted rather than
+ * holding up the game.
+ *
+ * @author mateo
+ */
+public class GameEventQueue implements GameListener {
+
+    /** Default number of events that can be stored; a power of two */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    // Kinds of events
+    private static final int GOAL = 0;
+    private static final int PADDLE_HIT = 1;
+    private static final int WALL_BOUNCE = 2;
+    private static final int SERVE = 3;
+    private static final int DEAD_BALL = 4;
+    /** Added to the kind for the left paddle or player, or the top wall */
+    private static final int FLAG = 8;
+
+    /** Slots in the ring minus one */
+    private final int mask;
+    // The ring of events: every event uses the fields it needs
+    private final int[] kinds;
+    private final long[] frames;
+    private final int[] first;
+    private final int[] second;
+    private final int[] third;
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    /** Number of events ever stored; written by the producer */
+    private final AtomicLong tail = new AtomicLong();
+    /** Number of events ever drained; written by the consumer */
+    private final AtomicLong head = new AtomicLong();
+    /** The producer's last look at the head */
+    private long cachedHead = 0;
+    /** Number of events dropped because the ring was full */
+    private volatile long dropped = 0;
+
+    /**
+     * Creates a queue that can store {@link #DEFAULT_CAPACITY} events.
+     */
+    public GameEventQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a queue that can store the given number of events.
+     *
+     * @param capacity
+     *            A power of two
+     */
+    public GameEventQueue(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mask = capacity - 1;
+        kinds = new int[capacity];
+        frames = new long[capacity];
+        first = new int[capacity];
+        second = new int[capacity];
+        third = new int[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+    }
+
+    /**
+     * Claims the next slot of the ring.
+     *
+     * @return The slot, or -1 if the ring is full
+     */
+    private int claim() {
+        final long t = tail.get();
+        if (t - cachedHead > mask) {
+            cachedHead = head.get();
+            if (t - cachedHead > mask) {
+                dropped++;
+                return -1;
+            }
+        }
+        return (int) t & mask;
+    }
+
+    /**
+     * Makes the event in the last claimed slot visible to the consumer.
+     */
+    private void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    @Override
+    public void goal(long frame, boolean left, int leftScore, int rightScore, int rally) {
+        final int slot = claim();
+        if (slot >= 0) {
+            kinds[slot] = left ? GOAL + FLAG : GOAL;
+            frames[slot] = frame;
+            first[slot] = leftScore;
+            second[slot] = rightScore;
+            third[slot] = rally;
+            publish();
+        }
+    }
+
+    @Override
+    public void paddleHit(long frame, boolean left, double offset, double ballVX, double ballVY, int rally) {
+        final int slot = claim();
+        if (slot >= 0) {
+            kinds[slot] = left ? PADDLE_HIT + FLAG : PADDLE_HIT;
+            frames[slot] = frame;
+            first[slot] = rally;
+            x[slot] = offset;
+            y[slot] = ballVX;
+            z[slot] = ballVY;
+            publish();
+        }
+    }
+
+    @Override
+    public void wallBounce(long frame, boolean top, int bounces) {
+        final int slot = claim();
+        if (slot >= 0) {
+            kinds[slot] = top ? WALL_BOUNCE + FLAG : WALL_BOUNCE;
+            frames[slot] = frame;
+            first[slot] = bounces;
+            publish();
+        }
+    }
+
+    @Override
+    public void serve(long frame, int serve, double velocityX, double velocityY) {
+        final int slot = claim();
+        if (slot >= 0) {
+            kinds[slot] = SERVE;
+            frames[slot] = frame;
+            first[slot] = serve;
+            x[slot] = velocityX;
+            y[slot] = velocityY;
+            publish();
+        }
+    }
+
+    @Override
+    public void deadBall(long frame, int bounces) {
+        final int slot = claim();
+        if (slot >= 0) {
+            kinds[slot] = DEAD_BALL;
+            frames[slot] = frame;
+            first[slot] = bounces;
+            publish();
+        }
+    }
+
+    /**
+     * Replays every stored event to a listener, in the order they happened,
+     * and removes them. Must always be called from the same thread.
+     *
+     * @param listener
+     * @return The number of events replayed
+     */
+    public int drain(GameListener listener) {
+        long h = head.get();
+        final long t = tail.get();
+        final int count = (int) (t - h);
+        for (; h < t; h++) {
+            final int slot = (int) h & mask;
+            final int kind = kinds[slot];
+            final boolean flag = kind >= FLAG;
+            switch (kind & (FLAG - 1)) {
+            case GOAL:
+                listener.goal(frames[slot], flag, first[slot], second[slot], third[slot]);
+                break;
+            case PADDLE_HIT:
+                listener.paddleHit(frames[slot], flag, x[slot], y[slot], z[slot], first[slot]);
+                break;
+            case WALL_BOUNCE:
+                listener.wallBounce(frames[slot], flag, first[slot]);
+                break;
+            case SERVE:
+                listener.serve(frames[slot], first[slot], x[slot], y[slot]);
+                break;
+            default:
+                listener.deadBall(frames[slot], first[slot]);
+                break;
+            }
+        }
+        head.lazySet(t);
+        return count;
+    }
+
+    /**
+     * @return The number of events dropped because the consumer did not drain
+     *         them in time.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
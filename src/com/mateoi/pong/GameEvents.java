@@ -0,0 +1,306 @@
+package com.mateoi.pong;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for what happens in a game and how long the
+ * engine takes, so hitches can be matched with GC pauses and compilation in a
+ * single recording. Start a recording with, for instance,
+ * {@code -XX:StartFlightRecording=filename=pong.jfr}. The gameplay events of
+ * a game are only sent once {@link PongGame#setFlightEvents(boolean)} is
+ * enabled, which the application does with {@code -Dpong.flightEvents=true}.
+ *
+ * Every helper checks whether its event type is enabled before doing
+ * anything else, so while no recording is running, or the event is switched
+ * off in it, no event object is created and nothing is allocated.
+ *
+ * @author mateo
+ */
+public final class GameEvents {
+
+    private GameEvents() {
+        // Only static helpers
+    }
+
+    // The types of the events, whose settings are checked before creating one
+    private static final EventType PADDLE_HIT = EventType.getEventType(PaddleHit.class);
+    private static final EventType WALL_BOUNCE = EventType.getEventType(WallBounce.class);
+    private static final EventType DEAD_BALL = EventType.getEventType(DeadBall.class);
+    private static final EventType SERVE = EventType.getEventType(Serve.class);
+    private static final EventType GOAL = EventType.getEventType(Goal.class);
+    private static final EventType FRAME = EventType.getEventType(Frame.class);
+    private static final EventType PLAYER_DECISION = EventType.getEventType(PlayerDecision.class);
+
+    @Name("com.mateoi.pong.PaddleHit")
+    @Label("Paddle Hit")
+    @Category({ "Pong", "Gameplay" })
+    @StackTrace(false)
+    static final class PaddleHit extends Event {
+        @Label("Frame")
+        long frame;
+        @Label("Left Paddle")
+        boolean left;
+        @Label("Offset")
+        @Description("Distance from the paddle's center to where the ball hit")
+        double offset;
+        @Label("Ball Speed")
+        @Description("Speed of the ball after the hit, in pixels per frame")
+        double ballSpeed;
+        @Label("Rally")
+        @Description("Paddle hits so far in this rally")
+        int rally;
+    }
+
+    @Name("com.mateoi.pong.WallBounce")
+    @Label("Wall Bounce")
+    @Category({ "Pong", "Gameplay" })
+    @StackTrace(false)
+    static final class WallBounce extends Event {
+        @Label("Frame")
+        long frame;
+        @Label("Top Wall")
+        boolean top;
+        @Label("Wall Bounces")
+        @Description("Wall bounces since the last paddle hit")
+        int bounces;
+    }
+
+    @Name("com.mateoi.pong.DeadBall")
+    @Label("Dead Ball")
+    @Category({ "Pong", "Gameplay" })
+    @Description("The ball bounced between the walls too many times and was served again")
+    @StackTrace(false)
+    static final class DeadBall extends Event {
+        @Label("Frame")
+        long frame;
+        @Label("Wall Bounces")
+        int bounces;
+    }
+
+    @Name("com.mateoi.pong.Serve")
+    @Label("Serve")
+    @Category({ "Pong", "Gameplay" })
+    @StackTrace(false)
+    static final class Serve extends Event {
+        @Label("Frame")
+        long frame;
+        @Label("Serve Number")
+        long serve;
+        @Label("Velocity X")
+        double velocityX;
+        @Label("Velocity Y")
+        double velocityY;
+    }
+
+    @Name("com.mateoi.pong.Goal")
+    @Label("Goal")
+    @Category({ "Pong", "Gameplay" })
+    @StackTrace(false)
+    static final class Goal extends Event {
+        @Label("Frame")
+        long frame;
+        @Label("Scored By Left")
+        boolean left;
+        @Label("Left Score")
+        int leftScore;
+        @Label("Right Score")
+        int rightScore;
+        @Label("Rally")
+        @Description("Paddle hits in the rally that ended")
+        int rally;
+    }
+
+    @Name("com.mateoi.pong.Frame")
+    @Label("Frame")
+    @Category({ "Pong", "Engine" })
+    @Description("Everything done for one frame: drawing, the players' moves and the physics")
+    @StackTrace(false)
+    static final class Frame extends Event {
+        @Label("Frame")
+        long frame;
+        @Label("Left Move")
+        int leftMove;
+        @Label("Right Move")
+        int rightMove;
+    }
+
+    @Name("com.mateoi.pong.PlayerDecision")
+    @Label("Player Decision")
+    @Category({ "Pong", "Engine" })
+    @StackTrace(false)
+    static final class PlayerDecision extends Event {
+        @Label("Frame")
+        long frame;
+        @Label("Left Player")
+        boolean left;
+        @Label("Player")
+        Class<?> player;
+        @Label("Move")
+        int move;
+    }
+
+    /**
+     * Records a paddle hit.
+     *
+     * @param frame
+     * @param left
+     * @param offset
+     * @param ballVX
+     * @param ballVY
+     * @param rally
+     */
+    static void paddleHit(long frame, boolean left, double offset, double ballVX, double ballVY, int rally) {
+        if (PADDLE_HIT.isEnabled()) {
+            final PaddleHit event = new PaddleHit();
+            event.frame = frame;
+            event.left = left;
+            event.offset = offset;
+            event.ballSpeed = Math.sqrt(ballVX * ballVX + ballVY * ballVY);
+            event.rally = rally;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a wall bounce.
+     *
+     * @param frame
+     * @param top
+     * @param bounces
+     */
+    static void wallBounce(long frame, boolean top, int bounces) {
+        if (WALL_BOUNCE.isEnabled()) {
+            final WallBounce event = new WallBounce();
+            event.frame = frame;
+            event.top = top;
+            event.bounces = bounces;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a dead ball.
+     *
+     * @param frame
+     * @param bounces
+     */
+    static void deadBall(long frame, int bounces) {
+        if (DEAD_BALL.isEnabled()) {
+            final DeadBall event = new DeadBall();
+            event.frame = frame;
+            event.bounces = bounces;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a serve.
+     *
+     * @param frame
+     * @param serve
+     * @param velocityX
+     * @param velocityY
+     */
+    static void serve(long frame, long serve, double velocityX, double velocityY) {
+        if (SERVE.isEnabled()) {
+            final Serve event = new Serve();
+            event.frame = frame;
+            event.serve = serve;
+            event.velocityX = velocityX;
+            event.velocityY = velocityY;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a goal.
+     *
+     * @param frame
+     * @param left
+     *            Whether the left player scored
+     * @param leftScore
+     * @param rightScore
+     * @param rally
+     */
+    static void goal(long frame, boolean left, int leftScore, int rightScore, int rally) {
+        if (GOAL.isEnabled()) {
+            final Goal event = new Goal();
+            event.frame = frame;
+            event.left = left;
+            event.leftScore = leftScore;
+            event.rightScore = rightScore;
+            event.rally = rally;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing a frame. Pass the result to
+     * {@link #endFrame(Frame, PongGame, int, int)} once the frame is done.
+     *
+     * @return The event being timed, or null if frames are not recorded
+     */
+    static Frame beginFrame() {
+        if (!FRAME.isEnabled()) {
+            return null;
+        }
+        final Frame event = new Frame();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Records a frame started with {@link #beginFrame()}.
+     *
+     * @param event
+     *            The event, or null if frames are not recorded
+     * @param game
+     * @param leftMove
+     * @param rightMove
+     */
+    static void endFrame(Frame event, PongGame game, int leftMove, int rightMove) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.frame = game.getFrames();
+            event.leftMove = leftMove;
+            event.rightMove = rightMove;
+            event.commit();
+        }
+    }
+
+    /**
+     * Gets a player's move, recording how long the player took to decide.
+     *
+     * @param player
+     * @param game
+     * @param left
+     *            Whether the player controls the left paddle
+     * @return The player's move
+     */
+    static int move(Player player, PongGame game, boolean left) {
+        if (!PLAYER_DECISION.isEnabled()) {
+            return player.move(game);
+        }
+        final PlayerDecision event = new PlayerDecision();
+        event.begin();
+        final int move = player.move(game);
+        event.end();
+        if (event.shouldCommit()) {
+            event.frame = game.getFrames();
+            event.left = left;
+            event.player = player.getClass();
+            event.move = move;
+            event.commit();
+        }
+        return move;
+    }
+}
@@ -0,0 +1,90 @@
+package com.mateoi.pong;
+
+/**
+ * Receives what happens in a {@link PongGame} as it happens. Every method is
+ * called on the thread playing the game, with primitive arguments only, and
+ * does nothing by default, so a listener only overrides what it cares about.
+ *
+ * Listeners on other threads should be fed through a {@link GameEventQueue},
+ * which stores the events and hands them over in batches.
+ *
+ * A {@link RollbackSession} may replace frames after their events were sent,
+ * so listeners that must only hear about the real match, such as one that
+ * ends the game, are added to the session's confirmed game instead. A queue
+ * drops events when it is full; goals carry the whole score, so a dropped
+ * goal is made up for by the next one.
+ *
+ * @author mateo
+ */
+public interface GameListener {
+
+    /**
+     * Called when a player scores, after the score is updated.
+     *
+     * @param frame
+     * @param left
+     *            Whether the left player scored
+     * @param leftScore
+     * @param rightScore
+     * @param rally
+     *            Paddle hits in the rally that ended
+     */
+    default void goal(long frame, boolean left, int leftScore, int rightScore, int rally) {
+        // Not interested
+    }
+
+    /**
+     * Called when a paddle hits the ball.
+     *
+     * @param frame
+     * @param left
+     *            Whether it was the left paddle
+     * @param offset
+     *            Distance from the paddle's center to where the ball hit
+     * @param ballVX
+     *            The ball's velocity after the hit
+     * @param ballVY
+     * @param rally
+     *            Paddle hits so far in this rally
+     */
+    default void paddleHit(long frame, boolean left, double offset, double ballVX, double ballVY, int rally) {
+        // Not interested
+    }
+
+    /**
+     * Called when the ball bounces off a wall.
+     *
+     * @param frame
+     * @param top
+     *            Whether it was the top wall
+     * @param bounces
+     *            Wall bounces since the last paddle hit
+     */
+    default void wallBounce(long frame, boolean top, int bounces) {
+        // Not interested
+    }
+
+    /**
+     * Called when the ball is served.
+     *
+     * @param frame
+     * @param serve
+     *            Number of serves so far, including this one
+     * @param velocityX
+     * @param velocityY
+     */
+    default void serve(long frame, int serve, double velocityX, double velocityY) {
+        // Not interested
+    }
+
+    /**
+     * Called when the ball bounced between the walls too many times and is
+     * about to be served again.
+     *
+     * @param frame
+     * @param bounces
+     */
+    default void deadBall(long frame, int bounces) {
+        // Not interested
+    }
+}
@@ -0,0 +1,486 @@
+package com.mateoi.pong;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Tunes the physics parameters of the game together with the skill of two
+ * tiers of {@link AIPlayer} with a genetic algorithm. The goals are long
+ * rallies, few dead balls, and a given win rate of the strong tier over the
+ * weak one.
+ *
+ * Every candidate is scored by playing headless matches between the two
+ * tiers, and a whole generation is played in parallel on a fork-join pool.
+ * The matches are played in rounds, and after every round but the last the
+ * worse half of the remaining candidates is dropped (successive halving), so
+ * little time is spent on candidates that are clearly losing.
+ *
+ * Every generation is appended to a log file as soon as it is scored. A run
+ * that is started with an existing log resumes after the last complete
+ * generation in it.
+ *
+ * Usage: GeneticTuner [logFile] [generations] [population]
+ *
+ * @author mateo
+ */
+public class GeneticTuner {
+
+    // Indices of the genes
+    static final int ACCELERATION = 0;
+    static final int FRICTION = 1;
+    static final int SPIN = 2;
+    static final int ELASTIC = 3;
+    static final int CURVATURE = 4;
+    static final int SPEED = 5;
+    static final int STRONG_AIM_ERROR = 6;
+    static final int WEAK_AIM_ERROR = 7;
+    static final int DEAD_ZONE = 8;
+    static final int GENES = 9;
+
+    /** Names of the genes, for the log */
+    static final String[] GENE_NAMES = { "acceleration", "friction", "spin", "elastic", "curvature", "speed",
+            "strongAimError", "weakAimError", "deadZone" };
+    /** Smallest value of every gene */
+    private static final double[] MIN = { 0.1, 0.05, 0, 1, 0, 1, 0, 0, 0 };
+    /** Largest value of every gene */
+    private static final double[] MAX = { 1, 0.5, 0.1, 1.3, 0.05, 4, 40, 120, 10 };
+
+    /**
+     * Worth of longer rallies. Rallies count logarithmically, so endless
+     * rallies can't make up for missing the other goals
+     */
+    private static final double RALLY_WEIGHT = 10;
+    /** How much dead balls per point cost */
+    private static final double DEAD_BALL_WEIGHT = 5;
+    /** How much missing the target win rate costs, per unit of win rate */
+    private static final double WIN_RATE_WEIGHT = 50;
+    /** How much abandoned matches cost, per unit of the abandon rate */
+    private static final double ABANDON_WEIGHT = 50;
+    /** Number of best candidates copied unchanged to the next generation */
+    private static final int ELITES = 2;
+    /** Number of candidates in every selection tournament */
+    private static final int TOURNAMENT_SIZE = 3;
+    /** Chance that a gene is mutated */
+    private static final double MUTATION_RATE = 0.2;
+    /** Largest mutation, as a fraction of the gene's range */
+    private static final double MUTATION_SIZE = 0.1;
+
+    /** Total width of the field */
+    private final double fieldWidth;
+    /** Total height of the field */
+    private final double fieldHeight;
+    /** The pool the matches are played on */
+    private final ForkJoinPool pool;
+
+    /** Number of candidates in every generation */
+    private int populationSize = 32;
+    /** Matches played by every remaining candidate in each round */
+    private int matchesPerRound = 4;
+    /** Number of rounds, each playing half as many candidates as the last */
+    private int rounds = 3;
+    /** Score to win each match */
+    private int winningScore = 5;
+    /** Frames after which a match is abandoned */
+    private long maxFrames = 200_000;
+    /** The win rate of the strong tier over the weak one to aim for */
+    private double targetWinRate = 0.75;
+    /** Seed of the whole run */
+    private long seed = 0;
+
+    /**
+     * A set of genes and the results of its matches so far.
+     */
+    static class Candidate {
+        final double[] genes;
+        int matches;
+        long hits;
+        long points;
+        long deadBalls;
+        int strongWins;
+        int abandoned;
+        double fitness;
+
+        Candidate(double[] genes) {
+            this.genes = genes;
+        }
+    }
+
+    /**
+     * Creates a tuner for games on fields of the given size, played on the
+     * common fork-join pool.
+     *
+     * @param width
+     * @param height
+     */
+    public GeneticTuner(double width, double height) {
+        this(width, height, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a tuner for games on fields of the given size.
+     *
+     * @param width
+     * @param height
+     * @param pool
+     */
+    public GeneticTuner(double width, double height, ForkJoinPool pool) {
+        fieldWidth = width;
+        fieldHeight = height;
+        this.pool = pool;
+    }
+
+    /**
+     * Runs the given number of generations, counting the ones already in the
+     * log.
+     *
+     * @param log
+     *            The file every generation is appended to
+     * @param generations
+     * @return The last generation, best first
+     * @throws IOException
+     */
+    public List<Candidate> run(File log, int generations) throws IOException {
+        List<Candidate> population = new ArrayList<>();
+        int generation = readLog(log, population);
+        try (PrintWriter out = new PrintWriter(new FileWriter(log, true))) {
+            if (generation < 0) {
+                out.println("# generation\tcandidate\tfitness\tmatches\taverageRally\tdeadBallsPerPoint\twinRate\t"
+                        + String.join("\t", GENE_NAMES));
+                population = initialPopulation();
+            } else if (generation + 1 < generations) {
+                population = breed(population, generation + 1);
+            }
+            for (generation++; generation < generations; generation++) {
+                evaluate(population, generation);
+                population.sort(Comparator.comparingDouble((Candidate c) -> c.fitness).reversed());
+                for (int i = 0; i < population.size(); i++) {
+                    out.println(format(generation, i, population.get(i)));
+                }
+                out.flush();
+                if (generation + 1 < generations) {
+                    population = breed(population, generation + 1);
+                }
+            }
+        }
+        return population;
+    }
+
+    /**
+     * Reads the last complete generation of a log.
+     *
+     * @param log
+     * @param population
+     *            Where the candidates are added
+     * @return The number of the generation, or -1 if there is none
+     * @throws IOException
+     */
+    private int readLog(File log, List<Candidate> population) throws IOException {
+        if (!log.exists()) {
+            return -1;
+        }
+        int last = -1;
+        List<Candidate> current = new ArrayList<>();
+        int currentGeneration = -1;
+        try (BufferedReader in = new BufferedReader(new FileReader(log))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String[] fields = line.split("\t");
+                if (line.startsWith("#") || fields.length != 7 + GENES) {
+                    // A header, or a line cut short by an interrupted run
+                    continue;
+                }
+                final int generation = Integer.parseInt(fields[0]);
+                // A generation is restarted from its first candidate when a
+                // run is resumed after being interrupted partway through it
+                if (generation != currentGeneration || Integer.parseInt(fields[1]) == 0) {
+                    current = new ArrayList<>();
+                    currentGeneration = generation;
+                }
+                final double[] genes = new double[GENES];
+                for (int i = 0; i < GENES; i++) {
+                    genes[i] = Double.parseDouble(fields[7 + i]);
+                }
+                final Candidate candidate = new Candidate(genes);
+                candidate.fitness = Double.parseDouble(fields[2]);
+                current.add(candidate);
+                if (current.size() == populationSize) {
+                    last = generation;
+                    population.clear();
+                    population.addAll(current);
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return One line of the log.
+     */
+    private static String format(int generation, int index, Candidate candidate) {
+        final StringBuilder line = new StringBuilder();
+        final long points = Math.max(1, candidate.points);
+        line.append(generation).append('\t').append(index).append('\t').append(candidate.fitness).append('\t')
+                .append(candidate.matches).append('\t').append((double) candidate.hits / points).append('\t')
+                .append((double) candidate.deadBalls / points).append('\t')
+                .append((double) candidate.strongWins / Math.max(1, candidate.matches));
+        for (double gene : candidate.genes) {
+            line.append('\t').append(gene);
+        }
+        return line.toString();
+    }
+
+    /**
+     * @return The first generation: the game's default settings and random
+     *         candidates.
+     */
+    private List<Candidate> initialPopulation() {
+        final SplitMix64 random = new SplitMix64(seed);
+        final List<Candidate> population = new ArrayList<>();
+        final double[] defaults = new double[GENES];
+        defaults[ACCELERATION] = PongGame.DEFAULT_PADDLE_ACCELERATION;
+        defaults[FRICTION] = PongGame.DEFAULT_PADDLE_FRICTION;
+        defaults[SPIN] = PongGame.DEFAULT_SPIN_FACTOR;
+        defaults[ELASTIC] = PongGame.DEFAULT_ELASTIC_COEFFICIENT;
+        defaults[CURVATURE] = PongGame.DEFAULT_PADDLE_CURVATURE;
+        defaults[SPEED] = PongGame.DEFAULT_INITIAL_SPEED;
+        defaults[WEAK_AIM_ERROR] = PongGame.DEFAULT_PADDLE_RADIUS * 2;
+        population.add(new Candidate(defaults));
+        while (population.size() < populationSize) {
+            final double[] genes = new double[GENES];
+            for (int i = 0; i < GENES; i++) {
+                genes[i] = MIN[i] + random.nextDouble() * (MAX[i] - MIN[i]);
+            }
+            population.add(new Candidate(genes));
+        }
+        return population;
+    }
+
+    /**
+     * Breeds a new generation from a scored one, sorted best first.
+     *
+     * @param parents
+     * @param generation
+     *            The number of the new generation, which seeds its randomness
+     * @return The new generation
+     */
+    private List<Candidate> breed(List<Candidate> parents, int generation) {
+        final SplitMix64 random = new SplitMix64(SplitMix64.mix(seed + generation * SplitMix64.GAMMA));
+        final List<Candidate> children = new ArrayList<>();
+        for (int i = 0; i < ELITES && i < parents.size(); i++) {
+            children.add(new Candidate(parents.get(i).genes.clone()));
+        }
+        while (children.size() < populationSize) {
+            final double[] first = select(parents, random).genes;
+            final double[] second = select(parents, random).genes;
+            final double[] genes = new double[GENES];
+            for (int i = 0; i < GENES; i++) {
+                // Blend crossover, which can also reach a little past either
+                // parent
+                final double blend = random.nextDouble() * 1.5 - 0.25;
+                double gene = first[i] + blend * (second[i] - first[i]);
+                if (random.nextDouble() < MUTATION_RATE) {
+                    gene += (2 * random.nextDouble() - 1) * MUTATION_SIZE * (MAX[i] - MIN[i]);
+                }
+                genes[i] = Math.max(MIN[i], Math.min(MAX[i], gene));
+            }
+            children.add(new Candidate(genes));
+        }
+        return children;
+    }
+
+    /**
+     * @return The best of a few random candidates.
+     */
+    private static Candidate select(List<Candidate> candidates, SplitMix64 random) {
+        Candidate best = null;
+        for (int i = 0; i < TOURNAMENT_SIZE; i++) {
+            final Candidate candidate = candidates.get((int) (random.nextDouble() * candidates.size()));
+            if (best == null || candidate.fitness > best.fitness) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Scores a generation with successive halving: every round plays more
+     * matches for the remaining candidates, and then drops the worse half.
+     * Dropped candidates keep the fitness they had.
+     *
+     * @param population
+     * @param generation
+     */
+    private void evaluate(List<Candidate> population, int generation) {
+        List<Candidate> remaining = new ArrayList<>(population);
+        for (int round = 0; round < rounds; round++) {
+            final Candidate[] candidates = remaining.toArray(new Candidate[0]);
+            final int firstMatch = round * matchesPerRound;
+            final HeadlessMatch[] matches = new HeadlessMatch[candidates.length * matchesPerRound];
+            pool.submit(() -> IntStream.range(0, matches.length).parallel().forEach(i -> {
+                final int match = firstMatch + i % matchesPerRound;
+                final long matchSeed = SplitMix64.mix(seed ^ SplitMix64.mix(generation * 1_000_003L + match));
+                matches[i] = playMatch(candidates[i / matchesPerRound].genes, matchSeed, match % 2 == 0);
+            })).join();
+            for (int i = 0; i < matches.length; i++) {
+                record(candidates[i / matchesPerRound], matches[i], (firstMatch + i % matchesPerRound) % 2 == 0);
+            }
+            for (Candidate candidate : candidates) {
+                candidate.fitness = fitness(candidate);
+            }
+            if (round + 1 < rounds) {
+                remaining.sort(Comparator.comparingDouble((Candidate c) -> c.fitness).reversed());
+                remaining = new ArrayList<>(remaining.subList(0, Math.max(1, (remaining.size() + 1) / 2)));
+            }
+        }
+    }
+
+    /**
+     * Plays a match between the two tiers with a candidate's settings.
+     *
+     * @param genes
+     * @param seed
+     * @param strongLeft
+     *            Whether the strong tier plays on the left
+     * @return The finished match
+     */
+    private HeadlessMatch playMatch(double[] genes, long seed, boolean strongLeft) {
+        final PongGame game = new PongGame(fieldWidth, fieldHeight, seed);
+        game.setPaddleAcceleration(genes[ACCELERATION]);
+        game.setPaddleFriction(genes[FRICTION]);
+        game.setSpinFactor(genes[SPIN]);
+        game.setElasticCoefficient(genes[ELASTIC]);
+        game.setPaddleCurvature(genes[CURVATURE]);
+        game.setInitialSpeed(genes[SPEED]);
+        final AIPlayer strong = new AIPlayer(strongLeft, seed + 1);
+        strong.setAimError(genes[STRONG_AIM_ERROR]);
+        strong.setDeadZone(genes[DEAD_ZONE]);
+        final AIPlayer weak = new AIPlayer(!strongLeft, seed + 2);
+        weak.setAimError(genes[WEAK_AIM_ERROR]);
+        weak.setDeadZone(genes[DEAD_ZONE]);
+        final HeadlessMatch match = new HeadlessMatch(game, strongLeft ? strong : weak, strongLeft ? weak : strong,
+                winningScore);
+        match.setMaxFrames(maxFrames);
+        match.play();
+        return match;
+    }
+
+    /**
+     * Adds the results of a match to a candidate.
+     */
+    private static void record(Candidate candidate, HeadlessMatch match, boolean strongLeft) {
+        final PongGame game = match.getGame();
+        candidate.matches++;
+        candidate.hits += game.getLeftHits() + game.getRightHits();
+        candidate.points += game.getLeftScore() + game.getRightScore();
+        candidate.deadBalls += game.getDeadBalls();
+        if (match.isAbandoned()) {
+            candidate.abandoned++;
+        } else if (match.leftWins() == strongLeft) {
+            candidate.strongWins++;
+        }
+    }
+
+    /**
+     * @return The fitness of a candidate given its results so far.
+     */
+    private double fitness(Candidate candidate) {
+        final double points = Math.max(1, candidate.points);
+        final double averageRally = candidate.hits / points;
+        final double deadBallRate = candidate.deadBalls / points;
+        final double winRate = (double) candidate.strongWins / candidate.matches;
+        final double abandonRate = (double) candidate.abandoned / candidate.matches;
+        return RALLY_WEIGHT * Math.log1p(averageRally) - DEAD_BALL_WEIGHT * deadBallRate
+                - WIN_RATE_WEIGHT * Math.abs(winRate - targetWinRate) - ABANDON_WEIGHT * abandonRate;
+    }
+
+    /**
+     * Set the number of candidates in every generation.
+     *
+     * @param populationSize
+     */
+    public void setPopulationSize(int populationSize) {
+        this.populationSize = populationSize;
+    }
+
+    /**
+     * Set the number of matches every remaining candidate plays in each round.
+     *
+     * @param matchesPerRound
+     */
+    public void setMatchesPerRound(int matchesPerRound) {
+        this.matchesPerRound = matchesPerRound;
+    }
+
+    /**
+     * Set the number of rounds of successive halving.
+     *
+     * @param rounds
+     */
+    public void setRounds(int rounds) {
+        this.rounds = rounds;
+    }
+
+    /**
+     * Set the score needed to win each match.
+     *
+     * @param winningScore
+     */
+    public void setWinningScore(int winningScore) {
+        this.winningScore = winningScore;
+    }
+
+    /**
+     * Set the number of frames after which a match is abandoned.
+     *
+     * @param maxFrames
+     */
+    public void setMaxFrames(long maxFrames) {
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * Set the win rate of the strong tier over the weak one to aim for.
+     *
+     * @param targetWinRate
+     */
+    public void setTargetWinRate(double targetWinRate) {
+        this.targetWinRate = targetWinRate;
+    }
+
+    /**
+     * Set the seed of the run. A resumed run must use the same seed to
+     * continue exactly as it would have.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final File log = new File(args.length > 0 ? args[0] : "tuning.tsv");
+        final int generations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        final GeneticTuner tuner = new GeneticTuner(500, 300);
+        if (args.length > 2) {
+            tuner.setPopulationSize(Integer.parseInt(args[2]));
+        }
+        final long start = System.nanoTime();
+        final List<Candidate> population = tuner.run(log, generations);
+        final Candidate best = population.get(0);
+        System.out.printf("Best fitness %.3f after %d generations, %.1f s%n", best.fitness, generations,
+                (System.nanoTime() - start) / 1e9);
+        for (int i = 0; i < GENES; i++) {
+            System.out.printf("  %-16s %.4f%n", GENE_NAMES[i], best.genes[i]);
+        }
+        System.out.println("Log: " + log);
+    }
+}
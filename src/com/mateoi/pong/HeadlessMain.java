@@ -0,0 +1,100 @@
+package com.mateoi.pong;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Runs AI-vs-AI matches without a window and reports the results and the
+ * simulation speed.
+ *
+ * Usage: HeadlessMain [matches] [winningScore] [width] [height] [recordDir]
+ *
+ * When a directory is given, every match is recorded there and can be replayed
+ * with {@link MatchReplayer}. The statistics of every match are merged and
+ * their distributions reported at the end.
+ *
+ * @author mateo
+ */
+public class HeadlessMain {
+
+    public static void main(String[] args) throws IOException {
+        final int matches = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final int winningScore = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final double width = args.length > 2 ? Double.parseDouble(args[2]) : 500;
+        final double height = args.length > 3 ? Double.parseDouble(args[3]) : 300;
+        final File recordDir = args.length > 4 ? new File(args[4]) : null;
+        if (recordDir != null) {
+            recordDir.mkdirs();
+        }
+
+        int leftWins = 0;
+        int rightWins = 0;
+        int abandoned = 0;
+        long totalFrames = 0;
+        final MatchStatistics statistics = new MatchStatistics();
+        final MatchStatistics matchStatistics = new MatchStatistics();
+        final long start = System.nanoTime();
+        for (int i = 0; i < matches; i++) {
+            PongGame game = new PongGame(width, height);
+            HeadlessMatch match = new HeadlessMatch(game, new AIPlayer(true), new AIPlayer(false), winningScore);
+            match.setMaxFrames(10_000_000);
+            matchStatistics.reset();
+            game.setStatistics(matchStatistics);
+            InputRecorder recorder = null;
+            if (recordDir != null) {
+                recorder = new InputRecorder(game);
+                match.setRecorder(recorder);
+            }
+            totalFrames += match.play();
+            statistics.add(matchStatistics);
+            if (recorder != null) {
+                final File file = new File(recordDir, "match-" + (i + 1) + ".pong");
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file)))) {
+                    recorder.finish().write(out);
+                }
+            }
+            if (match.isAbandoned()) {
+                abandoned++;
+            } else if (match.leftWins()) {
+                leftWins++;
+            } else {
+                rightWins++;
+            }
+            System.out.println("Match " + (i + 1) + ": " + game.getLeftScore() + " - " + game.getRightScore()
+                    + " in " + match.getFrames() + " frames, longest rally " + game.getLongestRally()
+                    + ", dead balls " + game.getDeadBalls());
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println("Left wins: " + leftWins);
+        System.out.println("Right wins: " + rightWins);
+        System.out.println("Abandoned: " + abandoned);
+        System.out.println("Frames: " + totalFrames);
+        System.out.printf("Frames per second: %.0f%n", totalFrames / seconds);
+        printDistribution("Rally length", statistics.getRallyLengths(), 1, "hits");
+        printDistribution("Ball speed after a hit", statistics.getHitSpeeds(), MatchStatistics.SCALE,
+                "pixels per frame");
+        printDistribution("Impact offset", statistics.getImpactOffsets(), MatchStatistics.SCALE, "pixels");
+        printDistribution("Frames per point", statistics.getPointFrames(), 1, "frames");
+    }
+
+    /**
+     * Prints the mean and a few percentiles of a distribution.
+     *
+     * @param name
+     * @param histogram
+     * @param scale
+     *            What the values are divided by to get the unit
+     * @param unit
+     */
+    private static void printDistribution(String name, Histogram histogram, double scale, String unit) {
+        System.out.printf("%s: mean %.2f, median %.2f, 90%% %.2f, 99%% %.2f, max %.2f %s%n", name,
+                histogram.getMean() / scale, histogram.getValueAtPercentile(50) / scale,
+                histogram.getValueAtPercentile(90) / scale, histogram.getValueAtPercentile(99) / scale,
+                histogram.getMax() / scale, unit);
+    }
+}
@@ -0,0 +1,152 @@
+package com.mateoi.pong;
+
+/**
+ * Plays a match between two players without any graphics. The game is stepped
+ * as fast as possible until one of the players reaches the winning score.
+ *
+ * @author mateo
+ */
+public class HeadlessMatch {
+
+    /** The game that's being played */
+    private final PongGame game;
+    /** Player that controls the left paddle */
+    private final Player leftPlayer;
+    /** Player that controls the right paddle */
+    private final Player rightPlayer;
+    /** Score to win the game */
+    private final int winningScore;
+    /** Frames after which the match is abandoned, to avoid endless matches */
+    private long maxFrames = Long.MAX_VALUE;
+    /** Number of frames played so far */
+    private long frames = 0;
+    /** Records the moves of every frame, if set */
+    private InputRecorder recorder;
+
+    /**
+     * Creates a new headless match.
+     *
+     * @param game
+     * @param leftPlayer
+     * @param rightPlayer
+     * @param winningScore
+     */
+    public HeadlessMatch(PongGame game, Player leftPlayer, Player rightPlayer, int winningScore) {
+        this.game = game;
+        this.leftPlayer = leftPlayer;
+        this.rightPlayer = rightPlayer;
+        this.winningScore = winningScore;
+    }
+
+    /**
+     * Plays a single frame, unless the match is already over.
+     *
+     * @return Whether the match is over.
+     */
+    public boolean step() {
+        if (isFinished()) {
+            return true;
+        }
+        return advance(leftPlayer.move(game), rightPlayer.move(game));
+    }
+
+    /**
+     * Plays a single frame with moves that were already chosen by the
+     * players, so that a scheduler can ask many matches for their moves
+     * before stepping any of them.
+     *
+     * @param leftMove
+     * @param rightMove
+     * @return Whether the match is over.
+     */
+    boolean advance(int leftMove, int rightMove) {
+        if (recorder != null) {
+            recorder.record(leftMove, rightMove);
+        }
+        game.nextFrame(leftMove, rightMove);
+        frames++;
+        return isFinished();
+    }
+
+    /**
+     * Plays the match until it is over.
+     *
+     * @return The number of frames that were played.
+     */
+    public long play() {
+        while (!step()) {
+            // Keep playing
+        }
+        return frames;
+    }
+
+    /**
+     * @return Whether a player has reached the winning score or the frame
+     *         limit was hit.
+     */
+    public boolean isFinished() {
+        return game.getLeftScore() >= winningScore || game.getRightScore() >= winningScore || frames >= maxFrames;
+    }
+
+    /**
+     * @return Whether the left player won. Only meaningful once the match is
+     *         finished.
+     */
+    public boolean leftWins() {
+        return game.getLeftScore() > game.getRightScore();
+    }
+
+    /**
+     * @return Whether the match ended without a winner because the frame limit
+     *         was reached.
+     */
+    public boolean isAbandoned() {
+        return frames >= maxFrames && game.getLeftScore() < winningScore && game.getRightScore() < winningScore;
+    }
+
+    /**
+     * Set the number of frames after which the match is abandoned.
+     *
+     * @param maxFrames
+     */
+    public void setMaxFrames(long maxFrames) {
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * Record the moves of every frame played from now on.
+     *
+     * @param recorder
+     */
+    public void setRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @return The number of frames played so far.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return The player that controls the left paddle.
+     */
+    Player getLeftPlayer() {
+        return leftPlayer;
+    }
+
+    /**
+     * @return The player that controls the right paddle.
+     */
+    Player getRightPlayer() {
+        return rightPlayer;
+    }
+
+    /**
+     * @return The game being played.
+     */
+    public PongGame getGame() {
+        return game;
+    }
+}
@@ -0,0 +1,246 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative long values, such as durations in nanoseconds,
+ * with a fixed relative precision of about 6% over the whole range.
+ *
+ * Values are counted in log-linear buckets: the first 16 buckets hold the
+ * values 0 to 15 exactly, and every power of two above that is split into 16
+ * buckets of equal width. Recording a value never allocates, and two
+ * histograms can be merged by adding their buckets, so histograms recorded on
+ * different threads are cheap to combine.
+ *
+ * A histogram has a single writer, but any thread may read it at any time
+ * with {@link #copyInto(Histogram)}, which never blocks the writer. The copy
+ * may miss the values recorded while it was being taken. The other getters
+ * are meant for the writer, or for such a copy.
+ *
+ * @author mateo
+ */
+public class Histogram {
+
+    /** Bits of precision within each power of two */
+    private static final int SUB_BUCKET_BITS = 4;
+    /** Buckets per power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Number of buckets needed to cover every non-negative long */
+    static final int BUCKETS = (65 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    // Slots after the buckets
+    private static final int SUM = BUCKETS;
+    private static final int MIN = BUCKETS + 1;
+    private static final int MAX = BUCKETS + 2;
+
+    /** The bucket counts, followed by the sum, min and max of the values */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 3);
+    /** Number of values recorded, kept by the writer */
+    private long count = 0;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public Histogram() {
+        counts.set(MIN, Long.MAX_VALUE);
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        final int bucket = bucket(value);
+        // Only one thread writes, so lazy sets are enough for readers
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        counts.lazySet(SUM, counts.get(SUM) + value);
+        if (value < counts.get(MIN)) {
+            counts.lazySet(MIN, value);
+        }
+        if (value > counts.get(MAX)) {
+            counts.lazySet(MAX, value);
+        }
+        count++;
+    }
+
+    /**
+     * @param value
+     * @return The bucket a value is counted in.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @param bucket
+     * @return The smallest value counted in a bucket.
+     */
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+    }
+
+    /**
+     * @param bucket
+     * @return The number of different values counted in a bucket.
+     */
+    static long bucketWidth(int bucket) {
+        return bucket < SUB_BUCKETS ? 1 : 1L << ((bucket >> SUB_BUCKET_BITS) - 1);
+    }
+
+    /**
+     * Adds every value of another histogram to this one. Must be called by
+     * this histogram's writer.
+     *
+     * @param other
+     */
+    public void add(Histogram other) {
+        long added = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            final long n = other.counts.get(i);
+            if (n != 0) {
+                counts.lazySet(i, counts.get(i) + n);
+                added += n;
+            }
+        }
+        if (added == 0) {
+            return;
+        }
+        counts.lazySet(SUM, counts.get(SUM) + other.counts.get(SUM));
+        counts.lazySet(MIN, Math.min(counts.get(MIN), other.counts.get(MIN)));
+        counts.lazySet(MAX, Math.max(counts.get(MAX), other.counts.get(MAX)));
+        count += added;
+    }
+
+    /**
+     * Removes the values of another histogram from this one, typically an
+     * earlier copy of it, leaving the values recorded since. The smallest and
+     * largest values are then only known to within the histogram's precision.
+     * Must be called by this histogram's writer.
+     *
+     * @param earlier
+     */
+    public void subtract(Histogram earlier) {
+        long removed = 0;
+        int lowest = -1;
+        int highest = -1;
+        for (int i = 0; i < BUCKETS; i++) {
+            final long n = Math.min(counts.get(i), earlier.counts.get(i));
+            final long left = counts.get(i) - n;
+            counts.lazySet(i, left);
+            removed += n;
+            if (left != 0) {
+                if (lowest < 0) {
+                    lowest = i;
+                }
+                highest = i;
+            }
+        }
+        counts.lazySet(SUM, Math.max(0, counts.get(SUM) - earlier.counts.get(SUM)));
+        counts.lazySet(MIN, lowest < 0 ? Long.MAX_VALUE : Math.max(counts.get(MIN), lowestValue(lowest)));
+        counts.lazySet(MAX, highest < 0 ? 0
+                : Math.min(counts.get(MAX), lowestValue(highest) + bucketWidth(highest) - 1));
+        count -= removed;
+    }
+
+    /**
+     * Replaces the contents of another histogram with a copy of this one. Safe
+     * to call from any thread while this histogram is being written.
+     *
+     * @param target
+     */
+    public void copyInto(Histogram target) {
+        long copied = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            final long n = counts.get(i);
+            target.counts.lazySet(i, n);
+            copied += n;
+        }
+        target.counts.lazySet(SUM, counts.get(SUM));
+        target.counts.lazySet(MIN, counts.get(MIN));
+        target.counts.lazySet(MAX, counts.get(MAX));
+        target.count = copied;
+    }
+
+    /**
+     * Removes every value. Must be called by the writer.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.lazySet(i, 0);
+        }
+        counts.lazySet(SUM, 0);
+        counts.lazySet(MIN, Long.MAX_VALUE);
+        counts.lazySet(MAX, 0);
+        count = 0;
+    }
+
+    /**
+     * @return The number of values recorded.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The sum of the values recorded.
+     */
+    public long getSum() {
+        return counts.get(SUM);
+    }
+
+    /**
+     * @return The smallest value recorded, or 0 if there are none.
+     */
+    public long getMin() {
+        return count == 0 ? 0 : counts.get(MIN);
+    }
+
+    /**
+     * @return The largest value recorded, or 0 if there are none.
+     */
+    public long getMax() {
+        return counts.get(MAX);
+    }
+
+    /**
+     * @return The average of the values recorded, or 0 if there are none.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) getSum() / count;
+    }
+
+    /**
+     * @param percentile
+     *            Between 0 and 100
+     * @return A value such that the given percentage of the values recorded
+     *         is no larger, to within the histogram's precision; 0 if there
+     *         are none.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                final long middle = lowestValue(i) + bucketWidth(i) / 2;
+                return Math.max(getMin(), Math.min(getMax(), middle));
+            }
+        }
+        return getMax();
+    }
+}
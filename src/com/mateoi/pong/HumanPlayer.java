@@ -3,7 +3,9 @@ package com.mateoi.pong;
 import javafx.scene.input.KeyCode;
 
 /**
- * A Player that is controlled by keyboard input.
+ * A Player that is controlled by keyboard input. A key moves the paddle for
+ * every tick in which it was held, even briefly; when both keys were held, the
+ * one held longer during the tick wins.
  *
  * @author mateo
  */
@@ -12,10 +14,31 @@ public class HumanPlayer implements Player {
     private final KeyCode up;
     /** Key to use to move the paddle down */
     private final KeyCode down;
+    /** Where the keys are read from */
+    private final KeyboardInput input;
 
+    /**
+     * Creates a player controlled with the keys pressed in the
+     * {@link PongFXApp}.
+     *
+     * @param up
+     * @param down
+     */
     public HumanPlayer(KeyCode up, KeyCode down) {
+        this(up, down, PongFXApp.getInput());
+    }
+
+    /**
+     * Creates a player controlled with the keys of the given input.
+     *
+     * @param up
+     * @param down
+     * @param input
+     */
+    public HumanPlayer(KeyCode up, KeyCode down, KeyboardInput input) {
         this.up = up;
         this.down = down;
+        this.input = input;
     }
 
     /**
@@ -25,14 +48,7 @@ public class HumanPlayer implements Player {
      */
     @Override
     public int move(PongGame state) {
-        int move = 0;
-        if (PongFXApp.keyPressed(down)) {
-            move++;
-        }
-        if (PongFXApp.keyPressed(up)) {
-            move--;
-        }
-        return move;
+        return Integer.signum(Double.compare(input.getHeldFraction(down), input.getHeldFraction(up)));
     }
 
 }
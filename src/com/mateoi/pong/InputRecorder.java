@@ -0,0 +1,50 @@
+package com.mateoi.pong;
+
+/**
+ * Records the moves passed to a game's {@link PongGame#nextFrame(int, int)} so
+ * the match can be reproduced later with a {@link MatchReplayer}.
+ *
+ * @author mateo
+ */
+public class InputRecorder {
+
+    /** The game being recorded */
+    private final PongGame game;
+    /** Where the moves are stored */
+    private final MatchRecording recording;
+
+    /**
+     * Starts recording a game. The game must not have been played yet, and its
+     * settings must not change while it is recorded.
+     *
+     * @param game
+     */
+    public InputRecorder(PongGame game) {
+        if (game.getFrames() != 0) {
+            throw new IllegalArgumentException("Recording must start before the first frame");
+        }
+        this.game = game;
+        recording = new MatchRecording(game);
+    }
+
+    /**
+     * Records the moves of the next frame. Call this once for every call to
+     * {@link PongGame#nextFrame(int, int)}, with the same moves.
+     *
+     * @param leftMove
+     * @param rightMove
+     */
+    public void record(int leftMove, int rightMove) {
+        recording.append(MatchRecording.pack(leftMove, rightMove));
+    }
+
+    /**
+     * Stores the final score and statistics of the game in the recording.
+     *
+     * @return The finished recording
+     */
+    public MatchRecording finish() {
+        recording.finish(game);
+        return recording;
+    }
+}
@@ -0,0 +1,298 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javafx.scene.input.KeyCode;
+
+/**
+ * Keyboard state shared between the thread that receives key events and the
+ * thread that runs the simulation.
+ *
+ * Every press and release is stamped with the time it happened and queued in
+ * a lock-free single-producer single-consumer ring. Once per tick the
+ * simulation calls {@link #advance(long, long)}, which applies the events that
+ * happened before the tick, and no others. A key counts as active for a tick
+ * if it was held at any moment of it, so a press and release that both fall
+ * between two ticks still moves the paddle, and the fraction of the tick it
+ * was held is available to players that want it.
+ *
+ * The time from a key event to the first drawn frame that shows its effect is
+ * recorded as the input latency. The screen adds its own latency on top of
+ * that, which can't be measured from here.
+ *
+ * @author mateo
+ */
+public class KeyboardInput {
+
+    /** Number of key codes */
+    private static final int KEYS = KeyCode.values().length;
+    /** Number of longs in a bitset of keys */
+    private static final int WORDS = (KEYS + 63) >>> 6;
+    /** Events that can be queued; must be a power of two */
+    private static final int CAPACITY = 256;
+
+    /** Keys pressed right now; written by the producer, read by anyone */
+    private final AtomicLongArray pressed = new AtomicLongArray(WORDS);
+
+    // The ring of events
+    private final long[] eventTimes = new long[CAPACITY];
+    /** Key ordinal of each event, negated and minus one for releases */
+    private final int[] eventKeys = new int[CAPACITY];
+    /** Number of events ever queued; written by the producer */
+    private final AtomicLong tail = new AtomicLong();
+    /** Number of events ever taken; written by the consumer */
+    private final AtomicLong head = new AtomicLong();
+    /** The producer's last look at the head */
+    private long cachedHead = 0;
+    /** Number of events dropped because the ring was full */
+    private volatile long dropped = 0;
+    /** Whether events were dropped since the consumer last caught up */
+    private volatile boolean overflowed = false;
+
+    // The consumer's view, as of the last tick
+    /** Keys held at the end of the last tick */
+    private final long[] held = new long[WORDS];
+    /** Keys held at any moment of the last tick */
+    private final long[] active = new long[WORDS];
+    /** Keys with events during the last tick */
+    private final long[] touched = new long[WORDS];
+    /** Time each touched key was held during the last tick */
+    private final long[] heldNanos = new long[KEYS];
+    /** When each touched key was last pressed, or the tick's start */
+    private final long[] pressTimes = new long[KEYS];
+    /** When the last tick ended, or 0 before the first one */
+    private long lastTick = 0;
+    /** Length of the last tick */
+    private long tickLength = 1;
+
+    // A single pending latency sample, handed from the consumer to the
+    // renderer: the renderer clears the frame once it is recorded
+    private long sampleTime;
+    private volatile long sampleFrame = -1;
+    /** Times from a key event to the first frame drawn with its effect */
+    private final Histogram latency = new Histogram();
+
+    /**
+     * Records a key press. Must always be called from the same thread.
+     *
+     * @param key
+     * @param time
+     *            When the key was pressed, from {@link System#nanoTime()}
+     */
+    public void keyPressed(KeyCode key, long time) {
+        final int ordinal = key.ordinal();
+        final int word = ordinal >>> 6;
+        final long bit = 1L << ordinal;
+        final long current = pressed.get(word);
+        if ((current & bit) != 0) {
+            // Repeats while the key is held change nothing
+            return;
+        }
+        pressed.lazySet(word, current | bit);
+        offer(ordinal, time);
+    }
+
+    /**
+     * Records a key release. Must always be called from the thread that
+     * records the presses.
+     *
+     * @param key
+     * @param time
+     *            When the key was released, from {@link System#nanoTime()}
+     */
+    public void keyReleased(KeyCode key, long time) {
+        final int ordinal = key.ordinal();
+        final int word = ordinal >>> 6;
+        final long bit = 1L << ordinal;
+        final long current = pressed.get(word);
+        if ((current & bit) == 0) {
+            return;
+        }
+        pressed.lazySet(word, current & ~bit);
+        offer(-ordinal - 1, time);
+    }
+
+    /**
+     * Queues an event, or drops it if the consumer is too far behind.
+     *
+     * @param key
+     * @param time
+     */
+    private void offer(int key, long time) {
+        final long t = tail.get();
+        if (t - cachedHead >= CAPACITY) {
+            cachedHead = head.get();
+            if (t - cachedHead >= CAPACITY) {
+                dropped++;
+                overflowed = true;
+                return;
+            }
+        }
+        final int slot = (int) t & (CAPACITY - 1);
+        eventTimes[slot] = time;
+        eventKeys[slot] = key;
+        tail.lazySet(t + 1);
+    }
+
+    /**
+     * @param key
+     * @return Whether a key is pressed right now. Safe to call from any
+     *         thread.
+     */
+    public boolean isPressed(KeyCode key) {
+        final int ordinal = key.ordinal();
+        return (pressed.get(ordinal >>> 6) & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * Applies every event that happened before the given time, as the input
+     * of the next tick. Must always be called from the same thread, once per
+     * tick, before the players move.
+     *
+     * @param tickTime
+     *            When the tick happens, from {@link System#nanoTime()}
+     * @param frame
+     *            The number of the frame about to be played
+     */
+    public void advance(long tickTime, long frame) {
+        final long start = lastTick == 0 ? tickTime : lastTick;
+        tickLength = Math.max(1, tickTime - start);
+        for (int i = 0; i < WORDS; i++) {
+            active[i] = held[i];
+            touched[i] = 0;
+        }
+        long h = head.get();
+        final long t = tail.get();
+        long firstEvent = Long.MAX_VALUE;
+        while (h < t) {
+            final int slot = (int) h & (CAPACITY - 1);
+            final long time = eventTimes[slot];
+            if (time - tickTime >= 0) {
+                break;
+            }
+            apply(eventKeys[slot], Math.max(time, start), start);
+            firstEvent = Math.min(firstEvent, time);
+            h++;
+        }
+        head.lazySet(h);
+        if (overflowed && h == tail.get()) {
+            // Events were lost, so take the keys pressed right now instead
+            overflowed = false;
+            for (int i = 0; i < WORDS; i++) {
+                held[i] = pressed.get(i);
+                active[i] |= held[i];
+                touched[i] = 0;
+            }
+        }
+        // Touched keys still held were held until the end of the tick
+        for (int i = 0; i < WORDS; i++) {
+            long bits = touched[i] & held[i];
+            while (bits != 0) {
+                final int key = (i << 6) + Long.numberOfTrailingZeros(bits);
+                heldNanos[key] += tickTime - pressTimes[key];
+                bits &= bits - 1;
+            }
+        }
+        lastTick = tickTime;
+        if (firstEvent != Long.MAX_VALUE && sampleFrame < 0) {
+            sampleTime = firstEvent;
+            sampleFrame = frame;
+        }
+    }
+
+    /**
+     * Applies one event to the consumer's view.
+     *
+     * @param event
+     *            The key ordinal, negated and minus one for a release
+     * @param time
+     *            When it happened, no earlier than the tick's start
+     * @param start
+     *            When the tick started
+     */
+    private void apply(int event, long time, long start) {
+        final int key = event >= 0 ? event : -event - 1;
+        final int word = key >>> 6;
+        final long bit = 1L << key;
+        if ((touched[word] & bit) == 0) {
+            touched[word] |= bit;
+            heldNanos[key] = 0;
+            pressTimes[key] = start;
+        }
+        if (event >= 0) {
+            if ((held[word] & bit) == 0) {
+                held[word] |= bit;
+                active[word] |= bit;
+                pressTimes[key] = time;
+            }
+        } else if ((held[word] & bit) != 0) {
+            held[word] &= ~bit;
+            // A tap counts for at least a nanosecond
+            heldNanos[key] += Math.max(1, time - pressTimes[key]);
+        }
+    }
+
+    /**
+     * @param key
+     * @return Whether a key was held at any moment of the last tick. Must be
+     *         called from the thread that calls {@link #advance(long, long)}.
+     */
+    public boolean isActive(KeyCode key) {
+        final int ordinal = key.ordinal();
+        return (active[ordinal >>> 6] & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * @param key
+     * @return The fraction of the last tick a key was held, above 0 for every
+     *         active key. Must be called from the thread that calls
+     *         {@link #advance(long, long)}.
+     */
+    public double getHeldFraction(KeyCode key) {
+        final int ordinal = key.ordinal();
+        final long bit = 1L << ordinal;
+        if ((touched[ordinal >>> 6] & bit) != 0) {
+            return Math.min(1, (double) heldNanos[ordinal] / tickLength);
+        }
+        return (held[ordinal >>> 6] & bit) != 0 ? 1 : 0;
+    }
+
+    /**
+     * Tells the input that a frame has been drawn, to measure the input
+     * latency. Must always be called from the same thread.
+     *
+     * @param frame
+     *            The number of frames played in the state that was drawn
+     * @return The latency of the input first shown in this frame, or -1 if
+     *         there is none
+     */
+    public long presented(long frame) {
+        final long pending = sampleFrame;
+        if (pending < 0 || pending >= frame) {
+            return -1;
+        }
+        final long nanos = System.nanoTime() - sampleTime;
+        latency.record(nanos);
+        sampleFrame = -1;
+        return nanos;
+    }
+
+    /**
+     * Copies the input latencies measured so far. Safe to call from any
+     * thread.
+     *
+     * @param target
+     */
+    public void getLatency(Histogram target) {
+        latency.copyInto(target);
+    }
+
+    /**
+     * @return The number of events dropped because the simulation did not
+     *         take them in time.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
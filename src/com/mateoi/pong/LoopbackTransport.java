@@ -0,0 +1,132 @@
+package com.mateoi.pong;
+
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+import java.util.function.LongSupplier;
+
+/**
+ * An in-memory stand-in for a network connection, for trying out netplay on a
+ * single machine. Every packet is delayed by a latency plus a random jitter,
+ * which also reorders packets, and a share of the packets is dropped. Time is
+ * read from a supplied clock, so simulations can run faster than real time.
+ *
+ * @author mateo
+ */
+public class LoopbackTransport implements Transport {
+
+    /** Source of the current time, in nanoseconds */
+    private final LongSupplier clock;
+    /** Delay of every packet, in nanoseconds */
+    private final long latencyNanos;
+    /** Largest random extra delay of a packet, in nanoseconds */
+    private final long jitterNanos;
+    /** Chance that a packet is lost */
+    private final double lossRate;
+    /** Source of the jitter and the losses */
+    private final SplitMix64 random;
+    /** Packets on their way to this end, earliest delivery first */
+    private final PriorityQueue<Packet> inbox = new PriorityQueue<>();
+    /** The other end */
+    private LoopbackTransport peer;
+
+    /** Number of packets sent so far, which orders packets due together */
+    private long sent = 0;
+    /** Number of packets dropped so far */
+    private long dropped = 0;
+
+    /**
+     * A packet in flight.
+     */
+    private static class Packet implements Comparable<Packet> {
+        final long delivery;
+        final long sequence;
+        final byte[] data;
+
+        Packet(long delivery, long sequence, byte[] data) {
+            this.delivery = delivery;
+            this.sequence = sequence;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Packet other) {
+            final int byDelivery = Long.compare(delivery, other.delivery);
+            return byDelivery != 0 ? byDelivery : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private LoopbackTransport(LongSupplier clock, long latencyNanos, long jitterNanos, double lossRate,
+            long seed) {
+        this.clock = clock;
+        this.latencyNanos = latencyNanos;
+        this.jitterNanos = jitterNanos;
+        this.lossRate = lossRate;
+        random = new SplitMix64(seed);
+    }
+
+    /**
+     * Creates the two ends of a connection.
+     *
+     * @param clock
+     *            Source of the current time, in nanoseconds
+     * @param latencyNanos
+     *            Delay of every packet
+     * @param jitterNanos
+     *            Largest random extra delay of a packet
+     * @param lossRate
+     *            Chance that a packet is lost
+     * @param seed
+     * @return Both ends
+     */
+    public static LoopbackTransport[] pair(LongSupplier clock, long latencyNanos, long jitterNanos, double lossRate,
+            long seed) {
+        final LoopbackTransport first = new LoopbackTransport(clock, latencyNanos, jitterNanos, lossRate, seed);
+        final LoopbackTransport second = new LoopbackTransport(clock, latencyNanos, jitterNanos, lossRate,
+                SplitMix64.mix(seed));
+        first.peer = second;
+        second.peer = first;
+        return new LoopbackTransport[] { first, second };
+    }
+
+    @Override
+    public void send(ByteBuffer packet) {
+        if (random.nextDouble() < lossRate) {
+            packet.position(packet.limit());
+            dropped++;
+            return;
+        }
+        final byte[] data = new byte[packet.remaining()];
+        packet.get(data);
+        final long delivery = clock.getAsLong() + latencyNanos + (long) (random.nextDouble() * jitterNanos);
+        peer.deliver(new Packet(delivery, sent++, data));
+    }
+
+    /**
+     * Queues a packet for this end.
+     *
+     * @param packet
+     */
+    private synchronized void deliver(Packet packet) {
+        inbox.add(packet);
+    }
+
+    @Override
+    public synchronized boolean receive(ByteBuffer packet) {
+        final Packet next = inbox.peek();
+        if (next == null || next.delivery > clock.getAsLong()) {
+            return false;
+        }
+        inbox.poll();
+        packet.clear();
+        packet.put(next.data);
+        packet.flip();
+        return true;
+    }
+
+    /**
+     * @return The number of packets sent from this end that were dropped.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
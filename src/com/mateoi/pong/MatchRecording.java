@@ -0,0 +1,293 @@
+package com.mateoi.pong;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Everything needed to replay a match: the game's seed and settings, and the
+ * players' moves for every frame, plus the final score and statistics to check
+ * the replay against.
+ *
+ * The moves are packed 2 bits per player, and consecutive frames with the same
+ * pair of moves are stored as a single run. Each run is an int holding the
+ * packed moves in its low 4 bits and the run length in the rest.
+ *
+ * @author mateo
+ */
+public class MatchRecording {
+
+    /** Identifies the binary format */
+    private static final int MAGIC = 0x504E4752;
+    /** Version of the binary format */
+    private static final int VERSION = 1;
+    /** Bits used by the packed moves of a run */
+    static final int MOVE_BITS = 4;
+    /** The longest run that fits in an int */
+    static final int MAX_RUN = (1 << (32 - MOVE_BITS)) - 1;
+
+    // Game settings
+    private final long seed;
+    private final double width;
+    private final double height;
+    private final double paddleRadius;
+    private final double paddleCurvature;
+    private final double paddleAcceleration;
+    private final double paddleFriction;
+    private final double spinFactor;
+    private final double elasticCoefficient;
+    private final double initialSpeed;
+    private final boolean sweptCollisions;
+
+    /** Runs of moves */
+    private int[] runs;
+    /** Number of runs used */
+    private int runCount = 0;
+
+    // Result of the match
+    private long frames = 0;
+    private int leftScore;
+    private int rightScore;
+    private int longestRally;
+    private int deadBalls;
+    private int leftHits;
+    private int rightHits;
+
+    /**
+     * Creates an empty recording of a game that has not been played yet.
+     *
+     * @param game
+     */
+    MatchRecording(PongGame game) {
+        this(game.getSeed(), game.getFieldWidth(), game.getFieldHeight(), game.getPaddleRadius(),
+                game.getPaddleCurvature(), game.getPaddleAcceleration(), game.getPaddleFriction(),
+                game.getSpinFactor(), game.getElasticCoefficient(), game.getInitialSpeed(), game.isSweptCollisions(),
+                new int[64]);
+    }
+
+    private MatchRecording(long seed, double width, double height, double paddleRadius, double paddleCurvature,
+            double paddleAcceleration, double paddleFriction, double spinFactor, double elasticCoefficient,
+            double initialSpeed, boolean sweptCollisions, int[] runs) {
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+        this.paddleRadius = paddleRadius;
+        this.paddleCurvature = paddleCurvature;
+        this.paddleAcceleration = paddleAcceleration;
+        this.paddleFriction = paddleFriction;
+        this.spinFactor = spinFactor;
+        this.elasticCoefficient = elasticCoefficient;
+        this.initialSpeed = initialSpeed;
+        this.sweptCollisions = sweptCollisions;
+        this.runs = runs;
+    }
+
+    /**
+     * Creates a game with the same seed and settings as the recorded one.
+     *
+     * @return A new game, ready to replay the moves
+     */
+    public PongGame newGame() {
+        PongGame game = new PongGame(width, height, seed);
+        game.setPaddleRadius(paddleRadius);
+        game.setPaddleCurvature(paddleCurvature);
+        game.setPaddleAcceleration(paddleAcceleration);
+        game.setPaddleFriction(paddleFriction);
+        game.setSpinFactor(spinFactor);
+        game.setElasticCoefficient(elasticCoefficient);
+        game.setInitialSpeed(initialSpeed);
+        game.setSweptCollisions(sweptCollisions);
+        return game;
+    }
+
+    /**
+     * Appends a frame's moves, extending the last run if the moves are the
+     * same.
+     *
+     * @param packedMoves
+     */
+    void append(int packedMoves) {
+        if (runCount > 0) {
+            final int last = runs[runCount - 1];
+            if ((last & 0xF) == packedMoves && (last >>> MOVE_BITS) < MAX_RUN) {
+                runs[runCount - 1] = last + (1 << MOVE_BITS);
+                frames++;
+                return;
+            }
+        }
+        if (runCount == runs.length) {
+            int[] grown = new int[Math.max(64, runs.length * 2)];
+            System.arraycopy(runs, 0, grown, 0, runCount);
+            runs = grown;
+        }
+        runs[runCount++] = packedMoves | (1 << MOVE_BITS);
+        frames++;
+    }
+
+    /**
+     * Stores the final score and statistics of the game.
+     *
+     * @param game
+     */
+    void finish(PongGame game) {
+        leftScore = game.getLeftScore();
+        rightScore = game.getRightScore();
+        longestRally = game.getLongestRally();
+        deadBalls = game.getDeadBalls();
+        leftHits = game.getLeftHits();
+        rightHits = game.getRightHits();
+    }
+
+    /**
+     * Checks whether a game finished with the recorded score and statistics.
+     *
+     * @param game
+     * @return
+     */
+    public boolean matches(PongGame game) {
+        return game.getFrames() == frames && game.getLeftScore() == leftScore
+                && game.getRightScore() == rightScore && game.getLongestRally() == longestRally
+                && game.getDeadBalls() == deadBalls && game.getLeftHits() == leftHits
+                && game.getRightHits() == rightHits;
+    }
+
+    /**
+     * Packs a pair of moves into 4 bits.
+     *
+     * @param leftMove
+     * @param rightMove
+     * @return
+     */
+    static int pack(int leftMove, int rightMove) {
+        if (leftMove < -1 || leftMove > 1 || rightMove < -1 || rightMove > 1) {
+            throw new IllegalArgumentException("Moves must be -1, 0 or 1");
+        }
+        return (leftMove + 1) | (rightMove + 1) << 2;
+    }
+
+    /**
+     * @param run
+     * @return The left move of a run.
+     */
+    static int leftMove(int run) {
+        return (run & 0x3) - 1;
+    }
+
+    /**
+     * @param run
+     * @return The right move of a run.
+     */
+    static int rightMove(int run) {
+        return ((run >>> 2) & 0x3) - 1;
+    }
+
+    /**
+     * @param run
+     * @return The number of frames in a run.
+     */
+    static int length(int run) {
+        return run >>> MOVE_BITS;
+    }
+
+    /**
+     * @param index
+     * @return The run at the given index.
+     */
+    int getRun(int index) {
+        return runs[index];
+    }
+
+    /**
+     * @return The number of runs of identical moves.
+     */
+    public int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * @return The number of frames recorded.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return The recorded final score of the left player.
+     */
+    public int getLeftScore() {
+        return leftScore;
+    }
+
+    /**
+     * @return The recorded final score of the right player.
+     */
+    public int getRightScore() {
+        return rightScore;
+    }
+
+    /**
+     * Writes the recording in a compact binary format.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(seed);
+        out.writeDouble(width);
+        out.writeDouble(height);
+        out.writeDouble(paddleRadius);
+        out.writeDouble(paddleCurvature);
+        out.writeDouble(paddleAcceleration);
+        out.writeDouble(paddleFriction);
+        out.writeDouble(spinFactor);
+        out.writeDouble(elasticCoefficient);
+        out.writeDouble(initialSpeed);
+        out.writeBoolean(sweptCollisions);
+        out.writeLong(frames);
+        out.writeInt(leftScore);
+        out.writeInt(rightScore);
+        out.writeInt(longestRally);
+        out.writeInt(deadBalls);
+        out.writeInt(leftHits);
+        out.writeInt(rightHits);
+        out.writeInt(runCount);
+        for (int i = 0; i < runCount; i++) {
+            out.writeInt(runs[i]);
+        }
+    }
+
+    /**
+     * Reads a recording written by {@link #write(DataOutputStream)}.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static MatchRecording read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a match recording");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+        MatchRecording recording = new MatchRecording(in.readLong(), in.readDouble(), in.readDouble(),
+                in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                in.readDouble(), in.readBoolean(), new int[0]);
+        recording.frames = in.readLong();
+        recording.leftScore = in.readInt();
+        recording.rightScore = in.readInt();
+        recording.longestRally = in.readInt();
+        recording.deadBalls = in.readInt();
+        recording.leftHits = in.readInt();
+        recording.rightHits = in.readInt();
+        recording.runCount = in.readInt();
+        recording.runs = new int[recording.runCount];
+        for (int i = 0; i < recording.runCount; i++) {
+            recording.runs[i] = in.readInt();
+        }
+        return recording;
+    }
+}
@@ -0,0 +1,59 @@
+package com.mateoi.pong;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Re-simulates recorded matches headless and checks that they reproduce the
+ * recorded result.
+ *
+ * Usage: MatchReplayer recording...
+ *
+ * @author mateo
+ */
+public class MatchReplayer {
+
+    /**
+     * Replays a recording at full speed. Every run of identical moves is
+     * played with {@link PongGame#fastForward(int, int, long)}.
+     *
+     * @param recording
+     * @return The game after the last recorded frame
+     */
+    public static PongGame replay(MatchRecording recording) {
+        PongGame game = recording.newGame();
+        for (int i = 0; i < recording.getRunCount(); i++) {
+            final int run = recording.getRun(i);
+            game.fastForward(MatchRecording.leftMove(run), MatchRecording.rightMove(run),
+                    MatchRecording.length(run));
+        }
+        return game;
+    }
+
+    /**
+     * Replays a recording and compares the result with the recorded one.
+     *
+     * @param recording
+     * @return Whether the final score and statistics are the same
+     */
+    public static boolean verify(MatchRecording recording) {
+        return recording.matches(replay(recording));
+    }
+
+    public static void main(String[] args) throws IOException {
+        for (String file : args) {
+            MatchRecording recording;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                recording = MatchRecording.read(in);
+            }
+            final long start = System.nanoTime();
+            final boolean verified = verify(recording);
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %d - %d, %d frames in %d runs, %s, %.0f frames per second%n", file,
+                    recording.getLeftScore(), recording.getRightScore(), recording.getFrames(),
+                    recording.getRunCount(), verified ? "reproduced" : "MISMATCH", recording.getFrames() / seconds);
+        }
+    }
+}
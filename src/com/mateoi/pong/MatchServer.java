@@ -0,0 +1,455 @@
+package com.mateoi.pong;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Hosts many headless matches in one process. The matches are split into
+ * shards, and every shard is ticked at a fixed rate by its own thread, which
+ * is the only one that ever touches its matches. At every tick a shard first
+ * asks the players of all its matches for their moves, then steps all the
+ * games, so the players' and the physics' code each stay hot in turn.
+ *
+ * Every shard measures how long its ticks take and how many ran past the next
+ * one's start. A rebalancer thread compares the shards' load every second and
+ * moves matches from the busiest shard to the idlest one; a moved match skips
+ * or repeats at most part of a tick.
+ *
+ * @author mateo
+ */
+public class MatchServer {
+
+    /** The most ticks a shard runs back to back to catch up */
+    private static final int MAX_CATCH_UP_TICKS = 5;
+    /** How often the shards are rebalanced */
+    private static final long REBALANCE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * Difference in load between two shards, relative to the busier one,
+     * above which matches are moved
+     */
+    private static final double REBALANCE_THRESHOLD = 0.2;
+    /** Load below which a shard is never worth rebalancing */
+    private static final double MIN_REBALANCE_LOAD = 0.005;
+    /** Largest share of a shard's matches moved at once */
+    private static final double MAX_MIGRATION = 0.25;
+
+    /** The shards */
+    private final Shard[] shards;
+    /** Length of a tick */
+    private final long tickNanos;
+    /** Called on a shard's thread when a match is over, or null */
+    private volatile Consumer<HeadlessMatch> onFinished;
+
+    /** Whether the shards should keep running */
+    private volatile boolean running = false;
+    /** The thread that rebalances the shards */
+    private Thread rebalancer;
+
+    /**
+     * A group of matches ticked by one thread.
+     */
+    private final class Shard implements Runnable {
+
+        /** Index of the shard */
+        final int index;
+        /** Matches added to this shard, waiting for the next tick */
+        final Queue<HeadlessMatch> inbox = new ConcurrentLinkedQueue<>();
+        /** Matches in the inbox */
+        final AtomicInteger pending = new AtomicInteger();
+        /** The thread ticking this shard */
+        Thread thread;
+
+        // Written by the shard's thread only
+        private HeadlessMatch[] matches = new HeadlessMatch[64];
+        private int[] leftMoves = new int[64];
+        private int[] rightMoves = new int[64];
+        /** Number of matches being played */
+        volatile int size = 0;
+        volatile long ticks = 0;
+        volatile long overruns = 0;
+        volatile long droppedTicks = 0;
+        volatile long busyNanos = 0;
+        volatile long finished = 0;
+        volatile long failed = 0;
+        volatile long migrated = 0;
+        /** Time taken by each tick */
+        final Histogram tickTimes = new Histogram();
+
+        /** Share of the last second spent ticking, set by the rebalancer */
+        volatile double load = 0;
+        // Migration request, written by the rebalancer: the count is set
+        // first, and the shard clears the target once it is done
+        volatile int migrationCount;
+        volatile Shard migrationTarget;
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        /**
+         * The shard's loop: runs every tick that is due, then sleeps until
+         * the next one.
+         */
+        @Override
+        public void run() {
+            long nextTick = System.nanoTime();
+            while (running) {
+                long now = System.nanoTime();
+                if (now - nextTick > MAX_CATCH_UP_TICKS * tickNanos) {
+                    final long behind = (now - nextTick) / tickNanos - MAX_CATCH_UP_TICKS;
+                    droppedTicks += behind;
+                    nextTick += behind * tickNanos;
+                }
+                if (now - nextTick >= 0) {
+                    tick();
+                    final long end = System.nanoTime();
+                    tickTimes.record(end - now);
+                    busyNanos += end - now;
+                    nextTick += tickNanos;
+                    if (end - nextTick > 0) {
+                        overruns++;
+                    }
+                } else {
+                    LockSupport.parkNanos(nextTick - now);
+                }
+            }
+        }
+
+        /**
+         * Takes in new matches, gives away matches if asked to, gathers every
+         * move and then steps every game.
+         */
+        private void tick() {
+            HeadlessMatch added;
+            while ((added = inbox.poll()) != null) {
+                pending.decrementAndGet();
+                add(added);
+            }
+            final Shard target = migrationTarget;
+            if (target != null) {
+                final int moving = Math.min(migrationCount, size);
+                for (int k = 0; k < moving; k++) {
+                    target.offer(matches[size - 1]);
+                    matches[--size] = null;
+                }
+                migrated += moving;
+                migrationTarget = null;
+            }
+
+            final int n = size;
+            for (int i = 0; i < n; i++) {
+                final HeadlessMatch match = matches[i];
+                try {
+                    leftMoves[i] = match.getLeftPlayer().move(match.getGame());
+                    rightMoves[i] = match.getRightPlayer().move(match.getGame());
+                } catch (RuntimeException e) {
+                    // Played as no move, and dropped below
+                    leftMoves[i] = Integer.MIN_VALUE;
+                }
+            }
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                final HeadlessMatch match = matches[i];
+                if (leftMoves[i] == Integer.MIN_VALUE) {
+                    failed++;
+                    continue;
+                }
+                if (match.advance(leftMoves[i], rightMoves[i])) {
+                    finished++;
+                    final Consumer<HeadlessMatch> listener = onFinished;
+                    if (listener != null) {
+                        listener.accept(match);
+                    }
+                    continue;
+                }
+                matches[kept++] = match;
+            }
+            Arrays.fill(matches, kept, n, null);
+            size = kept;
+            ticks++;
+        }
+
+        /**
+         * Adds a match on the shard's thread.
+         *
+         * @param match
+         */
+        private void add(HeadlessMatch match) {
+            if (size == matches.length) {
+                matches = Arrays.copyOf(matches, 2 * size);
+                leftMoves = Arrays.copyOf(leftMoves, 2 * size);
+                rightMoves = Arrays.copyOf(rightMoves, 2 * size);
+            }
+            matches[size++] = match;
+        }
+
+        /**
+         * Hands a match to this shard from any thread.
+         *
+         * @param match
+         */
+        void offer(HeadlessMatch match) {
+            pending.incrementAndGet();
+            inbox.add(match);
+        }
+    }
+
+    /**
+     * Creates a server with the given number of shards. It does not play
+     * anything until {@link #start()} is called.
+     *
+     * @param shardCount
+     *            Usually the number of cores to use
+     * @param ticksPerSecond
+     */
+    public MatchServer(int shardCount, int ticksPerSecond) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Needs at least one shard");
+        }
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+        tickNanos = TimeUnit.SECONDS.toNanos(1) / ticksPerSecond;
+    }
+
+    /**
+     * Starts a thread for every shard, and the rebalancer.
+     */
+    public void start() {
+        running = true;
+        for (Shard shard : shards) {
+            shard.thread = new Thread(shard, "Match shard " + shard.index);
+            shard.thread.setDaemon(true);
+            shard.thread.start();
+        }
+        rebalancer = new Thread(this::rebalance, "Match rebalancer");
+        rebalancer.setDaemon(true);
+        rebalancer.start();
+    }
+
+    /**
+     * Stops every shard and waits for them. The matches left are not played
+     * any further.
+     */
+    public void stop() {
+        running = false;
+        for (Shard shard : shards) {
+            if (shard.thread != null) {
+                LockSupport.unpark(shard.thread);
+                try {
+                    shard.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (rebalancer != null) {
+            LockSupport.unpark(rebalancer);
+        }
+    }
+
+    /**
+     * Adds a match to the shard with the fewest matches. It starts at that
+     * shard's next tick. Safe to call from any thread.
+     *
+     * @param match
+     */
+    public void addMatch(HeadlessMatch match) {
+        Shard best = shards[0];
+        for (Shard shard : shards) {
+            if (shard.size + shard.pending.get() < best.size + best.pending.get()) {
+                best = shard;
+            }
+        }
+        best.offer(match);
+    }
+
+    /**
+     * Adds a match to a given shard. Safe to call from any thread.
+     *
+     * @param match
+     * @param shard
+     */
+    public void addMatch(HeadlessMatch match, int shard) {
+        shards[shard].offer(match);
+    }
+
+    /**
+     * The rebalancer's loop: every second, compares how busy each shard was
+     * and moves matches from the busiest to the idlest one.
+     */
+    private void rebalance() {
+        final long[] lastBusy = new long[shards.length];
+        long last = System.nanoTime();
+        while (running) {
+            LockSupport.parkNanos(REBALANCE_NANOS);
+            final long now = System.nanoTime();
+            Shard busiest = null;
+            Shard idlest = null;
+            double maxLoad = -1;
+            double minLoad = Double.MAX_VALUE;
+            for (Shard shard : shards) {
+                final long busy = shard.busyNanos;
+                final double load = (double) (busy - lastBusy[shard.index]) / (now - last);
+                lastBusy[shard.index] = busy;
+                shard.load = load;
+                if (load > maxLoad) {
+                    maxLoad = load;
+                    busiest = shard;
+                }
+                if (load < minLoad) {
+                    minLoad = load;
+                    idlest = shard;
+                }
+            }
+            last = now;
+            if (busiest != idlest && maxLoad > MIN_REBALANCE_LOAD
+                    && maxLoad - minLoad > REBALANCE_THRESHOLD * maxLoad && busiest.migrationTarget == null) {
+                // Move enough matches to even out the two shards' loads
+                final double share = Math.min(MAX_MIGRATION, (maxLoad - minLoad) / (2 * maxLoad));
+                final int count = (int) Math.ceil(busiest.size * share);
+                if (count > 0) {
+                    busiest.migrationCount = count;
+                    busiest.migrationTarget = idlest;
+                }
+            }
+        }
+    }
+
+    /**
+     * Set what to do with every finished match. It is called on the thread
+     * of the match's shard, and may add new matches.
+     *
+     * @param onFinished
+     *            The listener, or null
+     */
+    public void setOnFinished(Consumer<HeadlessMatch> onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * @return The number of shards.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param shard
+     * @return The number of matches being played by a shard.
+     */
+    public int getMatches(int shard) {
+        return shards[shard].size;
+    }
+
+    /**
+     * @return The number of matches being played by all the shards.
+     */
+    public int getMatches() {
+        int total = 0;
+        for (Shard shard : shards) {
+            total += shard.size;
+        }
+        return total;
+    }
+
+    /**
+     * @param shard
+     * @return The share of the time a shard spent ticking over the last
+     *         second, as measured by the rebalancer.
+     */
+    public double getLoad(int shard) {
+        return shards[shard].load;
+    }
+
+    /**
+     * @param shard
+     * @return The time a shard has spent ticking, in nanoseconds.
+     */
+    public long getBusyNanos(int shard) {
+        return shards[shard].busyNanos;
+    }
+
+    /**
+     * @param shard
+     * @return The number of ticks a shard has run.
+     */
+    public long getTicks(int shard) {
+        return shards[shard].ticks;
+    }
+
+    /**
+     * @param shard
+     * @return The number of ticks of a shard that ended after the next one
+     *         was due.
+     */
+    public long getOverruns(int shard) {
+        return shards[shard].overruns;
+    }
+
+    /**
+     * @param shard
+     * @return The number of ticks a shard skipped because it fell too far
+     *         behind.
+     */
+    public long getDroppedTicks(int shard) {
+        return shards[shard].droppedTicks;
+    }
+
+    /**
+     * Copies how long the ticks of a shard took. Safe to call at any time.
+     *
+     * @param shard
+     * @param target
+     */
+    public void getTickTimes(int shard, Histogram target) {
+        shards[shard].tickTimes.copyInto(target);
+    }
+
+    /**
+     * @return The number of matches that were played to the end.
+     */
+    public long getFinishedMatches() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.finished;
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of matches dropped because a player threw an
+     *         exception.
+     */
+    public long getFailedMatches() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.failed;
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of matches moved between shards.
+     */
+    public long getMigrations() {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.migrated;
+        }
+        return total;
+    }
+
+    /**
+     * @return The length of a tick, in nanoseconds.
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+}
@@ -0,0 +1,87 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a fixed number of AI-vs-AI matches running on a {@link MatchServer}
+ * and reports every second how busy each shard is, how many ticks ran late
+ * and, from those, how many matches one core could host at the tick rate.
+ *
+ * Usage: MatchServerLoadTest [shards] [matches] [seconds] [ticksPerSecond]
+ *
+ * Every match starts on the first shard, so the first seconds also show the
+ * rebalancer spreading them over the others. Run with {@code taskset} to
+ * control how many cores the shards actually get.
+ *
+ * @author mateo
+ */
+public class MatchServerLoadTest {
+
+    public static void main(String[] args) throws InterruptedException {
+        final int shards = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        final int matches = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        final int rate = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+
+        final MatchServer server = new MatchServer(shards, rate);
+        // Replace every finished match, to keep the load constant
+        server.setOnFinished(match -> server.addMatch(newMatch()));
+        for (int i = 0; i < matches; i++) {
+            server.addMatch(newMatch(), 0);
+        }
+        server.start();
+
+        final Histogram tickTimes = new Histogram();
+        final long[] lastTicks = new long[shards];
+        final long[] lastOverruns = new long[shards];
+        double matchesPerCore = 0;
+        for (int second = 1; second <= seconds; second++) {
+            TimeUnit.SECONDS.sleep(1);
+            final StringBuilder line = new StringBuilder(String.format("%3ds", second));
+            double load = 0;
+            for (int i = 0; i < shards; i++) {
+                final long ticks = server.getTicks(i);
+                final long overruns = server.getOverruns(i);
+                line.append(String.format(" | %5d matches %5.1f%% %3d ticks %3d late", server.getMatches(i),
+                        100 * server.getLoad(i), ticks - lastTicks[i], overruns - lastOverruns[i]));
+                lastTicks[i] = ticks;
+                lastOverruns[i] = overruns;
+                load += server.getLoad(i);
+            }
+            if (load > 0) {
+                matchesPerCore = server.getMatches() / load;
+            }
+            System.out.println(line);
+        }
+        server.stop();
+
+        long ticks = 0;
+        long overruns = 0;
+        long dropped = 0;
+        final Histogram shardTimes = new Histogram();
+        for (int i = 0; i < shards; i++) {
+            ticks += server.getTicks(i);
+            overruns += server.getOverruns(i);
+            dropped += server.getDroppedTicks(i);
+            server.getTickTimes(i, shardTimes);
+            tickTimes.add(shardTimes);
+        }
+        System.out.printf("%d ticks, %d late, %d dropped; %d matches finished, %d failed, %d moved between shards%n",
+                ticks, overruns, dropped, server.getFinishedMatches(), server.getFailedMatches(),
+                server.getMigrations());
+        System.out.printf("Tick time: median %.0f us, 99%% %.0f us, max %.0f us, budget %.0f us%n",
+                tickTimes.getValueAtPercentile(50) / 1e3, tickTimes.getValueAtPercentile(99) / 1e3,
+                tickTimes.getMax() / 1e3, server.getTickNanos() / 1e3);
+        System.out.printf("About %.0f matches per core at %d ticks per second%n", matchesPerCore, rate);
+    }
+
+    /**
+     * @return A new AI-vs-AI match.
+     */
+    private static HeadlessMatch newMatch() {
+        final HeadlessMatch match = new HeadlessMatch(new PongGame(500, 300), new AIPlayer(true),
+                new AIPlayer(false), 11);
+        match.setMaxFrames(100000);
+        return match;
+    }
+}
@@ -0,0 +1,140 @@
+package com.mateoi.pong;
+
+/**
+ * The distributions of what happens in a game, recorded as it is played:
+ * the length of every rally, the ball's speed after every paddle hit, how far
+ * from the paddle's center every hit landed, and the frames every point took.
+ *
+ * Nothing is allocated while recording. Statistics have a single writer, the
+ * thread playing the game, but any thread may take a {@link #snapshot} at any
+ * time without blocking it. Statistics of different games, for instance of
+ * headless matches played in parallel, are combined with {@link #add}.
+ *
+ * Speeds and offsets are stored in thousandths of a pixel, since histograms
+ * only hold whole numbers; the getters for their means convert them back.
+ *
+ * @author mateo
+ */
+public class MatchStatistics {
+
+    /** Units per pixel of the speeds and offsets in the histograms */
+    public static final int SCALE = 1000;
+
+    /** Paddle hits in every point */
+    private final Histogram rallyLengths = new Histogram();
+    /** Ball speed after every hit, in thousandths of a pixel per frame */
+    private final Histogram hitSpeeds = new Histogram();
+    /** Distance from the paddle's center of every hit, in thousandths of a pixel */
+    private final Histogram impactOffsets = new Histogram();
+    /** Frames from the serve to the goal of every point */
+    private final Histogram pointFrames = new Histogram();
+
+    /**
+     * Records a paddle hit.
+     *
+     * @param ballVX
+     *            The ball's velocity after the hit
+     * @param ballVY
+     * @param offset
+     *            Distance from the paddle's center to where the ball hit
+     */
+    void hit(double ballVX, double ballVY, double offset) {
+        hitSpeeds.record(Math.round(Math.sqrt(ballVX * ballVX + ballVY * ballVY) * SCALE));
+        impactOffsets.record(Math.round(Math.abs(offset) * SCALE));
+    }
+
+    /**
+     * Records a goal.
+     *
+     * @param rally
+     *            Paddle hits in the point
+     * @param frames
+     *            Frames since the serve
+     */
+    void point(int rally, long frames) {
+        rallyLengths.record(rally);
+        pointFrames.record(frames);
+    }
+
+    /**
+     * Replaces the contents of other statistics with a copy of these. Safe to
+     * call from any thread while the game is being played.
+     *
+     * @param target
+     */
+    public void snapshot(MatchStatistics target) {
+        rallyLengths.copyInto(target.rallyLengths);
+        hitSpeeds.copyInto(target.hitSpeeds);
+        impactOffsets.copyInto(target.impactOffsets);
+        pointFrames.copyInto(target.pointFrames);
+    }
+
+    /**
+     * Adds the values of other statistics to these. Must be called by the
+     * writer of these statistics.
+     *
+     * @param other
+     *            Statistics that are not being written, such as a snapshot
+     */
+    public void add(MatchStatistics other) {
+        rallyLengths.add(other.rallyLengths);
+        hitSpeeds.add(other.hitSpeeds);
+        impactOffsets.add(other.impactOffsets);
+        pointFrames.add(other.pointFrames);
+    }
+
+    /**
+     * Removes every value. Must be called by the writer.
+     */
+    public void reset() {
+        rallyLengths.reset();
+        hitSpeeds.reset();
+        impactOffsets.reset();
+        pointFrames.reset();
+    }
+
+    /**
+     * @return The number of paddle hits in every point.
+     */
+    public Histogram getRallyLengths() {
+        return rallyLengths;
+    }
+
+    /**
+     * @return The speed of the ball after every paddle hit, in
+     *         {@link #SCALE}ths of a pixel per frame.
+     */
+    public Histogram getHitSpeeds() {
+        return hitSpeeds;
+    }
+
+    /**
+     * @return The distance from the paddle's center to where the ball hit, in
+     *         {@link #SCALE}ths of a pixel.
+     */
+    public Histogram getImpactOffsets() {
+        return impactOffsets;
+    }
+
+    /**
+     * @return The number of frames from the serve to the goal of every point.
+     */
+    public Histogram getPointFrames() {
+        return pointFrames;
+    }
+
+    /**
+     * @return The mean speed of the ball after a hit, in pixels per frame.
+     */
+    public double getMeanHitSpeed() {
+        return hitSpeeds.getMean() / SCALE;
+    }
+
+    /**
+     * @return The mean distance from the paddle's center to where the ball
+     *         hit, in pixels.
+     */
+    public double getMeanImpactOffset() {
+        return impactOffsets.getMean() / SCALE;
+    }
+}
@@ -0,0 +1,464 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A player that picks its moves with a Monte Carlo tree search over the game's
+ * physics. Every frame it runs as many simulated continuations of the game as
+ * fit in a fixed time budget, spread over the cores of a fork-join pool.
+ *
+ * The search is open-loop: a tree node stands for a sequence of this player's
+ * moves, each held for {@link #STEP_FRAMES} frames, rather than for a game
+ * state. The opponent and the rest of every simulation follow a simple ball
+ * tracking policy. Each worker grows its own tree (root parallelization) and
+ * the root statistics are summed to pick a move. A move is kept for a whole
+ * step, during which the search keeps refining the subtree that comes next,
+ * and that subtree becomes the new root, so the work is reused across frames.
+ *
+ * @author mateo
+ */
+public class MonteCarloPlayer implements Player {
+
+    /** Number of frames each move in the tree is held for */
+    static final int STEP_FRAMES = 8;
+    /** Frames simulated after the tree before a rally is called a draw */
+    static final int ROLLOUT_FRAMES = 600;
+    /** Number of possible moves: up, none and down */
+    private static final int MOVES = 3;
+    /** Deepest path followed down a tree */
+    private static final int MAX_DEPTH = 64;
+    /** Nodes in each worker's tree */
+    private static final int TREE_CAPACITY = 1 << 16;
+    /** Exploration constant of the UCT formula */
+    private static final double EXPLORATION = 1.4;
+    /** Chance that a rollout player makes a random move for a step */
+    private static final double ROLLOUT_NOISE = 0.25;
+
+    /** Whether this player is the left one */
+    private final boolean isLeft;
+    /** The pool the search runs on */
+    private final ForkJoinPool pool;
+    /** One search per worker of the pool */
+    private final SearchWorker[] workers;
+    /** Runs all the workers and waits for them */
+    private final SearchTask task = new SearchTask();
+
+    /** The state of the game being searched, shared by all the workers */
+    private final long[] rootState = new long[PongGame.SNAPSHOT_SIZE];
+    /** Time allowed for each move, in nanoseconds */
+    private long budgetNanos = 2_000_000;
+    /** Time at which the current search has to stop */
+    private volatile long deadline;
+
+    /** The move currently being held */
+    private int committedMove = 0;
+    /** How many frames the committed move is still held for */
+    private int remainingFrames = 0;
+
+    /** Total rollouts run so far */
+    private long rollouts = 0;
+    /** Total time spent searching, in nanoseconds */
+    private long searchNanos = 0;
+
+    /**
+     * Creates a new player that searches on the common fork-join pool.
+     *
+     * @param isLeft
+     */
+    public MonteCarloPlayer(boolean isLeft) {
+        this(isLeft, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new player that searches with one worker per thread of the
+     * given pool.
+     *
+     * @param isLeft
+     * @param pool
+     */
+    public MonteCarloPlayer(boolean isLeft, ForkJoinPool pool) {
+        this.isLeft = isLeft;
+        this.pool = pool;
+        workers = new SearchWorker[Math.max(1, pool.getParallelism())];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new SearchWorker(System.nanoTime() * SplitMix64.GAMMA + i);
+        }
+    }
+
+    @Override
+    public int move(PongGame state) {
+        final long start = System.nanoTime();
+        deadline = start + budgetNanos;
+        state.save(rootState, 0);
+        task.reinitialize();
+        pool.invoke(task);
+        if (remainingFrames == 0) {
+            committedMove = bestMove();
+            remainingFrames = STEP_FRAMES;
+            for (SearchWorker worker : workers) {
+                worker.advance(committedMove);
+            }
+        }
+        remainingFrames--;
+        searchNanos += System.nanoTime() - start;
+        return committedMove - 1;
+    }
+
+    /**
+     * @return The move at the root with the most visits over all workers, as
+     *         an index into the moves.
+     */
+    private int bestMove() {
+        // Ties go to not moving
+        int best = 1;
+        long bestVisits = rootVisits(1);
+        for (int move = 0; move < MOVES; move += 2) {
+            final long visits = rootVisits(move);
+            if (visits > bestVisits) {
+                best = move;
+                bestVisits = visits;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param move
+     * @return The number of times a move was tried at the root, over all
+     *         workers.
+     */
+    private long rootVisits(int move) {
+        long visits = 0;
+        for (SearchWorker worker : workers) {
+            visits += worker.rootVisits(move);
+        }
+        return visits;
+    }
+
+    /**
+     * Moves a paddle towards the ball.
+     *
+     * @param game
+     * @param left
+     * @return
+     */
+    private static int track(PongGame game, boolean left) {
+        final double paddleY = left ? game.getLeftPaddleY() : game.getRightPaddleY();
+        return (int) Math.signum(game.getBallY() - paddleY);
+    }
+
+    /**
+     * Runs all the workers in parallel.
+     */
+    private class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (SearchWorker worker : workers) {
+                worker.reinitialize();
+            }
+            ForkJoinTask.invokeAll(workers);
+            for (SearchWorker worker : workers) {
+                rollouts += worker.finishedRollouts;
+                worker.finishedRollouts = 0;
+            }
+        }
+    }
+
+    /**
+     * One worker's search tree, with its own copy of the game. The tree is
+     * stored in flat arrays, with the statistics of every move kept on the
+     * edge from the node it is played at.
+     */
+    private class SearchWorker extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Simulated game, restored from the root state for every rollout */
+        private PongGame game;
+        /** Randomness for the rollout policy */
+        private final SplitMix64 random;
+
+        /** Child reached by every move of every node, or -1 */
+        private int[] children = new int[TREE_CAPACITY * MOVES];
+        /** Times every move of every node was tried */
+        private int[] visits = new int[TREE_CAPACITY * MOVES];
+        /** Total value of every move of every node */
+        private double[] values = new double[TREE_CAPACITY * MOVES];
+        /** Spare arrays the tree is compacted into */
+        private int[] spareChildren = new int[TREE_CAPACITY * MOVES];
+        private int[] spareVisits = new int[TREE_CAPACITY * MOVES];
+        private double[] spareValues = new double[TREE_CAPACITY * MOVES];
+        /** Stack used while compacting */
+        private final int[] stack = new int[TREE_CAPACITY * 2];
+        /** Root of the tree */
+        private int root;
+        /** Number of nodes in use */
+        private int nodes;
+
+        /** Nodes and moves along the current path */
+        private final int[] pathNodes = new int[MAX_DEPTH];
+        private final int[] pathMoves = new int[MAX_DEPTH];
+
+        /** Rollouts finished in the current search */
+        private long finishedRollouts = 0;
+
+        SearchWorker(long seed) {
+            random = new SplitMix64(seed);
+            clear();
+        }
+
+        @Override
+        protected void compute() {
+            if (game == null) {
+                game = new PongGame(1, 1);
+            }
+            do {
+                rollout();
+                finishedRollouts++;
+            } while (System.nanoTime() < deadline);
+        }
+
+        /**
+         * Empties the tree.
+         */
+        private void clear() {
+            nodes = 0;
+            root = newNode();
+        }
+
+        /**
+         * @return A new node, or -1 if the tree is full.
+         */
+        private int newNode() {
+            if (nodes == TREE_CAPACITY) {
+                return -1;
+            }
+            final int node = nodes++;
+            for (int move = 0; move < MOVES; move++) {
+                children[node * MOVES + move] = -1;
+                visits[node * MOVES + move] = 0;
+                values[node * MOVES + move] = 0;
+            }
+            return node;
+        }
+
+        /**
+         * Simulates the game from the root state: the rest of the committed
+         * move, then down the tree, then with the rollout policy until a point
+         * is scored. The result is added to every move on the path.
+         */
+        private void rollout() {
+            game.restore(rootState, 0);
+            final int leftScore = game.getLeftScore();
+            final int rightScore = game.getRightScore();
+            for (int i = 0; i < remainingFrames; i++) {
+                step(committedMove - 1);
+            }
+
+            int depth = 0;
+            int node = root;
+            while (node >= 0 && depth < MAX_DEPTH && !scored(leftScore, rightScore)) {
+                final int move = select(node);
+                pathNodes[depth] = node;
+                pathMoves[depth] = move;
+                depth++;
+                for (int i = 0; i < STEP_FRAMES; i++) {
+                    step(move - 1);
+                }
+                final int edge = node * MOVES + move;
+                if (children[edge] < 0) {
+                    // Expand one node per rollout
+                    children[edge] = newNode();
+                    break;
+                }
+                node = children[edge];
+            }
+
+            for (int i = 0; i < ROLLOUT_FRAMES && !scored(leftScore, rightScore); i += STEP_FRAMES) {
+                final int selfMove = random.nextDouble() < ROLLOUT_NOISE ? (int) (random.nextDouble() * 3) - 1 : 2;
+                final int otherMove = random.nextDouble() < ROLLOUT_NOISE ? (int) (random.nextDouble() * 3) - 1 : 2;
+                for (int j = 0; j < STEP_FRAMES; j++) {
+                    final int self = selfMove == 2 ? track(game, isLeft) : selfMove;
+                    final int other = otherMove == 2 ? track(game, !isLeft) : otherMove;
+                    game.nextFrame(isLeft ? self : other, isLeft ? other : self);
+                }
+            }
+
+            final double value = value(leftScore, rightScore);
+            for (int i = 0; i < depth; i++) {
+                final int edge = pathNodes[i] * MOVES + pathMoves[i];
+                visits[edge]++;
+                values[edge] += value;
+            }
+        }
+
+        /**
+         * Plays a frame with the given move for this player and the tracking
+         * policy for the opponent.
+         *
+         * @param move
+         */
+        private void step(int move) {
+            if (isLeft) {
+                game.nextFrame(move, track(game, false));
+            } else {
+                game.nextFrame(track(game, true), move);
+            }
+        }
+
+        /**
+         * @return Whether a point was scored since the root state.
+         */
+        private boolean scored(int leftScore, int rightScore) {
+            return game.getLeftScore() != leftScore || game.getRightScore() != rightScore;
+        }
+
+        /**
+         * @return 1 if this player scored since the root state, -1 if the
+         *         opponent did, and 0 otherwise.
+         */
+        private double value(int leftScore, int rightScore) {
+            final int scored = game.getLeftScore() - leftScore - (game.getRightScore() - rightScore);
+            return isLeft ? Math.signum(scored) : -Math.signum(scored);
+        }
+
+        /**
+         * Picks a move to try at a node: every move once, and then by UCT.
+         *
+         * @param node
+         * @return
+         */
+        private int select(int node) {
+            final int first = node * MOVES;
+            int total = 0;
+            for (int move = 0; move < MOVES; move++) {
+                if (visits[first + move] == 0) {
+                    return move;
+                }
+                total += visits[first + move];
+            }
+            final double logTotal = Math.log(total);
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int move = 0; move < MOVES; move++) {
+                final int n = visits[first + move];
+                final double score = values[first + move] / n + EXPLORATION * Math.sqrt(logTotal / n);
+                if (score > bestScore) {
+                    best = move;
+                    bestScore = score;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @param move
+         * @return The number of times a move was tried at the root.
+         */
+        int rootVisits(int move) {
+            return visits[root * MOVES + move];
+        }
+
+        /**
+         * Makes the subtree of a move the new root, compacting the tree if it
+         * is getting full.
+         *
+         * @param move
+         */
+        void advance(int move) {
+            final int child = children[root * MOVES + move];
+            if (child < 0) {
+                clear();
+            } else if (nodes > TREE_CAPACITY / 2) {
+                compact(child);
+            } else {
+                root = child;
+            }
+        }
+
+        /**
+         * Copies the subtree under a node into the spare arrays, which then
+         * become the tree, dropping every other node.
+         *
+         * @param newRoot
+         */
+        private void compact(int newRoot) {
+            // The stack holds pairs of old node and its index in the new tree
+            int top = 0;
+            int copied = 1;
+            stack[top++] = newRoot;
+            stack[top++] = 0;
+            while (top > 0) {
+                final int to = stack[--top];
+                final int from = stack[--top];
+                for (int move = 0; move < MOVES; move++) {
+                    final int child = children[from * MOVES + move];
+                    spareVisits[to * MOVES + move] = visits[from * MOVES + move];
+                    spareValues[to * MOVES + move] = values[from * MOVES + move];
+                    if (child < 0) {
+                        spareChildren[to * MOVES + move] = -1;
+                    } else {
+                        spareChildren[to * MOVES + move] = copied;
+                        stack[top++] = child;
+                        stack[top++] = copied++;
+                    }
+                }
+            }
+            int[] swapInts = children;
+            children = spareChildren;
+            spareChildren = swapInts;
+            swapInts = visits;
+            visits = spareVisits;
+            spareVisits = swapInts;
+            final double[] swapDoubles = values;
+            values = spareValues;
+            spareValues = swapDoubles;
+            root = 0;
+            nodes = copied;
+        }
+    }
+
+    /**
+     * Set the time allowed for each move. The search always finishes at least
+     * one rollout per worker, and the rollouts are short, so the budget is
+     * only overshot by a few microseconds.
+     *
+     * @param budgetNanos
+     */
+    public void setBudget(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * @return The time allowed for each move, in nanoseconds.
+     */
+    public long getBudget() {
+        return budgetNanos;
+    }
+
+    /**
+     * @return The number of search workers, one per thread of the pool.
+     */
+    public int getWorkers() {
+        return workers.length;
+    }
+
+    /**
+     * @return The total number of rollouts run so far.
+     */
+    public long getRollouts() {
+        return rollouts;
+    }
+
+    /**
+     * @return The average number of rollouts run per second of search.
+     */
+    public double getRolloutsPerSecond() {
+        return searchNanos == 0 ? 0 : rollouts * 1e9 / searchNanos;
+    }
+}
@@ -0,0 +1,576 @@
+package com.mateoi.pong;
+
+import java.util.Arrays;
+
+/**
+ * A Pong arena with any number of balls in play at once, which also bounce
+ * off each other.
+ *
+ * Every ball follows the rules of {@link PongGame} on its own: it bounces off
+ * the walls and off the paddles with the same curvature, spin and elasticity,
+ * scores a point when it leaves the field, and is served again after a goal or
+ * too many wall bounces. To keep the balls apart, serves start at a random
+ * height on the center line instead of at the center.
+ *
+ * Balls are stored as parallel primitive arrays, like {@link BatchPongGame}.
+ * Collisions between balls are found with a uniform grid rebuilt every frame
+ * by a counting sort: each ball is only checked against the balls in its own
+ * cell and the neighboring ones, so a frame takes time proportional to the
+ * number of balls as long as they don't all pile up in a few cells.
+ *
+ * @author mateo
+ */
+public class MultiBallGame {
+
+    /** Default radius of the balls, for collisions between them */
+    static final double DEFAULT_BALL_RADIUS = 1.5;
+    /** Space around the field covered by the grid, where balls can still be */
+    private static final double GRID_MARGIN = 16;
+
+    /** Number of balls */
+    private final int count;
+    // Per-ball state
+    private final double[] ballX;
+    private final double[] ballY;
+    private final double[] ballVX;
+    private final double[] ballVY;
+    private final int[] wallBounces;
+    private final int[] rally;
+
+    // Paddles
+    private double leftPaddleY;
+    private double leftPaddleVY = 0;
+    private double rightPaddleY;
+    private double rightPaddleVY = 0;
+
+    // Scores and statistics
+    private int leftScore = 0;
+    private int rightScore = 0;
+    private long frames = 0;
+    private long leftHits = 0;
+    private long rightHits = 0;
+    private long deadBalls = 0;
+    private long ballCollisions = 0;
+    private int longestRally = 0;
+
+    // Physics parameters, as in PongGame
+    private final double initialBallSpeed = PongGame.DEFAULT_INITIAL_SPEED;
+    private final double paddleRadius = PongGame.DEFAULT_PADDLE_RADIUS;
+    private final double paddleCurvature = PongGame.DEFAULT_PADDLE_CURVATURE;
+    private final double paddleAcceleration = PongGame.DEFAULT_PADDLE_ACCELERATION;
+    private final double paddleFriction = PongGame.DEFAULT_PADDLE_FRICTION;
+    private final double paddleElasticCoefficient = PongGame.DEFAULT_ELASTIC_COEFFICIENT;
+    private final double spinFactor = PongGame.DEFAULT_SPIN_FACTOR;
+    private final int maxWallBounces = PongGame.MAX_WALL_BOUNCES;
+
+    /** Total width of the field */
+    private final double fieldWidth;
+    /** Total height of the field */
+    private final double fieldHeight;
+    /** Generates the serves */
+    private final SplitMix64 random;
+
+    /** Radius of the balls */
+    private final double ballRadius;
+    // The grid: cells are as wide as a ball, so touching balls are always in
+    // the same or neighboring cells
+    private final double inverseCellSize;
+    private final int columns;
+    private final int rows;
+    /** Index in cellBalls of the first ball of each cell, and the end */
+    private final int[] cellStart;
+    /** Next free index in cellBalls for each cell, while filling the grid */
+    private final int[] cellFill;
+    /** The balls, grouped by cell */
+    private final int[] cellBalls;
+    /** The cell of each ball */
+    private final int[] ballCell;
+
+    /**
+     * Creates an arena with the given field size and number of balls, spread
+     * out over the middle of the field.
+     *
+     * @param balls
+     * @param width
+     * @param height
+     * @param seed
+     *            Used for the starting positions and every serve
+     */
+    public MultiBallGame(int balls, double width, double height, long seed) {
+        this(balls, width, height, seed, DEFAULT_BALL_RADIUS);
+    }
+
+    /**
+     * Creates an arena with the given field size, number of balls and ball
+     * size, spread out over the middle of the field.
+     *
+     * @param balls
+     * @param width
+     * @param height
+     * @param seed
+     *            Used for the starting positions and every serve
+     * @param ballRadius
+     */
+    public MultiBallGame(int balls, double width, double height, long seed, double ballRadius) {
+        if (balls < 1) {
+            throw new IllegalArgumentException("Needs at least one ball");
+        }
+        if (ballRadius <= 0) {
+            throw new IllegalArgumentException("Ball radius must be positive");
+        }
+        count = balls;
+        fieldWidth = width;
+        fieldHeight = height;
+        random = new SplitMix64(seed);
+        this.ballRadius = ballRadius;
+        leftPaddleY = height / 2;
+        rightPaddleY = height / 2;
+
+        ballX = new double[count];
+        ballY = new double[count];
+        ballVX = new double[count];
+        ballVY = new double[count];
+        wallBounces = new int[count];
+        rally = new int[count];
+
+        final double cellSize = 2 * ballRadius;
+        inverseCellSize = 1 / cellSize;
+        columns = (int) Math.ceil((width + 2 * GRID_MARGIN) * inverseCellSize);
+        rows = (int) Math.ceil((height + 2 * GRID_MARGIN) * inverseCellSize);
+        cellStart = new int[columns * rows + 1];
+        cellFill = new int[columns * rows];
+        cellBalls = new int[count];
+        ballCell = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            serve(i);
+            ballX[i] = width * (1 + random.nextDouble()) / 3;
+        }
+    }
+
+    /**
+     * Places a ball on the center line at a random height, with a random
+     * direction.
+     *
+     * @param i
+     */
+    private void serve(int i) {
+        ballX[i] = fieldWidth / 2;
+        ballY[i] = fieldHeight * (0.25 + 0.5 * random.nextDouble());
+        final double x = 10 * random.nextDouble() - 5;
+        final double y = 2 * random.nextDouble() - 1;
+        final double inverseNorm = 1 / Math.sqrt(x * x + y * y);
+        ballVX[i] = x * inverseNorm * initialBallSpeed;
+        ballVY[i] = y * inverseNorm * initialBallSpeed;
+        wallBounces[i] = 0;
+        rally[i] = 0;
+    }
+
+    /**
+     * Updates the arena by one frame given the players' inputs: moves the
+     * paddles, moves and scores every ball, then bounces the balls that touch
+     * off each other.
+     *
+     * @param leftMove
+     * @param rightMove
+     */
+    public void nextFrame(int leftMove, int rightMove) {
+        leftPaddleVY = acceleratePaddle(leftPaddleVY, leftPaddleY, leftMove);
+        rightPaddleVY = acceleratePaddle(rightPaddleVY, rightPaddleY, rightMove);
+        leftPaddleY = movePaddle(leftPaddleY, leftPaddleVY);
+        rightPaddleY = movePaddle(rightPaddleY, rightPaddleVY);
+        for (int i = 0; i < count; i++) {
+            // To prevent bouncing around forever
+            if (wallBounces[i] >= maxWallBounces) {
+                deadBalls++;
+                serve(i);
+            }
+            moveBall(i);
+            checkScore(i);
+        }
+        collideBalls();
+        frames++;
+    }
+
+    /**
+     * Changes a paddle's vertical velocity given the player's move.
+     *
+     * @param velocity
+     * @param position
+     * @param move
+     * @return
+     */
+    private double acceleratePaddle(double velocity, double position, int move) {
+        boolean atBorder = position <= paddleRadius && move == -1
+                || position >= fieldHeight - paddleRadius && move == 1;
+        if (move == 0 || atBorder) {
+            return velocity * (1 - paddleFriction);
+        } else {
+            return velocity + move * paddleAcceleration;
+        }
+    }
+
+    /**
+     * Moves a paddle and clips its vertical location.
+     *
+     * @param center
+     * @param velocity
+     * @return
+     */
+    private double movePaddle(double center, double velocity) {
+        double location = center + velocity;
+        if (location < paddleRadius) {
+            location = paddleRadius;
+        } else if (location > fieldHeight - paddleRadius) {
+            location = fieldHeight - paddleRadius;
+        }
+        return location;
+    }
+
+    /**
+     * Moves and bounces a ball against the paddles and side walls.
+     *
+     * @param i
+     */
+    private void moveBall(int i) {
+        final double y = ballY[i];
+        if (y <= 0) {
+            wallBounces[i]++;
+            ballVY[i] = -ballVY[i];
+        } else if (y >= fieldHeight) {
+            wallBounces[i]++;
+            ballVY[i] = -ballVY[i];
+        } else if (ballX[i] <= 0 && y >= leftPaddleY - paddleRadius && y <= leftPaddleY + paddleRadius) {
+            leftHits++;
+            ballX[i] = 0;
+            hitPaddle(i, 1, leftPaddleY, leftPaddleVY);
+        } else if (ballX[i] >= fieldWidth && y >= rightPaddleY - paddleRadius && y <= rightPaddleY + paddleRadius) {
+            rightHits++;
+            ballX[i] = fieldWidth;
+            hitPaddle(i, -1, rightPaddleY, rightPaddleVY);
+        }
+        ballX[i] += ballVX[i];
+        ballY[i] += ballVY[i];
+    }
+
+    /**
+     * Bounces a ball off a paddle, with the same curvature and spin as
+     * {@link PongGame}.
+     *
+     * @param i
+     * @param direction
+     *            1 for the left paddle, -1 for the right one
+     * @param paddleY
+     * @param paddleVY
+     */
+    private void hitPaddle(int i, double direction, double paddleY, double paddleVY) {
+        wallBounces[i] = 0;
+        rally[i]++;
+        final double normalY = (ballY[i] - paddleY) * paddleCurvature + paddleVY * spinFactor;
+        final double inverseNorm = 1 / Math.sqrt(1 + normalY * normalY);
+        final double normalX = direction * inverseNorm;
+        final double unitNormalY = normalY * inverseNorm;
+        final double height = 2 * (normalX * ballVX[i] + unitNormalY * ballVY[i]);
+        ballVX[i] = (ballVX[i] - normalX * height) * paddleElasticCoefficient;
+        ballVY[i] = (ballVY[i] - unitNormalY * height) * paddleElasticCoefficient;
+    }
+
+    /**
+     * Scores a ball that left the field, and serves it again.
+     *
+     * @param i
+     */
+    private void checkScore(int i) {
+        final double x = ballX[i];
+        if (x <= -10 || x >= fieldWidth + 10) {
+            if (x <= -10) {
+                rightScore++;
+            } else {
+                leftScore++;
+            }
+            if (rally[i] > longestRally) {
+                longestRally = rally[i];
+            }
+            serve(i);
+        }
+    }
+
+    /**
+     * Sorts the balls into the grid, then bounces every pair of touching balls
+     * that are moving towards each other. Each pair is checked once: against
+     * the later balls of the same cell, and against the cells to the right and
+     * below.
+     */
+    void collideBalls() {
+        Arrays.fill(cellStart, 0);
+        for (int i = 0; i < count; i++) {
+            final int cell = cell(ballX[i], ballY[i]);
+            ballCell[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int c = 0; c < cellFill.length; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        System.arraycopy(cellStart, 0, cellFill, 0, cellFill.length);
+        for (int i = 0; i < count; i++) {
+            cellBalls[cellFill[ballCell[i]]++] = i;
+        }
+
+        for (int a = 0; a < count; a++) {
+            final int i = cellBalls[a];
+            final int cell = ballCell[i];
+            final int column = cell % columns;
+            // Later balls in the same cell
+            for (int b = a + 1, end = cellStart[cell + 1]; b < end; b++) {
+                collide(i, cellBalls[b]);
+            }
+            if (column + 1 < columns) {
+                collideCell(i, cell + 1);
+            }
+            if (cell + columns < cellFill.length) {
+                if (column > 0) {
+                    collideCell(i, cell + columns - 1);
+                }
+                collideCell(i, cell + columns);
+                if (column + 1 < columns) {
+                    collideCell(i, cell + columns + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return The grid cell of a position, clamped to the grid.
+     */
+    private int cell(double x, double y) {
+        int column = (int) ((x + GRID_MARGIN) * inverseCellSize);
+        int row = (int) ((y + GRID_MARGIN) * inverseCellSize);
+        column = column < 0 ? 0 : column >= columns ? columns - 1 : column;
+        row = row < 0 ? 0 : row >= rows ? rows - 1 : row;
+        return row * columns + column;
+    }
+
+    /**
+     * Checks a ball against every ball of a cell.
+     *
+     * @param i
+     * @param cell
+     */
+    private void collideCell(int i, int cell) {
+        for (int b = cellStart[cell], end = cellStart[cell + 1]; b < end; b++) {
+            collide(i, cellBalls[b]);
+        }
+    }
+
+    /**
+     * Bounces two balls off each other if they touch and are getting closer,
+     * as an elastic collision between equal masses: they swap the parts of
+     * their velocities along the line between their centers.
+     *
+     * @param i
+     * @param j
+     */
+    private void collide(int i, int j) {
+        final double dx = ballX[j] - ballX[i];
+        final double dy = ballY[j] - ballY[i];
+        final double distanceSquared = dx * dx + dy * dy;
+        final double diameter = 2 * ballRadius;
+        if (distanceSquared >= diameter * diameter || distanceSquared == 0) {
+            return;
+        }
+        final double approach = dx * (ballVX[j] - ballVX[i]) + dy * (ballVY[j] - ballVY[i]);
+        if (approach >= 0) {
+            return;
+        }
+        final double k = approach / distanceSquared;
+        ballVX[i] += k * dx;
+        ballVY[i] += k * dy;
+        ballVX[j] -= k * dx;
+        ballVY[j] -= k * dy;
+        ballCollisions++;
+    }
+
+    /**
+     * A simple opponent: moves a paddle towards the closest ball coming its
+     * way.
+     *
+     * @param left
+     *            Whether to move the left paddle
+     * @return The move
+     */
+    public int trackingMove(boolean left) {
+        double closest = Double.MAX_VALUE;
+        double target = fieldHeight / 2;
+        for (int i = 0; i < count; i++) {
+            final double velocity = ballVX[i];
+            if (left ? velocity < 0 : velocity > 0) {
+                final double distance = left ? ballX[i] : fieldWidth - ballX[i];
+                if (distance >= 0 && distance < closest) {
+                    closest = distance;
+                    target = ballY[i];
+                }
+            }
+        }
+        final double paddle = left ? leftPaddleY : rightPaddleY;
+        if (target < paddle - paddleRadius / 2) {
+            return -1;
+        } else if (target > paddle + paddleRadius / 2) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return The number of balls.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param i
+     * @return The x position of a ball.
+     */
+    public double getBallX(int i) {
+        return ballX[i];
+    }
+
+    /**
+     * @param i
+     * @return The y position of a ball.
+     */
+    public double getBallY(int i) {
+        return ballY[i];
+    }
+
+    /**
+     * @param i
+     * @return The x velocity of a ball.
+     */
+    public double getBallVelocityX(int i) {
+        return ballVX[i];
+    }
+
+    /**
+     * @param i
+     * @return The y velocity of a ball.
+     */
+    public double getBallVelocityY(int i) {
+        return ballVY[i];
+    }
+
+    /**
+     * @return The radius of the balls.
+     */
+    public double getBallRadius() {
+        return ballRadius;
+    }
+
+    /**
+     * @return The y position of the left paddle's center.
+     */
+    public double getLeftPaddleY() {
+        return leftPaddleY;
+    }
+
+    /**
+     * @return The y position of the right paddle's center.
+     */
+    public double getRightPaddleY() {
+        return rightPaddleY;
+    }
+
+    /**
+     * @return The left player's score.
+     */
+    public int getLeftScore() {
+        return leftScore;
+    }
+
+    /**
+     * @return The right player's score.
+     */
+    public int getRightScore() {
+        return rightScore;
+    }
+
+    /**
+     * @return The number of frames played.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return The number of times a ball hit the left paddle.
+     */
+    public long getLeftHits() {
+        return leftHits;
+    }
+
+    /**
+     * @return The number of times a ball hit the right paddle.
+     */
+    public long getRightHits() {
+        return rightHits;
+    }
+
+    /**
+     * @return The number of balls served again after too many wall bounces.
+     */
+    public long getDeadBalls() {
+        return deadBalls;
+    }
+
+    /**
+     * @return The number of times two balls bounced off each other.
+     */
+    public long getBallCollisions() {
+        return ballCollisions;
+    }
+
+    /**
+     * @return The most paddle hits of a single ball between two serves.
+     */
+    public int getLongestRally() {
+        return longestRally;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public double getFieldWidth() {
+        return fieldWidth;
+    }
+
+    /**
+     * @return The height of the field.
+     */
+    public double getFieldHeight() {
+        return fieldHeight;
+    }
+
+    /**
+     * Plays an arena between two tracking paddles as a stress test, and
+     * prints how long a frame takes.
+     *
+     * Usage: MultiBallGame [balls] [frames]
+     */
+    public static void main(String[] args) {
+        final int balls = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        final int frames = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        final MultiBallGame game = new MultiBallGame(balls, 500, 300, 1);
+        final long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            game.nextFrame(game.trackingMove(true), game.trackingMove(false));
+        }
+        final double nanosPerFrame = (double) (System.nanoTime() - start) / frames;
+        System.out.printf("%d balls, %d frames: %.1f us per frame, %.1f ns per ball%n", balls, frames,
+                nanosPerFrame / 1000, nanosPerFrame / balls);
+        System.out.printf("Score %d - %d, %d paddle hits, %d ball collisions, %d dead balls, longest rally %d%n",
+                game.getLeftScore(), game.getRightScore(), game.getLeftHits() + game.getRightHits(),
+                game.getBallCollisions(), game.getDeadBalls(), game.getLongestRally());
+    }
+}
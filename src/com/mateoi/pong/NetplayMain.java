@@ -0,0 +1,131 @@
+package com.mateoi.pong;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import javafx.scene.input.KeyCode;
+
+/**
+ * Starts a networked game with rollback netcode, or tries the netcode out
+ * locally.
+ *
+ * Usage:
+ * <ul>
+ * <li>NetplayMain left|right localPort peerHost peerPort [seed] - plays with
+ * the arrow keys against a peer started with the other side, the same seed
+ * and its ports swapped</li>
+ * <li>NetplayMain loopback [latencyMs] [lossPercent] [frames] - plays two AIs
+ * against each other through a {@link LoopbackTransport} that delays and drops
+ * packets, and checks that both peers end up with exactly the same game</li>
+ * </ul>
+ *
+ * @author mateo
+ */
+public class NetplayMain {
+
+    /** Length of a frame, at 60 frames per second */
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("loopback")) {
+            final long latency = args.length > 1 ? Long.parseLong(args[1]) * 1_000_000 : 100_000_000;
+            final double loss = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.1;
+            final int frames = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+            loopback(latency, loss, frames);
+            return;
+        }
+        if (args.length < 4) {
+            System.out.println("Usage: NetplayMain left|right localPort peerHost peerPort [seed]");
+            System.out.println("       NetplayMain loopback [latencyMs] [lossPercent] [frames]");
+            return;
+        }
+        final boolean localIsLeft = args[0].equals("left");
+        final int localPort = Integer.parseInt(args[1]);
+        final InetSocketAddress peer = new InetSocketAddress(args[2], Integer.parseInt(args[3]));
+        final long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+        final PongGame game = new PongGame(500, 300, seed);
+        try (UdpTransport transport = new UdpTransport(localPort, peer)) {
+            final RollbackSession session = new RollbackSession(game, localIsLeft,
+                    new HumanPlayer(KeyCode.UP, KeyCode.DOWN), transport);
+            final Player local = session.getLocalPlayer();
+            final Player remote = session.getRemotePlayer();
+            PongFXApp.setGame(game);
+            PongFXApp.setPlayers(localIsLeft ? local : remote, localIsLeft ? remote : local);
+            PongFXApp.setSession(session);
+            PongFXApp.launch(PongFXApp.class);
+            printStatistics("Session", session);
+        }
+    }
+
+    /**
+     * Plays two peers through a simulated connection, faster than real time,
+     * and checks that they agree.
+     *
+     * @param latencyNanos
+     * @param lossRate
+     * @param frames
+     */
+    private static void loopback(long latencyNanos, double lossRate, int frames) {
+        final long[] now = { 0 };
+        final LoopbackTransport[] ends = LoopbackTransport.pair(() -> now[0], latencyNanos, latencyNanos / 4,
+                lossRate, 1);
+        final PongGame leftGame = new PongGame(500, 300, 7);
+        final PongGame rightGame = new PongGame(500, 300, 7);
+        // The AIs aim a little off so the moves are hard to predict
+        final AIPlayer leftAI = new AIPlayer(true, 1);
+        leftAI.setAimError(20);
+        final AIPlayer rightAI = new AIPlayer(false, 2);
+        rightAI.setAimError(20);
+        final RollbackSession left = new RollbackSession(leftGame, true, leftAI, ends[0]);
+        final RollbackSession right = new RollbackSession(rightGame, false, rightAI, ends[1]);
+        final Player leftLocal = left.getLocalPlayer();
+        final Player leftRemote = left.getRemotePlayer();
+        final Player rightLocal = right.getLocalPlayer();
+        final Player rightRemote = right.getRemotePlayer();
+
+        while (leftGame.getFrames() < frames || rightGame.getFrames() < frames) {
+            if (leftGame.getFrames() < frames && left.canAdvance()) {
+                leftGame.nextFrame(leftLocal.move(leftGame), leftRemote.move(leftGame));
+            }
+            if (rightGame.getFrames() < frames && right.canAdvance()) {
+                rightGame.nextFrame(rightRemote.move(rightGame), rightLocal.move(rightGame));
+            }
+            now[0] += FRAME_NANOS;
+        }
+        // Let the last moves arrive
+        while (left.getConfirmedFrame() < frames - 1 || right.getConfirmedFrame() < frames - 1) {
+            left.poll();
+            right.poll();
+            now[0] += FRAME_NANOS;
+        }
+
+        final long[] leftState = new long[PongGame.SNAPSHOT_SIZE];
+        final long[] rightState = new long[PongGame.SNAPSHOT_SIZE];
+        leftGame.save(leftState, 0);
+        rightGame.save(rightState, 0);
+        System.out.printf("Latency %d ms, loss %.0f%%, %d frames, %d packets dropped%n", latencyNanos / 1_000_000,
+                lossRate * 100, frames, ends[0].getDropped() + ends[1].getDropped());
+        System.out.println("Score: " + leftGame.getLeftScore() + " - " + leftGame.getRightScore());
+        System.out.println("Peers agree: " + Arrays.equals(leftState, rightState));
+        final long[] confirmedState = new long[PongGame.SNAPSHOT_SIZE];
+        left.getConfirmedGame().save(confirmedState, 0);
+        System.out.println("Confirmed game agrees: " + Arrays.equals(leftState, confirmedState));
+        printStatistics("Left", left);
+        printStatistics("Right", right);
+    }
+
+    /**
+     * Prints the rollback statistics of a session.
+     *
+     * @param name
+     * @param session
+     */
+    private static void printStatistics(String name, RollbackSession session) {
+        System.out.printf("%s: %d frames, %d rollbacks, depth %.1f average and %d max, "
+                + "%.2f frames and %.0f ns re-simulated per frame, %d stalls%n", name, session.getFrames(),
+                session.getRollbacks(), session.getAverageRollbackDepth(), session.getMaxRollbackDepth(),
+                session.getResimulatedFramesPerFrame(), session.getResimulationNanosPerFrame(), session.getStalls());
+    }
+}
@@ -0,0 +1,21 @@
+package com.mateoi.pong;
+
+/**
+ * Creates new players, so that every match gets its own independent instance.
+ *
+ * @author mateo
+ */
+public interface PlayerFactory {
+
+    /**
+     * Creates a new player for one side of the field.
+     *
+     * @param isLeft
+     *            Whether the player will control the left paddle
+     * @param seed
+     *            Seed for any randomness of the player, which players that
+     *            are not random ignore
+     * @return The new player
+     */
+    public Player create(boolean isLeft, long seed);
+}
@@ -0,0 +1,298 @@
+package com.mateoi.pong;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A precomputed table of moves, indexed by a discretized game state as seen by
+ * one player: how far the ball is from the player's goal line, the ball's
+ * height, the direction it is travelling in, and the height of the player's
+ * paddle. Looking up a move costs a few arithmetic operations and one byte
+ * read, whatever the state.
+ *
+ * The table is built from the point of view of the left player and mirrored
+ * for the right one. Each entry holds the move that takes the paddle towards
+ * the point where the ball will cross the goal line, found by simulating the
+ * ball with the game's own physics. Entries are packed four to a byte.
+ *
+ * Tables are saved in a simple binary format that is memory-mapped when
+ * loaded, so they are shared by every player and every process that uses
+ * them.
+ *
+ * @author mateo
+ */
+public class PolicyTable {
+
+    /** Identifies the table format */
+    static final int MAGIC = 0x504E5054;
+    /** Version of the table format */
+    static final int VERSION = 1;
+    /** Size of the file header */
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 * 4;
+
+    // Default number of bins of every state variable
+    static final int DEFAULT_DISTANCE_BINS = 32;
+    static final int DEFAULT_HEIGHT_BINS = 32;
+    static final int DEFAULT_DIRECTION_BINS = 64;
+    static final int DEFAULT_PADDLE_BINS = 32;
+
+    /** Width of the field the table was generated for */
+    private final double fieldWidth;
+    /** Height of the field the table was generated for */
+    private final double fieldHeight;
+    /** Bins of the ball's distance to the goal line */
+    private final int distanceBins;
+    /** Bins of the ball's height */
+    private final int heightBins;
+    /** Bins of the ball's direction */
+    private final int directionBins;
+    /** Bins of the paddle's height */
+    private final int paddleBins;
+    /** The packed moves, starting at index 0 */
+    private final ByteBuffer moves;
+    /** Converts distances to distance bins */
+    private final double distanceScale;
+    /** Converts heights to height bins */
+    private final double heightScale;
+    /** Converts paddle heights to paddle bins */
+    private final double paddleScale;
+
+    /**
+     * Creates a table around existing packed moves.
+     */
+    private PolicyTable(double width, double height, int distanceBins, int heightBins, int directionBins,
+            int paddleBins, ByteBuffer moves) {
+        fieldWidth = width;
+        fieldHeight = height;
+        this.distanceBins = distanceBins;
+        this.heightBins = heightBins;
+        this.directionBins = directionBins;
+        this.paddleBins = paddleBins;
+        this.moves = moves;
+        distanceScale = distanceBins / width;
+        heightScale = heightBins / height;
+        paddleScale = paddleBins / height;
+    }
+
+    /**
+     * Generates a table with the default resolution on the common fork-join
+     * pool.
+     *
+     * @param width
+     * @param height
+     * @return The new table
+     */
+    public static PolicyTable generate(double width, double height) {
+        return generate(width, height, DEFAULT_DISTANCE_BINS, DEFAULT_HEIGHT_BINS, DEFAULT_DIRECTION_BINS,
+                DEFAULT_PADDLE_BINS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generates a table by simulating the ball from the center of every
+     * combination of distance, height and direction bins, in parallel on the
+     * given pool.
+     *
+     * @param width
+     * @param height
+     * @param distanceBins
+     * @param heightBins
+     * @param directionBins
+     * @param paddleBins
+     * @param pool
+     * @return The new table
+     */
+    public static PolicyTable generate(double width, double height, int distanceBins, int heightBins,
+            int directionBins, int paddleBins, ForkJoinPool pool) {
+        final int entries = distanceBins * heightBins * directionBins * paddleBins;
+        final ByteBuffer moves = ByteBuffer.allocate((entries + 3) / 4);
+        final PolicyTable table = new PolicyTable(width, height, distanceBins, heightBins, directionBins,
+                paddleBins, moves);
+        final int trajectories = distanceBins * heightBins * directionBins;
+        final double[] targets = new double[trajectories];
+        pool.submit(() -> IntStream.range(0, trajectories).parallel().forEach(cell -> {
+            targets[cell] = table.simulateTarget(cell);
+        })).join();
+        for (int cell = 0; cell < trajectories; cell++) {
+            for (int paddle = 0; paddle < paddleBins; paddle++) {
+                final double paddleY = (paddle + 0.5) * height / paddleBins;
+                final double offset = targets[cell] - paddleY;
+                final int move = Math.abs(offset) < height / paddleBins / 2 ? 0 : (int) Math.signum(offset);
+                table.set(cell * paddleBins + paddle, move);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Simulates the ball from the center of a cell until it crosses the left
+     * goal line.
+     *
+     * @param cell
+     *            Index of the distance, height and direction bins
+     * @return The height at which the ball crosses the goal line
+     */
+    private double simulateTarget(int cell) {
+        final int direction = cell % directionBins;
+        final int height = cell / directionBins % heightBins;
+        final int distance = cell / directionBins / heightBins;
+        final PongGame game = new PongGame(fieldWidth, fieldHeight, cell);
+        // The direction is binned as vy / (|vx| + |vy|), with vx towards the
+        // goal line
+        final double slope = (direction + 0.5) * 2 / directionBins - 1;
+        final double vx = -(1 - Math.abs(slope));
+        final double vy = slope;
+        final double scale = game.getInitialSpeed() / Math.sqrt(vx * vx + vy * vy);
+        game.placeBall((distance + 0.5) * fieldWidth / distanceBins, (height + 0.5) * fieldHeight / heightBins,
+                vx * scale, vy * scale);
+        final int serves = game.getServes();
+        double y = game.getBallY();
+        while (game.getBallX() > 0 && game.getServes() == serves) {
+            y = game.getBallY();
+            game.nextFrame(0, 0);
+        }
+        return game.getServes() == serves ? game.getBallY() : y;
+    }
+
+    /**
+     * Looks up the move for a player. The game should be played on a field of
+     * the size the table was generated for.
+     *
+     * @param game
+     * @param isLeft
+     * @return The move to perform
+     */
+    public int move(PongGame game, boolean isLeft) {
+        final double velocityX = isLeft ? game.getBallVelocityX() : -game.getBallVelocityX();
+        if (velocityX >= 0) {
+            // Moving away
+            return 0;
+        }
+        final double distance = isLeft ? game.getBallX() : fieldWidth - game.getBallX();
+        final double velocityY = game.getBallVelocityY();
+        final double slope = velocityY / (Math.abs(velocityY) - velocityX);
+        final double paddleY = isLeft ? game.getLeftPaddleY() : game.getRightPaddleY();
+        final int index = ((bin(distance * distanceScale, distanceBins) * heightBins
+                + bin(game.getBallY() * heightScale, heightBins)) * directionBins
+                + bin((slope + 1) * 0.5 * directionBins, directionBins)) * paddleBins
+                + bin(paddleY * paddleScale, paddleBins);
+        return get(index);
+    }
+
+    /**
+     * @param position
+     *            A position measured in bins
+     * @param bins
+     * @return The bin the position falls in, clamped to the range.
+     */
+    private static int bin(double position, int bins) {
+        final int bin = (int) position;
+        return bin < 0 ? 0 : bin >= bins ? bins - 1 : bin;
+    }
+
+    /**
+     * @param index
+     * @return The move stored at an index.
+     */
+    private int get(int index) {
+        return ((moves.get(index >>> 2) >>> ((index & 3) << 1)) & 3) - 1;
+    }
+
+    /**
+     * Stores a move at an index.
+     *
+     * @param index
+     * @param move
+     */
+    private void set(int index, int move) {
+        final int shift = (index & 3) << 1;
+        final int packed = moves.get(index >>> 2) & ~(3 << shift) | (move + 1) << shift;
+        moves.put(index >>> 2, (byte) packed);
+    }
+
+    /**
+     * Saves the table.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putDouble(fieldWidth);
+            header.putDouble(fieldHeight);
+            header.putInt(distanceBins);
+            header.putInt(heightBins);
+            header.putInt(directionBins);
+            header.putInt(paddleBins);
+            header.flip();
+            channel.write(header);
+            final ByteBuffer data = moves.duplicate();
+            data.clear();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Loads a table by memory-mapping it.
+     *
+     * @param file
+     * @return The table
+     * @throws IOException
+     */
+    public static PolicyTable map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            final ByteBuffer all = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (all.getInt() != MAGIC) {
+                throw new IOException("Not a policy table");
+            }
+            final int version = all.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported policy table version " + version);
+            }
+            final double width = all.getDouble();
+            final double height = all.getDouble();
+            final int distanceBins = all.getInt();
+            final int heightBins = all.getInt();
+            final int directionBins = all.getInt();
+            final int paddleBins = all.getInt();
+            final long entries = (long) distanceBins * heightBins * directionBins * paddleBins;
+            if (all.remaining() < (entries + 3) / 4) {
+                throw new IOException("Truncated policy table");
+            }
+            return new PolicyTable(width, height, distanceBins, heightBins, directionBins, paddleBins,
+                    all.slice());
+        }
+    }
+
+    /**
+     * @return The width of the field the table was generated for.
+     */
+    public double getFieldWidth() {
+        return fieldWidth;
+    }
+
+    /**
+     * @return The height of the field the table was generated for.
+     */
+    public double getFieldHeight() {
+        return fieldHeight;
+    }
+
+    /**
+     * @return The size of the packed moves in bytes.
+     */
+    public int getSize() {
+        return moves.capacity();
+    }
+}
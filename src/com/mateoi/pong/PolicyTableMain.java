@@ -0,0 +1,56 @@
+package com.mateoi.pong;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Generates a {@link PolicyTable} if needed, and reports how it compares with
+ * {@link AIPlayer}: how often it picks the same move, and how it does against it
+ * in a tournament. The speed of both is measured by {@code AIBenchmark}.
+ *
+ * Usage: PolicyTableMain [tableFile] [rounds] [width] [height]
+ *
+ * @author mateo
+ */
+public class PolicyTableMain {
+
+    public static void main(String[] args) throws IOException {
+        final File file = new File(args.length > 0 ? args[0] : "policy.table");
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        final double width = args.length > 2 ? Double.parseDouble(args[2]) : 500;
+        final double height = args.length > 3 ? Double.parseDouble(args[3]) : 300;
+
+        if (!file.exists()) {
+            final long start = System.nanoTime();
+            PolicyTable.generate(width, height).write(file);
+            System.out.printf("Generated %s in %.2f s%n", file, (System.nanoTime() - start) / 1e9);
+        }
+        final PolicyTable table = PolicyTable.map(file);
+        System.out.println("Table size: " + table.getSize() + " bytes");
+
+        // Compare the moves on the states of AI-vs-AI play
+        final PongGame game = new PongGame(width, height, 1);
+        final AIPlayer left = new AIPlayer(true);
+        final AIPlayer right = new AIPlayer(false);
+        final TablePlayer tableLeft = new TablePlayer(table, true);
+        int agreements = 0;
+        final int frames = 1_000_000;
+        for (int i = 0; i < frames; i++) {
+            final int move = left.move(game);
+            if (tableLeft.move(game) == move) {
+                agreements++;
+            }
+            game.nextFrame(move, right.move(game));
+        }
+        System.out.printf("Agreement with AIPlayer: %.1f%%%n", 100.0 * agreements / frames);
+
+        final Tournament tournament = new Tournament(width, height);
+        tournament.addEntrant("table", (isLeft, seed) -> new TablePlayer(table, isLeft));
+        tournament.addEntrant("ai", AIPlayer::new);
+        tournament.setRounds(rounds);
+        final TournamentResult result = tournament.play();
+        System.out.println(result);
+        System.out.printf("Win rate: table %.1f%%, ai %.1f%%%n", 100 * result.getWinRate(0),
+                100 * result.getWinRate(1));
+    }
+}
@@ -1,11 +1,7 @@
 package com.mateoi.pong;
 
-import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
-
 import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
-import javafx.beans.property.BooleanProperty;
-import javafx.beans.property.SimpleBooleanProperty;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
@@ -13,8 +9,9 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 
 /**
- * Handles drawing a Pong game onto a Canvas and animates the game at a rate of
- * 60 fps.
+ * Handles drawing a Pong game onto a Canvas and animates it. By default the
+ * game advances one frame per screen refresh; with a fixed tick rate it runs on
+ * a {@link SimulationThread} instead and the screen shows interpolated states.
  *
  * @author mateo
  */
@@ -22,6 +19,8 @@ public class PongController {
 
     /** The game that's being played */
     private final PongGame game;
+    /** Observable view of the game's scores */
+    private final PongGameProperties scores;
     /** The canvas to draw the game on */
     private final Canvas canvas;
     /** Context used to draw on the canvas */
@@ -32,15 +31,87 @@ public class PongController {
     private final Player rightPlayer;
 
     /** Whether the game is finished or not */
-    private final BooleanProperty done = new SimpleBooleanProperty(false);
+    private boolean done = false;
+    /**
+     * The game whose goals count: the game itself, or the copy of a networked
+     * game that only plays confirmed frames
+     */
+    private PongGame scoredGame;
+    /** The session of a networked game, or null */
+    private RollbackSession session;
+    /** Carries the goals of the scored game to the FX thread in batches */
+    private final GameEventQueue events = new GameEventQueue();
+    /**
+     * Updates the scores and ends the game when a player has won. Every goal
+     * carries the whole score, so a goal dropped by a full queue is made up
+     * for by the next one.
+     */
+    private final GameListener scoreKeeper = new GameListener() {
+
+        @Override
+        public void goal(long frame, boolean left, int leftScore, int rightScore, int rally) {
+            scores.update(leftScore, rightScore);
+            if (!done && (leftScore >= winningScore || rightScore >= winningScore)) {
+                finish(leftScore > rightScore);
+            }
+        }
+    };
 
     /** Score to win the game */
-    private final int winningScore = 5;
+    private int winningScore = 5;
     /** How thick to draw the lines on screen */
     private final int lineThickness;
     /** Offset between the canvas edge and the game edge */
     private final int wallOffset;
 
+    /** Simulation ticks per second, or 0 to tick once per screen refresh */
+    private int ticksPerSecond = 0;
+    /** Simulation running on its own thread, when using a fixed tick rate */
+    private SimulationThread simulation;
+    /** The state that is drawn on screen */
+    private final RenderState renderState = new RenderState();
+
+    /** Text for the most common scores, so they are not rebuilt every time */
+    private static final String[] SCORE_TEXT = new String[100];
+    static {
+        for (int i = 0; i < SCORE_TEXT.length; i++) {
+            SCORE_TEXT[i] = String.valueOf(i);
+        }
+    }
+
+    /**
+     * Canvas behind the main one holding the walls and scores, or null to
+     * redraw everything on the main canvas every frame
+     */
+    private Canvas background;
+    /** Context used to draw on the background canvas */
+    private GraphicsContext backgroundGc;
+    /** Rectangles drawn on the main canvas in the last frame: x, y, w, h */
+    private final double[] dirtyRegions = new double[20];
+    /** Number of values used in dirtyRegions */
+    private int dirtyCount = 0;
+
+    /** Keyboard input to advance every frame, or null */
+    private KeyboardInput input;
+    /** Where to record how long each phase of a frame takes, or null */
+    private FrameMetrics metrics;
+    /** Whether the metrics are drawn over the game */
+    private boolean overlayVisible = false;
+    /** How often the numbers on the overlay change */
+    private static final long OVERLAY_REFRESH_NANOS = 500_000_000;
+    /** Font of the overlay */
+    private static final Font OVERLAY_FONT = Font.font("monospace", 11);
+    /** Background of the overlay */
+    private static final Color OVERLAY_BACKGROUND = Color.rgb(0, 0, 0, 0.7);
+    /** Text shown on the overlay */
+    private final String[] overlayText = new String[FrameMetrics.Phase.values().length + 2];
+    /** When the overlay text was last updated */
+    private long overlayUpdated = 0;
+    // Histograms used to show the values since the last overlay update
+    private final Histogram overlayCurrent = new Histogram();
+    private final Histogram overlayWindow = new Histogram();
+    private final Histogram[] overlayPrevious = new Histogram[FrameMetrics.Phase.values().length];
+
     /**
      * Creates a new controller that will play the game getting moves from both
      * players and draw it on the canvas
@@ -55,6 +126,8 @@ public class PongController {
     public PongController(PongGame game, Canvas canvas, Player leftPlayer, Player rightPlayer, int wallOffset,
             int linethickness) {
         this.game = game;
+        scoredGame = game;
+        scores = new PongGameProperties(game);
         this.canvas = canvas;
         this.leftPlayer = leftPlayer;
         this.rightPlayer = rightPlayer;
@@ -62,14 +135,22 @@ public class PongController {
         this.wallOffset = wallOffset;
         gc = canvas.getGraphicsContext2D();
         gc.setFont(Font.font("monospace", FontWeight.BOLD, 15));
-        done.addListener((a, b, done) -> {
-            if (done) {
-                final String winner = game.getLeftScore() > game.getRightScore() ? "Left" : "Right";
-                System.out.println(winner + " player wins!");
-                loop.stop();
-                Platform.exit();
-            }
-        });
+    }
+
+    /**
+     * Stops the game once a player has won.
+     *
+     * @param leftWins
+     */
+    private void finish(boolean leftWins) {
+        done = true;
+        System.out.println((leftWins ? "Left" : "Right") + " player wins!");
+        loop.stop();
+        renderLoop.stop();
+        if (simulation != null) {
+            simulation.stop();
+        }
+        Platform.exit();
     }
 
     /**
@@ -79,87 +160,421 @@ public class PongController {
 
         @Override
         public void handle(long now) {
+            if (session != null && !session.canAdvance()) {
+                // Too far ahead of the peer: show the game without playing
+                drawField();
+                drawSessionState();
+                return;
+            }
+            final FrameMetrics metrics = measuring();
+            final GameEvents.Frame frameEvent = GameEvents.beginFrame();
+            long start = 0;
+            if (metrics != null) {
+                metrics.pulse(now);
+                start = System.nanoTime();
+            }
+            long lap = start;
             drawField();
-            final int leftMove = leftPlayer.move(game);
-            final int rightMove = rightPlayer.move(game);
+            if (metrics != null) {
+                lap = metrics.lap(FrameMetrics.Phase.DRAW, lap);
+            }
+            if (input != null) {
+                presented(metrics);
+                input.advance(now, game.getFrames());
+            }
+            final int leftMove = GameEvents.move(leftPlayer, game, true);
+            if (metrics != null) {
+                lap = metrics.lap(FrameMetrics.Phase.LEFT_MOVE, lap);
+            }
+            final int rightMove = GameEvents.move(rightPlayer, game, false);
+            if (metrics != null) {
+                lap = metrics.lap(FrameMetrics.Phase.RIGHT_MOVE, lap);
+            }
             game.nextFrame(leftMove, rightMove);
-            done.set(game.getLeftScore() >= winningScore || game.getRightScore() >= winningScore);
+            if (metrics != null) {
+                lap = metrics.lap(FrameMetrics.Phase.PHYSICS, lap);
+                metrics.record(FrameMetrics.Phase.FRAME, lap - start);
+            }
+            GameEvents.endFrame(frameEvent, game, leftMove, rightMove);
+            if (overlayVisible) {
+                drawOverlay(now);
+            }
+            events.drain(scoreKeeper);
         }
+    };
+
+    /**
+     * The graphics loop used with a fixed tick rate. It only draws the latest
+     * state published by the simulation thread, so a slow frame is skipped
+     * instead of slowing the game down.
+     */
+    private final AnimationTimer renderLoop = new AnimationTimer() {
 
-        /**
-         * Draws the field: walls, paddles, ball and scores on a black
-         * background.
-         */
-        private void drawField() {
-            gc.setFill(Color.BLACK);
-            gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        @Override
+        public void handle(long now) {
+            final FrameMetrics metrics = measuring();
+            if (metrics != null) {
+                metrics.pulse(now);
+                final long start = System.nanoTime();
+                simulation.read(now, renderState);
+                drawField(renderState);
+                metrics.lap(FrameMetrics.Phase.DRAW, start);
+            } else {
+                simulation.read(now, renderState);
+                drawField(renderState);
+            }
+            if (input != null) {
+                presented(metrics);
+            }
+            if (session != null) {
+                drawSessionState();
+            }
+            if (overlayVisible) {
+                drawOverlay(now);
+            }
+            events.drain(scoreKeeper);
+        }
+    };
+
+    /**
+     * Draws the field: walls, paddles, ball and scores on a black
+     * background.
+     */
+    void drawField() {
+        renderState.copyFrom(game);
+        drawField(renderState);
+    }
+
+    /**
+     * Draws the given state of the field.
+     *
+     * @param state
+     */
+    private void drawField(RenderState state) {
+        if (background != null) {
+            // Only the moving parts are redrawn, the rest is in the background
+            clearDirtyRegions();
             gc.setFill(Color.WHITE);
-            drawPaddles(game.getLeftPaddleCenter(), game.getRightPaddleCenter(), game.getPaddleRadius(),
+            drawPaddles(state.getLeftPaddleY(), state.getRightPaddleY(), game.getPaddleRadius(),
                     game.getFieldWidth());
-            drawWalls(canvas.getWidth(), canvas.getHeight());
-            drawBall(game.getBallPosition());
-            drawScores(game.getLeftScore(), game.getRightScore(), canvas.getWidth() / 2);
-        }
-
-        /**
-         * Puts the score on the top
-         *
-         * @param leftScore
-         * @param rightScore
-         * @param centerline
-         */
-        private void drawScores(int leftScore, int rightScore, double centerline) {
-            gc.fillText(String.valueOf(leftScore), centerline - 20, 25.);
-            gc.fillText(String.valueOf(rightScore), centerline + 5, 25.);
-        }
-
-        /**
-         * Draws the ball in its correct position
-         *
-         * @param ballPosition
-         */
-        private void drawBall(Vector2D ballPosition) {
-            final double x = ballPosition.getX() + wallOffset;
-            final double y = ballPosition.getY() + wallOffset;
-            gc.fillRect(x - lineThickness / 2, y - lineThickness / 2, lineThickness, lineThickness);
-        }
-
-        /**
-         * Draws the walls at the given offset.
-         *
-         * @param walloffset
-         * @param width
-         * @param height
-         */
-        private void drawWalls(double width, double height) {
-            gc.fillRect(0, wallOffset - lineThickness, width, lineThickness);
-            gc.fillRect(0, height - wallOffset, width, lineThickness);
-        }
-
-        /**
-         * Draws the paddles
-         *
-         * @param leftPaddleCenter
-         * @param rightPaddleCenter
-         * @param paddleRadius
-         * @param width
-         */
-        private void drawPaddles(Vector2D leftPaddleCenter, Vector2D rightPaddleCenter, double paddleRadius,
-                double width) {
-            final double lx = leftPaddleCenter.getX() + wallOffset;
-            final double ly = leftPaddleCenter.getY() + wallOffset;
-            final double rx = rightPaddleCenter.getX() + wallOffset;
-            final double ry = rightPaddleCenter.getY() + wallOffset;
-
-            gc.fillRect(lx - lineThickness, ly - paddleRadius, lineThickness, 2 * paddleRadius);
-            gc.fillRect(rx, ry - paddleRadius, lineThickness, 2 * paddleRadius);
+            drawBall(state.getBallX(), state.getBallY());
+            return;
         }
-    };
+        gc.setFill(Color.BLACK);
+        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gc.setFill(Color.WHITE);
+        drawPaddles(state.getLeftPaddleY(), state.getRightPaddleY(), game.getPaddleRadius(), game.getFieldWidth());
+        drawWalls(gc, canvas.getWidth(), canvas.getHeight());
+        drawBall(state.getBallX(), state.getBallY());
+        drawScores(gc, state.getLeftScore(), state.getRightScore(), canvas.getWidth() / 2);
+    }
+
+    /**
+     * Redraws the background layer: walls and scores on a black background.
+     * Only called when a score changes.
+     */
+    private void drawBackground() {
+        backgroundGc.setFill(Color.BLACK);
+        backgroundGc.fillRect(0, 0, background.getWidth(), background.getHeight());
+        backgroundGc.setFill(Color.WHITE);
+        drawWalls(backgroundGc, background.getWidth(), background.getHeight());
+        drawScores(backgroundGc, scores.leftScoreProperty().get(), scores.rightScoreProperty().get(),
+                background.getWidth() / 2);
+    }
+
+    /**
+     * Erases the rectangles drawn on the main canvas in the previous frame,
+     * with a one pixel margin for antialiasing.
+     */
+    private void clearDirtyRegions() {
+        for (int i = 0; i < dirtyCount; i += 4) {
+            gc.clearRect(dirtyRegions[i] - 1, dirtyRegions[i + 1] - 1, dirtyRegions[i + 2] + 2,
+                    dirtyRegions[i + 3] + 2);
+        }
+        dirtyCount = 0;
+    }
+
+    /**
+     * Fills a rectangle on the main canvas, remembering it so it can be erased
+     * on the next frame.
+     *
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     */
+    private void fillDirtyRect(double x, double y, double w, double h) {
+        gc.fillRect(x, y, w, h);
+        if (dirtyCount < dirtyRegions.length) {
+            dirtyRegions[dirtyCount++] = x;
+            dirtyRegions[dirtyCount++] = y;
+            dirtyRegions[dirtyCount++] = w;
+            dirtyRegions[dirtyCount++] = h;
+        }
+    }
+
+    /**
+     * Puts the score on the top
+     *
+     * @param target
+     * @param leftScore
+     * @param rightScore
+     * @param centerline
+     */
+    private void drawScores(GraphicsContext target, int leftScore, int rightScore, double centerline) {
+        target.fillText(scoreText(leftScore), centerline - 20, 25.);
+        target.fillText(scoreText(rightScore), centerline + 5, 25.);
+    }
+
+    /**
+     * @param score
+     * @return The text to draw for a score.
+     */
+    private static String scoreText(int score) {
+        return score >= 0 && score < SCORE_TEXT.length ? SCORE_TEXT[score] : String.valueOf(score);
+    }
 
     /**
-     * Starts the animation loop.
+     * Draws the ball in its correct position
+     *
+     * @param ballX
+     * @param ballY
+     */
+    private void drawBall(double ballX, double ballY) {
+        final double x = ballX + wallOffset;
+        final double y = ballY + wallOffset;
+        fillDirtyRect(x - lineThickness / 2, y - lineThickness / 2, lineThickness, lineThickness);
+    }
+
+    /**
+     * Draws the walls at the given offset.
+     *
+     * @param target
+     * @param width
+     * @param height
+     */
+    private void drawWalls(GraphicsContext target, double width, double height) {
+        target.fillRect(0, wallOffset - lineThickness, width, lineThickness);
+        target.fillRect(0, height - wallOffset, width, lineThickness);
+    }
+
+    /**
+     * Draws the paddles
+     *
+     * @param leftPaddleY
+     * @param rightPaddleY
+     * @param paddleRadius
+     * @param width
+     */
+    private void drawPaddles(double leftPaddleY, double rightPaddleY, double paddleRadius, double width) {
+        final double lx = wallOffset;
+        final double ly = leftPaddleY + wallOffset;
+        final double rx = width + wallOffset;
+        final double ry = rightPaddleY + wallOffset;
+
+        fillDirtyRect(lx - lineThickness, ly - paddleRadius, lineThickness, 2 * paddleRadius);
+        fillDirtyRect(rx, ry - paddleRadius, lineThickness, 2 * paddleRadius);
+    }
+
+    /**
+     * Tells the input that the render state was drawn, to measure how long
+     * key presses take to show.
+     *
+     * @param metrics
+     *            Where to record the latency too, or null
+     */
+    private void presented(FrameMetrics metrics) {
+        final long latency = input.presented(renderState.getFrame());
+        if (latency >= 0 && metrics != null) {
+            metrics.record(FrameMetrics.Phase.INPUT, latency);
+        }
+    }
+
+    /**
+     * @return The metrics to record into, or null if they are not wanted.
+     */
+    private FrameMetrics measuring() {
+        return metrics != null && metrics.isEnabled() ? metrics : null;
+    }
+
+    /**
+     * Draws the frame metrics in the top left corner. The numbers are the
+     * percentiles since the last update, in milliseconds, and only change a
+     * couple of times per second so they can be read.
+     *
+     * @param now
+     */
+    private void drawOverlay(long now) {
+        if (overlayText[0] == null || now - overlayUpdated >= OVERLAY_REFRESH_NANOS) {
+            updateOverlay();
+            overlayUpdated = now;
+        }
+        final double x = wallOffset + 40;
+        final double y = wallOffset + 30;
+        gc.setFill(OVERLAY_BACKGROUND);
+        fillDirtyRect(x, y, 290, 13 * overlayText.length + 6);
+        gc.setFill(Color.LIME);
+        final Font font = gc.getFont();
+        gc.setFont(OVERLAY_FONT);
+        for (int i = 0; i < overlayText.length; i++) {
+            gc.fillText(overlayText[i], x + 4, y + 14 + 13 * i);
+        }
+        gc.setFont(font);
+    }
+
+    /**
+     * Tells the player in the middle of the field when a networked game is
+     * waiting for the peer or has lost it.
+     */
+    private void drawSessionState() {
+        final RollbackSession.State state = session.getState();
+        if (state == RollbackSession.State.PLAYING) {
+            return;
+        }
+        final String text = state == RollbackSession.State.LOST ? "Connection lost" : "Waiting for peer";
+        final double x = canvas.getWidth() / 2 - 80;
+        final double y = canvas.getHeight() / 2 - 15;
+        gc.setFill(Color.BLACK);
+        fillDirtyRect(x, y, 160, 24);
+        gc.setFill(Color.WHITE);
+        gc.fillText(text, x + 8, y + 17);
+    }
+
+    /**
+     * Computes the text of the overlay from the values recorded since it was
+     * last updated.
+     */
+    private void updateOverlay() {
+        overlayText[0] = String.format("%-10s %7s %7s %7s %7s", "ms", "p50", "p99", "max", "count");
+        for (FrameMetrics.Phase phase : FrameMetrics.Phase.values()) {
+            final Histogram previous = overlayPrevious[phase.ordinal()];
+            metrics.snapshot(phase, overlayCurrent);
+            overlayCurrent.copyInto(overlayWindow);
+            overlayWindow.subtract(previous);
+            overlayCurrent.copyInto(previous);
+            overlayText[phase.ordinal() + 1] = String.format("%-10s %7.3f %7.3f %7.3f %7d", phase.getLabel(),
+                    overlayWindow.getValueAtPercentile(50) / 1e6, overlayWindow.getValueAtPercentile(99) / 1e6,
+                    overlayWindow.getMax() / 1e6, overlayWindow.getCount());
+        }
+        overlayText[overlayText.length - 1] = "missed pulses: " + metrics.getMissedPulses();
+    }
+
+    /**
+     * Set where to record how long each phase of a frame takes. Measuring is
+     * skipped entirely while the metrics are disabled.
+     *
+     * @param metrics
+     *            The metrics, or null to not measure
+     */
+    public void setMetrics(FrameMetrics metrics) {
+        this.metrics = metrics;
+        for (int i = 0; i < overlayPrevious.length; i++) {
+            overlayPrevious[i] = new Histogram();
+        }
+        if (simulation != null) {
+            simulation.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Set the keyboard input the players read. It is advanced once per frame,
+     * or once per tick with a fixed tick rate, before the players move.
+     *
+     * @param input
+     *            The input, or null if no player uses the keyboard
+     */
+    public void setInput(KeyboardInput input) {
+        this.input = input;
+        if (simulation != null) {
+            simulation.setInput(input);
+        }
+    }
+
+    /**
+     * Shows or hides the frame metrics over the game. Metrics are recorded
+     * while they are shown or being exported.
+     */
+    public void toggleMetricsOverlay() {
+        if (metrics == null) {
+            setMetrics(new FrameMetrics());
+        }
+        overlayVisible = !overlayVisible;
+        overlayText[0] = null;
+        metrics.setEnabled(overlayVisible || metrics.isExporting());
+    }
+
+    /**
+     * Set the score a player needs to win the game.
+     *
+     * @param winningScore
+     */
+    public void setWinningScore(int winningScore) {
+        this.winningScore = winningScore;
+    }
+
+    /**
+     * Draw the static parts of the field (walls and scores) on a separate
+     * canvas placed behind the main one. The background is only redrawn when a
+     * score changes, and the main canvas only erases and redraws the areas
+     * around the ball and paddles. The main canvas must be transparent.
+     *
+     * @param background
+     *            A canvas of the same size as the main one, behind it
+     */
+    public void setBackgroundCanvas(Canvas background) {
+        this.background = background;
+        backgroundGc = background.getGraphicsContext2D();
+        backgroundGc.setFont(gc.getFont());
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        dirtyCount = 0;
+        scores.leftScoreProperty().addListener(o -> drawBackground());
+        scores.rightScoreProperty().addListener(o -> drawBackground());
+        drawBackground();
+    }
+
+    /**
+     * Run the simulation on its own thread at a fixed rate instead of once per
+     * screen refresh. Must be called before {@link #playGame()}.
+     *
+     * @param ticksPerSecond
+     *            Simulation rate, for instance 120 or 240; 0 to tick once per
+     *            screen refresh
+     */
+    public void setTickRate(int ticksPerSecond) {
+        this.ticksPerSecond = ticksPerSecond;
+    }
+
+    /**
+     * Plays a networked game. A frame is only played when the session can
+     * advance without waiting for the peer, and the screen says so while it
+     * waits. Its goals are taken from the session's confirmed game, since the
+     * goals of predicted frames may be taken back by a rollback. Must be
+     * called before {@link #playGame()}.
+     *
+     * @param session
+     */
+    public void setSession(RollbackSession session) {
+        this.session = session;
+        scoredGame = session.getConfirmedGame();
+    }
+
+    /**
+     * Starts the animation loop. The scores and the end of the game follow
+     * the goals of the game, drained from a {@link GameEventQueue} every
+     * frame, so they work the same whether the game is played on this thread
+     * or on a {@link SimulationThread}.
      */
     public void playGame() {
-        loop.start();
+        scoredGame.addListener(events);
+        if (ticksPerSecond > 0) {
+            simulation = new SimulationThread(game, leftPlayer, rightPlayer, ticksPerSecond, winningScore);
+            simulation.setMetrics(metrics);
+            simulation.setInput(input);
+            simulation.setSession(session);
+            simulation.start();
+            renderLoop.start();
+        } else {
+            loop.start();
+        }
     }
 }
@@ -1,12 +1,13 @@
 package com.mateoi.pong;
 
-import java.util.ArrayList;
+import java.io.File;
 
 import javafx.application.Application;
 import javafx.scene.Group;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.stage.Stage;
 
 /**
@@ -24,11 +25,30 @@ public class PongFXApp extends Application {
     private static int wallOffset = 10;
     private static int lineThickness = 3;
 
+    /** Score to win the game */
+    private static int winningScore = 5;
+
     private static Player leftPlayer;
     private static Player rightPlayer;
 
-    /** List to keep the currently pressed keys in */
-    private static ArrayList<KeyCode> input = new ArrayList<>();
+    /** Simulation ticks per second, or 0 to tick once per screen refresh */
+    private static int tickRate = 0;
+    /** Whether to draw the static parts of the field on a separate layer */
+    private static boolean layeredRendering = false;
+    /** File the frame metrics are exported to, or null */
+    private static File metricsFile;
+    /** How often the frame metrics are exported */
+    private static final long METRICS_EXPORT_MILLIS = 5000;
+    /** The session of a networked game, or null */
+    private static RollbackSession session;
+    /** Whether the game's events are sent to the flight recorder */
+    private static boolean flightEvents = Boolean.getBoolean("pong.flightEvents");
+
+    /**
+     * The keys pressed, with the time of every press and release. It is read
+     * from the simulation thread when using a fixed tick rate.
+     */
+    private static final KeyboardInput input = new KeyboardInput();
 
     public PongFXApp() {
         // Nothing here
@@ -41,7 +61,14 @@ public class PongFXApp extends Application {
      * @return
      */
     public static boolean keyPressed(KeyCode code) {
-        return input.contains(code);
+        return input.isPressed(code);
+    }
+
+    /**
+     * @return The keyboard input of the application.
+     */
+    public static KeyboardInput getInput() {
+        return input;
     }
 
     @Override
@@ -51,10 +78,35 @@ public class PongFXApp extends Application {
             Scene scene = new Scene(root);
             window.setScene(scene);
             addSceneListeners(scene);
-            Canvas canvas = new Canvas(game.getFieldWidth() + 2 * wallOffset, game.getFieldHeight() + 2 * wallOffset);
-            root.getChildren().add(canvas);
+            final double width = game.getFieldWidth() + 2 * wallOffset;
+            final double height = game.getFieldHeight() + 2 * wallOffset;
+            Canvas canvas = new Canvas(width, height);
             PongController controller = new PongController(game, canvas, leftPlayer, rightPlayer, wallOffset,
                     lineThickness);
+            if (layeredRendering) {
+                Canvas background = new Canvas(width, height);
+                root.getChildren().add(background);
+                controller.setBackgroundCanvas(background);
+            }
+            root.getChildren().add(canvas);
+            controller.setWinningScore(winningScore);
+            controller.setTickRate(tickRate);
+            controller.setInput(input);
+            if (session != null) {
+                controller.setSession(session);
+            }
+            game.setFlightEvents(flightEvents);
+            if (metricsFile != null) {
+                final FrameMetrics metrics = new FrameMetrics();
+                metrics.startExport(metricsFile, METRICS_EXPORT_MILLIS);
+                controller.setMetrics(metrics);
+            }
+            // F3 shows how long the frames take
+            scene.addEventHandler(KeyEvent.KEY_PRESSED, e -> {
+                if (e.getCode() == KeyCode.F3) {
+                    controller.toggleMetricsOverlay();
+                }
+            });
             window.show();
             controller.playGame();
         } catch (Exception e) {
@@ -68,12 +120,9 @@ public class PongFXApp extends Application {
      * @param scene
      */
     private static void addSceneListeners(Scene scene) {
-        scene.setOnKeyPressed(e -> {
-            if (!input.contains(e.getCode())) {
-                input.add(e.getCode());
-            }
-        });
-        scene.setOnKeyReleased(e -> input.remove(e.getCode()));
+        // The events don't carry a time, so they are stamped when handled
+        scene.setOnKeyPressed(e -> input.keyPressed(e.getCode(), System.nanoTime()));
+        scene.setOnKeyReleased(e -> input.keyReleased(e.getCode(), System.nanoTime()));
     }
 
     /**
@@ -96,6 +145,69 @@ public class PongFXApp extends Application {
         PongFXApp.rightPlayer = rightPlayer;
     }
 
+    /**
+     * Set the session of a networked game, whose players were given to
+     * {@link #setPlayers(Player, Player)}.
+     *
+     * @param session
+     */
+    public static void setSession(RollbackSession session) {
+        PongFXApp.session = session;
+    }
+
+    /**
+     * Set the score a player needs to win the game.
+     *
+     * @param winningScore
+     */
+    public static void setWinningScore(int winningScore) {
+        PongFXApp.winningScore = winningScore;
+    }
+
+    /**
+     * Run the simulation at a fixed rate on its own thread, independently of
+     * the screen's refresh rate.
+     *
+     * @param ticksPerSecond
+     *            Simulation rate, or 0 to tick once per screen refresh
+     */
+    public static void setTickRate(int ticksPerSecond) {
+        PongFXApp.tickRate = ticksPerSecond;
+    }
+
+    /**
+     * Draw the walls and scores on a static background layer, redrawing only
+     * the areas around the ball and paddles every frame.
+     *
+     * @param layered
+     */
+    public static void setLayeredRendering(boolean layered) {
+        PongFXApp.layeredRendering = layered;
+    }
+
+    /**
+     * Record how long each phase of a frame takes, and export the metrics to a
+     * file in the Prometheus text format every few seconds. The metrics can
+     * also be shown over the game with F3, with or without a file.
+     *
+     * @param file
+     *            The file to export to, or null to not export
+     */
+    public static void setMetricsFile(File file) {
+        PongFXApp.metricsFile = file;
+    }
+
+    /**
+     * Send the game's paddle hits, wall bounces, dead balls, serves and goals
+     * to the Java Flight Recorder. Off unless the pong.flightEvents system
+     * property is true, for instance with {@code -Dpong.flightEvents=true}.
+     *
+     * @param enabled
+     */
+    public static void setFlightEvents(boolean enabled) {
+        PongFXApp.flightEvents = enabled;
+    }
+
     /**
      * Sets the graphical offset between the edge of the playing area and the
      * edge of the drawing canvas. Has no effect on gameplay, just graphics.
@@ -1,60 +1,82 @@
 package com.mateoi.pong;
 
-import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+import java.util.Arrays;
 
-import javafx.beans.property.IntegerProperty;
-import javafx.beans.property.SimpleIntegerProperty;
+import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
 
 /**
- * This class is represents the state and rules for a 2-player Pong game.
+ * This class is represents the state and rules for a 2-player Pong game. It has
+ * no JavaFX dependencies, so it can be simulated headless; see
+ * {@link PongGameProperties} for the observable adapter used by the UI.
  *
  * @author mateo
  */
 public class PongGame {
 
-    /** Current position of the ball */
-    private Vector2D ballPosition;
-    /** Current velocity of the ball */
-    private Vector2D ballVelocity;
+    // Default physics parameters, shared with BatchPongGame
+    static final double DEFAULT_INITIAL_SPEED = 1.8;
+    static final double DEFAULT_PADDLE_RADIUS = 25;
+    static final double DEFAULT_PADDLE_CURVATURE = 0.02;
+    static final double DEFAULT_PADDLE_ACCELERATION = 0.4;
+    static final double DEFAULT_PADDLE_FRICTION = 0.2;
+    static final double DEFAULT_ELASTIC_COEFFICIENT = 1.1;
+    static final double DEFAULT_SPIN_FACTOR = 0.02;
+    static final int MAX_WALL_BOUNCES = 15;
+
+    // The state is kept in primitive fields so that stepping the game does not
+    // allocate. The Vector2D getters build their result on demand.
+    /** Current x position of the ball */
+    private double ballX;
+    /** Current y position of the ball */
+    private double ballY;
+    /** Current x velocity of the ball */
+    private double ballVX;
+    /** Current y velocity of the ball */
+    private double ballVY;
     /** Initial ball velocity */
-    private double initialBallSpeed = 1.8;
-    /** Location of the left paddle's center */
-    private Vector2D leftPaddleCenter;
-    /** Current velocity of the left paddle */
-    private Vector2D leftPaddleVelocity;
-    /** Location of the right paddle's center */
-    private Vector2D rightPaddleCenter;
-    /** Current velocity of the right paddle */
-    private Vector2D rightPaddleVelocity;
+    private double initialBallSpeed = DEFAULT_INITIAL_SPEED;
+    /** Y location of the left paddle's center. Its x location is always 0 */
+    private double leftPaddleY;
+    /** Current y velocity of the left paddle */
+    private double leftPaddleVY;
+    /** Y location of the right paddle's center. Its x location is the width */
+    private double rightPaddleY;
+    /** Current y velocity of the right paddle */
+    private double rightPaddleVY;
 
     /** Left player's score */
-    private final IntegerProperty leftScore = new SimpleIntegerProperty(0);
+    private int leftScore = 0;
     /** Right player's score */
-    private final IntegerProperty rightScore = new SimpleIntegerProperty(0);
+    private int rightScore = 0;
 
     /** How far the paddle extends from the center */
-    private double paddleRadius = 25;
+    private double paddleRadius = DEFAULT_PADDLE_RADIUS;
     /**
      * How much the paddle curves - this matters for bouncing and accelerating
      * the ball
      */
-    private double paddleCurvature = 0.02;
+    private double paddleCurvature = DEFAULT_PADDLE_CURVATURE;
     /** How fast the paddle accelerates when under user input */
-    private double paddleAcceleration = 0.4;
+    private double paddleAcceleration = DEFAULT_PADDLE_ACCELERATION;
     /** How quickly the paddle slows down when there is no user input */
-    private double paddleFriction = 0.2;
+    private double paddleFriction = DEFAULT_PADDLE_FRICTION;
     /** The increase in velocity when the ball bounces off the paddle */
-    private double paddleElasticCoefficient = 1.1;
+    private double paddleElasticCoefficient = DEFAULT_ELASTIC_COEFFICIENT;
     /** How much the paddle's movement affects the ball's trajectory */
-    private double spinFactor = 0.02;
+    private double spinFactor = DEFAULT_SPIN_FACTOR;
 
     /** Total width of the field */
     private double fieldWidth;
     /** Total height of the field */
     private double fieldHeight;
 
+    /** Seed the serves were generated from */
+    private final long seed;
+    /** Source of randomness for serves */
+    private final SplitMix64 random;
+
     /** The maximum number of wall bounces before a re-serve */
-    private final int maxWallBounces = 15;
+    private final int maxWallBounces = MAX_WALL_BOUNCES;
     /** The current number of consecutive wall bounces */
     private int wallBounces = 0;
 
@@ -71,6 +93,40 @@ public class PongGame {
     private int leftHits = 0;
     /** Balls answered by the right player */
     private int rightHits = 0;
+    /** Number of frames played */
+    private long frames = 0;
+    /** Number of times the ball was served, including the first serve */
+    private int serves = 0;
+    /** Frame of the last serve */
+    private long serveFrame = 0;
+
+    /**
+     * The most frames played without checks by one stretch of
+     * {@link #fastForward}, which keeps the rounding error of the ball's
+     * position far below the safety margin
+     */
+    private static final long MAX_LEAP = 1 << 20;
+    /** Most walls and paddles a swept ball is bounced off in one frame */
+    private static final int MAX_SWEPT_EVENTS = 4;
+    /** Whether the ball's path is checked against the walls and paddles */
+    private boolean sweptCollisions = false;
+    /** Whether gameplay events are sent to the flight recorder */
+    private boolean flightEvents = false;
+    /** Records the distributions of rallies, hits and points, if set */
+    private MatchStatistics statistics;
+    /** Every listener added */
+    private GameListener[] listeners = new GameListener[0];
+    /**
+     * Where events are sent: null without listeners, so that events cost a
+     * single check, the only listener, or all of them
+     */
+    private GameListener listener;
+
+    /**
+     * Number of longs in a snapshot: every mutable field, with the doubles
+     * stored as their raw bits
+     */
+    public static final int SNAPSHOT_SIZE = 31;
 
     /**
      * Creates a new Pong game.
@@ -81,10 +137,27 @@ public class PongGame {
      *            The total height of the playing field.
      */
     public PongGame(double width, double height) {
-        leftPaddleCenter = new Vector2D(0, height / 2);
-        leftPaddleVelocity = Vector2D.ZERO;
-        rightPaddleCenter = new Vector2D(width, height / 2);
-        rightPaddleVelocity = Vector2D.ZERO;
+        this(width, height, System.nanoTime() * SplitMix64.GAMMA);
+    }
+
+    /**
+     * Creates a new Pong game whose serves are generated from the given seed.
+     * Two games with the same seed, settings and inputs play out identically.
+     *
+     * @param width
+     *            The total width of the playing field
+     * @param height
+     *            The total height of the playing field.
+     * @param seed
+     *            Used to pick the direction of every serve
+     */
+    public PongGame(double width, double height, long seed) {
+        this.seed = seed;
+        random = new SplitMix64(seed);
+        leftPaddleY = height / 2;
+        leftPaddleVY = 0;
+        rightPaddleY = height / 2;
+        rightPaddleVY = 0;
 
         fieldWidth = width;
         fieldHeight = height;
@@ -92,14 +165,162 @@ public class PongGame {
         serve();
     }
 
+    /**
+     * Creates an exact copy of a game, including its serve sequence,
+     * statistics and parameters. The copy evolves independently of the
+     * original.
+     *
+     * @param other
+     */
+    public PongGame(PongGame other) {
+        seed = other.seed;
+        random = new SplitMix64(0);
+        final long[] state = new long[SNAPSHOT_SIZE];
+        other.save(state, 0);
+        restore(state, 0);
+    }
+
+    /**
+     * Forks this game into a number of independent copies, for example to
+     * explore different moves from the same position in parallel.
+     *
+     * @param copies
+     * @return The copies
+     */
+    public PongGame[] fork(int copies) {
+        final PongGame[] games = new PongGame[copies];
+        for (int i = 0; i < copies; i++) {
+            games[i] = new PongGame(this);
+        }
+        return games;
+    }
+
+    /**
+     * Stores the complete state of the game in {@link #SNAPSHOT_SIZE} longs of
+     * an array. Nothing is allocated, so this is cheap enough to call many
+     * times per frame; see {@link SnapshotBuffer} for a reusable store of
+     * snapshots.
+     *
+     * @param target
+     * @param offset
+     *            Where in the array the snapshot starts
+     */
+    public void save(long[] target, int offset) {
+        int i = offset;
+        target[i++] = Double.doubleToRawLongBits(ballX);
+        target[i++] = Double.doubleToRawLongBits(ballY);
+        target[i++] = Double.doubleToRawLongBits(ballVX);
+        target[i++] = Double.doubleToRawLongBits(ballVY);
+        target[i++] = Double.doubleToRawLongBits(leftPaddleY);
+        target[i++] = Double.doubleToRawLongBits(leftPaddleVY);
+        target[i++] = Double.doubleToRawLongBits(rightPaddleY);
+        target[i++] = Double.doubleToRawLongBits(rightPaddleVY);
+        target[i++] = random.getState();
+        target[i++] = frames;
+        target[i++] = leftScore;
+        target[i++] = rightScore;
+        target[i++] = wallBounces;
+        target[i++] = serves;
+        target[i++] = serveFrame;
+        target[i++] = currentRally;
+        target[i++] = longestRally;
+        target[i++] = totalPaddleHits;
+        target[i++] = deadBalls;
+        target[i++] = leftHits;
+        target[i++] = rightHits;
+        target[i++] = Double.doubleToRawLongBits(initialBallSpeed);
+        target[i++] = Double.doubleToRawLongBits(paddleRadius);
+        target[i++] = Double.doubleToRawLongBits(paddleCurvature);
+        target[i++] = Double.doubleToRawLongBits(paddleAcceleration);
+        target[i++] = Double.doubleToRawLongBits(paddleFriction);
+        target[i++] = Double.doubleToRawLongBits(paddleElasticCoefficient);
+        target[i++] = Double.doubleToRawLongBits(spinFactor);
+        target[i++] = Double.doubleToRawLongBits(fieldWidth);
+        target[i++] = Double.doubleToRawLongBits(fieldHeight);
+        target[i] = sweptCollisions ? 1 : 0;
+    }
+
+    /**
+     * Restores the state stored by {@link #save(long[], int)}. The snapshot
+     * may come from another game; only the seed reported by
+     * {@link #getSeed()} is kept.
+     *
+     * @param source
+     * @param offset
+     *            Where in the array the snapshot starts
+     */
+    public void restore(long[] source, int offset) {
+        int i = offset;
+        ballX = Double.longBitsToDouble(source[i++]);
+        ballY = Double.longBitsToDouble(source[i++]);
+        ballVX = Double.longBitsToDouble(source[i++]);
+        ballVY = Double.longBitsToDouble(source[i++]);
+        leftPaddleY = Double.longBitsToDouble(source[i++]);
+        leftPaddleVY = Double.longBitsToDouble(source[i++]);
+        rightPaddleY = Double.longBitsToDouble(source[i++]);
+        rightPaddleVY = Double.longBitsToDouble(source[i++]);
+        random.setState(source[i++]);
+        frames = source[i++];
+        leftScore = (int) source[i++];
+        rightScore = (int) source[i++];
+        wallBounces = (int) source[i++];
+        serves = (int) source[i++];
+        serveFrame = source[i++];
+        currentRally = (int) source[i++];
+        longestRally = (int) source[i++];
+        totalPaddleHits = (int) source[i++];
+        deadBalls = (int) source[i++];
+        leftHits = (int) source[i++];
+        rightHits = (int) source[i++];
+        initialBallSpeed = Double.longBitsToDouble(source[i++]);
+        paddleRadius = Double.longBitsToDouble(source[i++]);
+        paddleCurvature = Double.longBitsToDouble(source[i++]);
+        paddleAcceleration = Double.longBitsToDouble(source[i++]);
+        paddleFriction = Double.longBitsToDouble(source[i++]);
+        paddleElasticCoefficient = Double.longBitsToDouble(source[i++]);
+        spinFactor = Double.longBitsToDouble(source[i++]);
+        fieldWidth = Double.longBitsToDouble(source[i++]);
+        fieldHeight = Double.longBitsToDouble(source[i++]);
+        sweptCollisions = source[i] != 0;
+    }
+
+    /**
+     * Puts the ball at an arbitrary position and velocity, as if it had just
+     * been hit, so tools can explore states that are hard to reach in play.
+     *
+     * @param x
+     * @param y
+     * @param velocityX
+     * @param velocityY
+     */
+    void placeBall(double x, double y, double velocityX, double velocityY) {
+        ballX = x;
+        ballY = y;
+        ballVX = velocityX;
+        ballVY = velocityY;
+        wallBounces = 0;
+    }
+
     /**
      * Places the ball in the middle of the field with a random direction.
      */
     private void serve() {
-        ballPosition = new Vector2D(fieldWidth / 2, fieldHeight / 2);
-        ballVelocity = (new Vector2D(10 * Math.random() - 5, 2 * Math.random() - 1)).normalize()
-                .scalarMultiply(initialBallSpeed);
+        ballX = fieldWidth / 2;
+        ballY = fieldHeight / 2;
+        final double x = 10 * random.nextDouble() - 5;
+        final double y = 2 * random.nextDouble() - 1;
+        final double inverseNorm = 1 / Math.sqrt(x * x + y * y);
+        ballVX = x * inverseNorm * initialBallSpeed;
+        ballVY = y * inverseNorm * initialBallSpeed;
         currentRally = 0;
+        serves++;
+        if (flightEvents) {
+            GameEvents.serve(frames, serves, ballVX, ballVY);
+        }
+        if (listener != null) {
+            listener.serve(frames, serves, ballVX, ballVY);
+        }
+        serveFrame = frames;
     }
 
     /**
@@ -112,50 +333,258 @@ public class PongGame {
         // To prevent bouncing around forever
         if (wallBounces >= maxWallBounces) {
             deadBalls++;
+            if (flightEvents) {
+                GameEvents.deadBall(frames, wallBounces);
+            }
+            if (listener != null) {
+                listener.deadBall(frames, wallBounces);
+            }
             wallBounces = 0;
             serve();
         }
-        leftPaddleVelocity = acceleratePaddle(leftPaddleVelocity, leftPaddleCenter, leftMove);
-        rightPaddleVelocity = acceleratePaddle(rightPaddleVelocity, rightPaddleCenter, rightMove);
-        leftPaddleCenter = movePaddle(leftPaddleCenter, leftPaddleVelocity);
-        rightPaddleCenter = movePaddle(rightPaddleCenter, rightPaddleVelocity);
+        stepPaddles(leftMove, rightMove);
         moveBall();
         checkScore();
+        frames++;
+    }
+
+    /**
+     * Plays up to the given number of frames with constant inputs. The result,
+     * including every statistic and the frame count, is exactly the same as
+     * calling {@link #nextFrame(int, int)} that many times, so recorded
+     * matches can be replayed with it; see
+     * {@link #fastForward(int, int, long, boolean)}.
+     *
+     * @param leftMove
+     * @param rightMove
+     * @param maxFrames
+     * @return The number of frames played
+     */
+    public long fastForward(int leftMove, int rightMove, long maxFrames) {
+        return fastForward(leftMove, rightMove, maxFrames, true);
+    }
+
+    /**
+     * Plays up to the given number of frames with constant inputs, jumping
+     * from one event to the next. The number of frames until the ball next
+     * reaches a wall, a paddle's line or a goal line is computed in closed
+     * form, and the ball is moved there without any collision or score
+     * checks. The frame with the event is then played by
+     * {@link #nextFrame(int, int)}, whose swept checks, when enabled, catch a
+     * ball of any speed. The frame count, scores, serves, hits and every
+     * event come out as if every frame had been played.
+     *
+     * An exact fast-forward still adds the ball's velocity once per skipped
+     * frame, as {@link #nextFrame(int, int)} does, and plays the paddles
+     * frame by frame until they come to a complete stop, so that the result
+     * is the same bit for bit. That saves the checks of every frame, but
+     * still takes time in proportion to the number of frames.
+     *
+     * Otherwise, once the paddles no longer move, the ball is moved by the
+     * whole stretch in one step and the paddles' velocities decay by the
+     * whole stretch at once, so every stretch costs the same however long it
+     * is. Those products round differently from repeated additions, so the
+     * positions differ from {@link #nextFrame(int, int)} in their last bits,
+     * and the rest of the match can play out differently; use it for
+     * simulations, not to replay recordings.
+     *
+     * @param leftMove
+     * @param rightMove
+     * @param maxFrames
+     * @param exact
+     *            Whether the result must be the same as
+     *            {@link #nextFrame(int, int)} bit for bit
+     * @return The number of frames played
+     */
+    public long fastForward(int leftMove, int rightMove, long maxFrames, boolean exact) {
+        long played = 0;
+        while (played < maxFrames) {
+            final long quiet = Math.min(quietFrames(), maxFrames - played);
+            if (exact) {
+                stepQuiet(leftMove, rightMove, quiet);
+            } else {
+                leapQuiet(leftMove, rightMove, quiet);
+            }
+            frames += quiet;
+            played += quiet;
+            // The next frame has an event, or might have one
+            if (played < maxFrames) {
+                nextFrame(leftMove, rightMove);
+                played++;
+            }
+        }
+        return played;
+    }
+
+    /**
+     * Plays frames without events one at a time, exactly as
+     * {@link #nextFrame(int, int)} would, but without its checks. Does not
+     * count the frames.
+     *
+     * @param leftMove
+     * @param rightMove
+     * @param quiet
+     *            Frames certain to have no event
+     */
+    private void stepQuiet(int leftMove, int rightMove, long quiet) {
+        long i = 0;
+        boolean settled = false;
+        while (i < quiet && !settled) {
+            final double leftY = leftPaddleY;
+            final double leftVY = leftPaddleVY;
+            final double rightY = rightPaddleY;
+            final double rightVY = rightPaddleVY;
+            stepPaddles(leftMove, rightMove);
+            ballX += ballVX;
+            ballY += ballVY;
+            i++;
+            // With constant inputs, a paddle state that did not change
+            // will never change again
+            settled = leftY == leftPaddleY && leftVY == leftPaddleVY && rightY == rightPaddleY
+                    && rightVY == rightPaddleVY;
+        }
+        for (; i < quiet; i++) {
+            ballX += ballVX;
+            ballY += ballVY;
+        }
     }
 
     /**
-     * Changes a paddle's velocity given the user's move, and what paddle is
-     * meant to move.
+     * Plays frames without events frame by frame until both paddles have
+     * stopped moving, and the rest of them in one step. Does not count the
+     * frames.
+     *
+     * @param leftMove
+     * @param rightMove
+     * @param quiet
+     *            Frames certain to have no event
+     */
+    private void leapQuiet(int leftMove, int rightMove, long quiet) {
+        long i = 0;
+        boolean settled = false;
+        while (i < quiet && !settled) {
+            final double leftY = leftPaddleY;
+            final double rightY = rightPaddleY;
+            stepPaddles(leftMove, rightMove);
+            ballX += ballVX;
+            ballY += ballVY;
+            i++;
+            settled = paddleSettled(leftY, leftPaddleY, leftPaddleVY, leftMove)
+                    && paddleSettled(rightY, rightPaddleY, rightPaddleVY, rightMove);
+        }
+        final long rest = quiet - i;
+        if (rest > 0) {
+            ballX += rest * ballVX;
+            ballY += rest * ballVY;
+            // A settled paddle only slows down by its friction every frame
+            final double decay = Math.pow(1 - paddleFriction, rest);
+            leftPaddleVY *= decay;
+            rightPaddleVY *= decay;
+        }
+    }
+
+    /**
+     * Moves both paddles by one frame.
+     *
+     * @param leftMove
+     * @param rightMove
+     */
+    private void stepPaddles(int leftMove, int rightMove) {
+        leftPaddleVY = acceleratePaddle(leftPaddleVY, leftPaddleY, leftMove);
+        rightPaddleVY = acceleratePaddle(rightPaddleVY, rightPaddleY, rightMove);
+        leftPaddleY = movePaddle(leftPaddleY, leftPaddleVY);
+        rightPaddleY = movePaddle(rightPaddleY, rightPaddleVY);
+    }
+
+    /**
+     * Checks whether a paddle that has just been moved will stay where it is
+     * with a constant input, its velocity only decaying by friction: an idle
+     * paddle that has become too slow to change its position, or a paddle
+     * pushed against the border it is held towards.
+     *
+     * @param before
+     *            The paddle's position before the move
+     * @param position
+     * @param velocity
+     * @param move
+     * @return Whether the paddle will not move again
+     */
+    private boolean paddleSettled(double before, double position, double velocity, int move) {
+        if (move == 0) {
+            return position == before;
+        }
+        final boolean atBorder = move == -1 ? position <= paddleRadius : position >= fieldHeight - paddleRadius;
+        return atBorder && velocity * move >= 0;
+    }
+
+    /**
+     * Computes how many of the next frames are certain to have no event: no
+     * dead ball, wall bounce, paddle check or goal. That is the case while the
+     * ball is strictly inside the field.
+     *
+     * @return
+     */
+    private long quietFrames() {
+        if (wallBounces >= maxWallBounces) {
+            return 0;
+        }
+        return Math.min(MAX_LEAP, Math.min(framesInside(ballX, ballVX, fieldWidth),
+                framesInside(ballY, ballVY, fieldHeight)));
+    }
+
+    /**
+     * Computes how many frames a position moving at a constant velocity stays
+     * strictly between 0 and the limit, with a margin for rounding errors.
+     *
+     * @param position
+     * @param velocity
+     * @param limit
+     * @return
+     */
+    private static long framesInside(double position, double velocity, double limit) {
+        final double margin = 1e-6 * Math.max(1, limit);
+        if (position <= margin || position >= limit - margin) {
+            return 0;
+        }
+        if (velocity == 0) {
+            return Long.MAX_VALUE;
+        }
+        final double distance = velocity > 0 ? limit - margin - position : margin - position;
+        return (long) Math.floor(distance / velocity);
+    }
+
+    /**
+     * Changes a paddle's vertical velocity given the user's move, and what
+     * paddle is meant to move.
      *
      * @param velocity
      * @param position
      * @param move
      * @return
      */
-    private Vector2D acceleratePaddle(Vector2D velocity, Vector2D position, int move) {
-        boolean atBorder = position.getY() <= paddleRadius && move == -1
-                || position.getY() >= fieldHeight - paddleRadius && move == 1;
+    private double acceleratePaddle(double velocity, double position, int move) {
+        boolean atBorder = position <= paddleRadius && move == -1
+                || position >= fieldHeight - paddleRadius && move == 1;
         if (move == 0 || atBorder) {
-            return velocity.scalarMultiply(1 - paddleFriction);
+            return velocity * (1 - paddleFriction);
         } else {
-            Vector2D deltaV = new Vector2D(0, move * paddleAcceleration);
-            return velocity.add(deltaV);
+            return velocity + move * paddleAcceleration;
         }
     }
 
     /**
-     * Moves paddles and clips their location.
+     * Moves paddles and clips their vertical location.
      *
      * @param center
      * @param velocity
      * @return
      */
-    private Vector2D movePaddle(Vector2D center, Vector2D velocity) {
-        Vector2D location = center.add(velocity);
-        if (location.getY() < paddleRadius) {
-            location = new Vector2D(center.getX(), paddleRadius);
-        } else if (location.getY() > fieldHeight - paddleRadius) {
-            location = new Vector2D(center.getX(), fieldHeight - paddleRadius);
+    private double movePaddle(double center, double velocity) {
+        double location = center + velocity;
+        if (location < paddleRadius) {
+            location = paddleRadius;
+        } else if (location > fieldHeight - paddleRadius) {
+            location = fieldHeight - paddleRadius;
         }
         return location;
     }
@@ -164,55 +593,158 @@ public class PongGame {
      * Moves and bounces the ball against the paddles and side walls.
      */
     private void moveBall() {
-        Vector2D normal = null;
-        double speedMultiplier = 1;
-        if (ballPosition.getY() <= 0) {
+        if (ballY <= 0) {
             wallBounces++;
-            normal = new Vector2D(0, -1);
-        } else if (ballPosition.getY() >= fieldHeight) {
+            reflectBall(0, -1, 1);
+            if (flightEvents) {
+                GameEvents.wallBounce(frames, true, wallBounces);
+            }
+            if (listener != null) {
+                listener.wallBounce(frames, true, wallBounces);
+            }
+        } else if (ballY >= fieldHeight) {
             wallBounces++;
-            normal = new Vector2D(0, 1);
-        } else if ((ballPosition.getX() <= 0) && (ballPosition.getY() >= leftPaddleCenter.getY() - paddleRadius)
-                && (ballPosition.getY() <= leftPaddleCenter.getY() + paddleRadius)) {
-            wallBounces = 0;
+            reflectBall(0, 1, 1);
+            if (flightEvents) {
+                GameEvents.wallBounce(frames, false, wallBounces);
+            }
+            if (listener != null) {
+                listener.wallBounce(frames, false, wallBounces);
+            }
+        } else if ((ballX <= 0) && onPaddle(ballY, leftPaddleY)) {
+            hitPaddle(true);
+        } else if ((ballX >= fieldWidth) && onPaddle(ballY, rightPaddleY)) {
+            hitPaddle(false);
+        } else if (sweptCollisions) {
+            // After a bounce the rest of the frame may cross another wall
+            // or paddle
+            int swept = 0;
+            while (swept < MAX_SWEPT_EVENTS && sweep()) {
+                swept++;
+            }
+        }
+        ballX += ballVX;
+        ballY += ballVY;
+    }
+
+    /**
+     * @param y
+     * @param paddleY
+     * @return Whether the given height is covered by a paddle.
+     */
+    private boolean onPaddle(double y, double paddleY) {
+        return (y >= paddleY - paddleRadius) && (y <= paddleY + paddleRadius);
+    }
+
+    /**
+     * Bounces the ball off a paddle, at the ball's current height.
+     *
+     * @param left
+     *            Whether it is the left paddle
+     */
+    private void hitPaddle(boolean left) {
+        wallBounces = 0;
+        currentRally++;
+        final double paddleY;
+        final double paddleVY;
+        if (left) {
             leftHits++;
-            currentRally++;
-            ballPosition = new Vector2D(0, ballPosition.getY());
-            final double distanceFromCenter = ballPosition.getY() - leftPaddleCenter.getY();
-            final double spin = leftPaddleVelocity.getY() * spinFactor;
-            speedMultiplier = paddleElasticCoefficient;
-            normal = new Vector2D(1, distanceFromCenter * paddleCurvature + spin).normalize();
-        } else if ((ballPosition.getX() >= fieldWidth)
-                && (ballPosition.getY() >= rightPaddleCenter.getY() - paddleRadius)
-                && (ballPosition.getY() <= rightPaddleCenter.getY() + paddleRadius)) {
-            wallBounces = 0;
+            ballX = 0;
+            paddleY = leftPaddleY;
+            paddleVY = leftPaddleVY;
+        } else {
             rightHits++;
-            currentRally++;
-            ballPosition = new Vector2D(fieldWidth, ballPosition.getY());
-            final double distanceFromCenter = ballPosition.getY() - rightPaddleCenter.getY();
-            final double spin = rightPaddleVelocity.getY() * spinFactor;
-            speedMultiplier = paddleElasticCoefficient;
-            normal = new Vector2D(-1, distanceFromCenter * paddleCurvature + spin).normalize();
+            ballX = fieldWidth;
+            paddleY = rightPaddleY;
+            paddleVY = rightPaddleVY;
+        }
+        final double distanceFromCenter = ballY - paddleY;
+        final double spin = paddleVY * spinFactor;
+        final double normalY = distanceFromCenter * paddleCurvature + spin;
+        final double inverseNorm = 1 / Math.sqrt(1 + normalY * normalY);
+        reflectBall(left ? inverseNorm : -inverseNorm, normalY * inverseNorm, paddleElasticCoefficient);
+        if (flightEvents) {
+            GameEvents.paddleHit(frames, left, distanceFromCenter, ballVX, ballVY, currentRally);
+        }
+        if (listener != null) {
+            listener.paddleHit(frames, left, distanceFromCenter, ballVX, ballVY, currentRally);
         }
-        if (normal != null) {
-            ballVelocity = reflect(ballVelocity, normal);
-            ballVelocity = ballVelocity.scalarMultiply(speedMultiplier);
+        if (statistics != null) {
+            statistics.hit(ballVX, ballVY, distanceFromCenter);
         }
-        ballPosition = ballPosition.add(ballVelocity);
     }
 
     /**
-     * Reflects the vector vec along a given normal. The reflected ray's
-     * magnitude will increase if the normal's magnitude is greater than 1.
+     * A fast ball can pass a wall or a paddle's line between two frames, and
+     * one faster than the scoring margin can go from inside the field to past
+     * the scoring line, so the per-frame checks never see it. This sweeps the
+     * ball's path for this frame and handles the first wall or paddle it
+     * crosses at the point where it crosses it.
      *
-     * @param vec
-     * @param normal
-     * @return
+     * @return Whether the ball crossed a wall or a paddle
+     */
+    private boolean sweep() {
+        final double nextX = ballX + ballVX;
+        final double nextY = ballY + ballVY;
+        // Fraction of the frame at which the first crossing happens, and what
+        // is crossed: 1 and 2 for the top and bottom walls, 3 and 4 for the
+        // left and right paddles
+        double first = Double.POSITIVE_INFINITY;
+        int event = 0;
+        if (ballY > 0 && nextY <= 0) {
+            first = ballY / -ballVY;
+            event = 1;
+        } else if (ballY < fieldHeight && nextY >= fieldHeight) {
+            first = (fieldHeight - ballY) / ballVY;
+            event = 2;
+        }
+        if (ballX > 0 && nextX <= 0) {
+            final double t = ballX / -ballVX;
+            if (t < first && onPaddle(ballY + t * ballVY, leftPaddleY)) {
+                first = t;
+                event = 3;
+            }
+        } else if (ballX < fieldWidth && nextX >= fieldWidth) {
+            final double t = (fieldWidth - ballX) / ballVX;
+            if (t < first && onPaddle(ballY + t * ballVY, rightPaddleY)) {
+                first = t;
+                event = 4;
+            }
+        }
+        if (event == 0) {
+            return false;
+        }
+        ballX += first * ballVX;
+        ballY += first * ballVY;
+        if (event <= 2) {
+            final boolean top = event == 1;
+            ballY = top ? 0 : fieldHeight;
+            wallBounces++;
+            reflectBall(0, top ? -1 : 1, 1);
+            if (flightEvents) {
+                GameEvents.wallBounce(frames, top, wallBounces);
+            }
+            if (listener != null) {
+                listener.wallBounce(frames, top, wallBounces);
+            }
+        } else {
+            hitPaddle(event == 3);
+        }
+        return true;
+    }
+
+    /**
+     * Reflects the ball's velocity in place along a given unit normal, and then
+     * scales it by the speed multiplier.
+     *
+     * @param normalX
+     * @param normalY
+     * @param speedMultiplier
      */
-    private Vector2D reflect(Vector2D vec, Vector2D normal) {
-        final double height = normal.dotProduct(vec);
-        final Vector2D difference = normal.scalarMultiply(2 * height);
-        return vec.subtract(difference);
+    private void reflectBall(double normalX, double normalY, double speedMultiplier) {
+        final double height = 2 * (normalX * ballVX + normalY * ballVY);
+        ballVX = (ballVX - normalX * height) * speedMultiplier;
+        ballVY = (ballVY - normalY * height) * speedMultiplier;
     }
 
     /**
@@ -220,16 +752,25 @@ public class PongGame {
      * serve the ball again.
      */
     private void checkScore() {
-        if (ballPosition.getX() <= -10 || ballPosition.getX() >= fieldWidth + 10) {
-            if (ballPosition.getX() <= -10) {
-                rightScore.set(getRightScore() + 1);
+        if (ballX <= -10 || ballX >= fieldWidth + 10) {
+            if (ballX <= -10) {
+                rightScore++;
             } else {
-                leftScore.set(getLeftScore() + 1);
+                leftScore++;
             }
             if (currentRally > longestRally) {
                 longestRally = currentRally;
             }
             totalPaddleHits += currentRally;
+            if (flightEvents) {
+                GameEvents.goal(frames, ballX > 0, leftScore, rightScore, currentRally);
+            }
+            if (listener != null) {
+                listener.goal(frames, ballX > 0, leftScore, rightScore, currentRally);
+            }
+            if (statistics != null) {
+                statistics.point(currentRally, frames - serveFrame);
+            }
             serve();
         }
     }
@@ -238,74 +779,116 @@ public class PongGame {
      * @return The left player's score.
      */
     public int getLeftScore() {
-        return leftScore.get();
+        return leftScore;
     }
 
     /**
      * @return The right player's score.
      */
     public int getRightScore() {
-        return rightScore.get();
-    }
-
-    /**
-     * @return A Property containing the left player's score.
-     */
-    public IntegerProperty leftScoreProperty() {
-        return leftScore;
-    }
-
-    /**
-     * @return A Property containing the right player's score.
-     */
-    public IntegerProperty rightScoreProperty() {
         return rightScore;
     }
 
     /**
-     * @return A {@link Vector2D} representing the ball's current position.
+     * @return A new {@link Vector2D} representing the ball's current position.
      */
     public Vector2D getBallPosition() {
-        return ballPosition;
+        return new Vector2D(ballX, ballY);
     }
 
     /**
-     * @return A {@link Vector2D} representing the ball's current velocity.
+     * @return A new {@link Vector2D} representing the ball's current velocity.
      */
     public Vector2D getBallVelocity() {
-        return ballVelocity;
+        return new Vector2D(ballVX, ballVY);
     }
 
     /**
-     * @return A {@link Vector2D} representing the left paddle's current
+     * @return A new {@link Vector2D} representing the left paddle's current
      *         position.
      */
     public Vector2D getLeftPaddleCenter() {
-        return leftPaddleCenter;
+        return new Vector2D(0, leftPaddleY);
     }
 
     /**
-     * @return A {@link Vector2D} representing the left paddle's current
+     * @return A new {@link Vector2D} representing the left paddle's current
      *         velocity.
      */
     public Vector2D getLeftPaddleVelocity() {
-        return leftPaddleVelocity;
+        return new Vector2D(0, leftPaddleVY);
     }
 
     /**
-     * @return A {@link Vector2D} representing the right paddle's current
+     * @return A new {@link Vector2D} representing the right paddle's current
      *         position.
      */
     public Vector2D getRightPaddleCenter() {
-        return rightPaddleCenter;
+        return new Vector2D(fieldWidth, rightPaddleY);
     }
 
     /**
-     * @return A {@link Vector2D} representing the right paddle's current
+     * @return A new {@link Vector2D} representing the right paddle's current
      *         velocity.
      */
     public Vector2D getRightPaddleVelocity() {
-        return rightPaddleVelocity;
+        return new Vector2D(0, rightPaddleVY);
+    }
+
+    /**
+     * @return The ball's current x position.
+     */
+    public double getBallX() {
+        return ballX;
+    }
+
+    /**
+     * @return The ball's current y position.
+     */
+    public double getBallY() {
+        return ballY;
+    }
+
+    /**
+     * @return The ball's current x velocity.
+     */
+    public double getBallVelocityX() {
+        return ballVX;
+    }
+
+    /**
+     * @return The ball's current y velocity.
+     */
+    public double getBallVelocityY() {
+        return ballVY;
+    }
+
+    /**
+     * @return The y position of the left paddle's center.
+     */
+    public double getLeftPaddleY() {
+        return leftPaddleY;
+    }
+
+    /**
+     * @return The y velocity of the left paddle.
+     */
+    public double getLeftPaddleVelocityY() {
+        return leftPaddleVY;
+    }
+
+    /**
+     * @return The y position of the right paddle's center.
+     */
+    public double getRightPaddleY() {
+        return rightPaddleY;
+    }
+
+    /**
+     * @return The y velocity of the right paddle.
+     */
+    public double getRightPaddleVelocityY() {
+        return rightPaddleVY;
     }
 
     /**
@@ -329,6 +912,70 @@ public class PongGame {
         return fieldHeight;
     }
 
+    /**
+     * @return How much the paddle curves and deflects a ball by.
+     */
+    public double getPaddleCurvature() {
+        return paddleCurvature;
+    }
+
+    /**
+     * @return The rate at which the paddle responds to player input.
+     */
+    public double getPaddleAcceleration() {
+        return paddleAcceleration;
+    }
+
+    /**
+     * @return The rate at which the paddle slows down without input.
+     */
+    public double getPaddleFriction() {
+        return paddleFriction;
+    }
+
+    /**
+     * @return How much the paddle's movement affects a bouncing ball.
+     */
+    public double getSpinFactor() {
+        return spinFactor;
+    }
+
+    /**
+     * @return The speed increase of the ball when it bounces with the paddle.
+     */
+    public double getElasticCoefficient() {
+        return paddleElasticCoefficient;
+    }
+
+    /**
+     * @return The initial speed of the ball when served.
+     */
+    public double getInitialSpeed() {
+        return initialBallSpeed;
+    }
+
+    /**
+     * @return Whether fast balls are checked against the paddles along their
+     *         path.
+     */
+    public boolean isSweptCollisions() {
+        return sweptCollisions;
+    }
+
+    /**
+     * @return Whether gameplay events are sent to the flight recorder.
+     */
+    public boolean isFlightEvents() {
+        return flightEvents;
+    }
+
+    /**
+     * @return The statistics being recorded, or null.
+     */
+    public MatchStatistics getStatistics() {
+        return statistics;
+    }
+
     /**
      * Set the size of the game paddle
      *
@@ -411,10 +1058,12 @@ public class PongGame {
     }
 
     /**
-     * @return The average number of balls returned per point
+     * @return The average number of balls returned per point, or 0 before
+     *         the first point
      */
     public double getAverageRally() {
-        return totalPaddleHits / (leftScore.get() + rightScore.get());
+        final int points = leftScore + rightScore;
+        return points == 0 ? 0 : (double) totalPaddleHits / points;
     }
 
     /**
@@ -431,4 +1080,178 @@ public class PongGame {
         return rightHits;
     }
 
+    /**
+     * @return The seed the serves are generated from.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return The number of times the ball was served, including the first
+     *         serve. Each serve starts a new rally.
+     */
+    public int getServes() {
+        return serves;
+    }
+
+    /**
+     * @return The number of frames played so far.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Check the ball's path during every frame against the walls and the
+     * paddles, and bounce it where it crosses them, so that a ball of any
+     * speed can not skip past a wall or a paddle. Off by default, which keeps
+     * the original per-frame collision rules, in which the ball bounces on
+     * the frame after it crossed.
+     *
+     * @param swept
+     */
+    public void setSweptCollisions(boolean swept) {
+        sweptCollisions = swept;
+    }
+
+    /**
+     * Send paddle hits, wall bounces, dead balls, serves and goals to the Java
+     * Flight Recorder as {@link GameEvents}. Off by default, so copies of a
+     * game used for searches and simulations never flood a recording; it is
+     * not copied by {@link #PongGame(PongGame)} nor part of a snapshot.
+     *
+     * @param enabled
+     */
+    public void setFlightEvents(boolean enabled) {
+        flightEvents = enabled;
+    }
+
+    /**
+     * Tell a listener about every goal, paddle hit, wall bounce, serve and
+     * dead ball from now on. It is called on the thread playing the game;
+     * listeners are neither copied by {@link #PongGame(PongGame)} nor part of
+     * a snapshot.
+     *
+     * @param added
+     */
+    public void addListener(GameListener added) {
+        final GameListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[listeners.length] = added;
+        setListeners(grown);
+    }
+
+    /**
+     * Stop telling a listener about events.
+     *
+     * @param removed
+     */
+    public void removeListener(GameListener removed) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == removed) {
+                final GameListener[] shrunk = new GameListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, shrunk, 0, i);
+                System.arraycopy(listeners, i + 1, shrunk, i, shrunk.length - i);
+                setListeners(shrunk);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replaces the listeners, and picks where events are sent.
+     *
+     * @param listeners
+     */
+    private void setListeners(GameListener[] listeners) {
+        this.listeners = listeners;
+        if (listeners.length == 0) {
+            listener = null;
+        } else if (listeners.length == 1) {
+            listener = listeners[0];
+        } else {
+            listener = new ListenerGroup(listeners);
+        }
+    }
+
+    /**
+     * @return Where events are sent, combining every listener, or null.
+     */
+    GameListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Sends events to a listener returned by {@link #getListener()} instead
+     * of the listeners added, for instance to silence them for a while.
+     *
+     * @param listener
+     *            The listener, or null
+     */
+    void setListener(GameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sends every event to a fixed group of listeners, in order.
+     */
+    private static final class ListenerGroup implements GameListener {
+
+        private final GameListener[] listeners;
+
+        ListenerGroup(GameListener[] listeners) {
+            this.listeners = listeners;
+        }
+
+        @Override
+        public void goal(long frame, boolean left, int leftScore, int rightScore, int rally) {
+            for (GameListener listener : listeners) {
+                listener.goal(frame, left, leftScore, rightScore, rally);
+            }
+        }
+
+        @Override
+        public void paddleHit(long frame, boolean left, double offset, double ballVX, double ballVY, int rally) {
+            for (GameListener listener : listeners) {
+                listener.paddleHit(frame, left, offset, ballVX, ballVY, rally);
+            }
+        }
+
+        @Override
+        public void wallBounce(long frame, boolean top, int bounces) {
+            for (GameListener listener : listeners) {
+                listener.wallBounce(frame, top, bounces);
+            }
+        }
+
+        @Override
+        public void serve(long frame, int serve, double velocityX, double velocityY) {
+            for (GameListener listener : listeners) {
+                listener.serve(frame, serve, velocityX, velocityY);
+            }
+        }
+
+        @Override
+        public void deadBall(long frame, int bounces) {
+            for (GameListener listener : listeners) {
+                listener.deadBall(frame, bounces);
+            }
+        }
+    }
+
+    /**
+     * Record the distributions of rallies, hits and points from now on. Like
+     * flight events, the statistics are neither copied by
+     * {@link #PongGame(PongGame)} nor part of a snapshot. A game played
+     * through a {@link RollbackSession} records them on the session's
+     * confirmed game, so frames played with wrong predictions are not
+     * counted.
+     *
+     * @param statistics
+     *            The statistics to record into, or null to stop recording
+     */
+    public void setStatistics(MatchStatistics statistics) {
+        this.statistics = statistics;
+    }
+
 }
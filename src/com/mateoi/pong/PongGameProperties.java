@@ -0,0 +1,74 @@
+package com.mateoi.pong;
+
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+
+/**
+ * Adapter that exposes the scores of a {@link PongGame} as JavaFX properties.
+ * The game itself knows nothing about JavaFX, so the properties are only
+ * refreshed when {@link #update()} is called.
+ *
+ * @author mateo
+ */
+public class PongGameProperties {
+
+    /** The game being observed */
+    private final PongGame game;
+    /** Left player's score */
+    private final IntegerProperty leftScore = new SimpleIntegerProperty(0);
+    /** Right player's score */
+    private final IntegerProperty rightScore = new SimpleIntegerProperty(0);
+
+    /**
+     * Creates a new adapter for the given game.
+     *
+     * @param game
+     */
+    public PongGameProperties(PongGame game) {
+        this.game = game;
+        update();
+    }
+
+    /**
+     * Copies the current scores from the game into the properties. Listeners
+     * are only notified if a score actually changed.
+     */
+    public void update() {
+        update(game.getLeftScore(), game.getRightScore());
+    }
+
+    /**
+     * Sets the scores from values read elsewhere, for instance from a state
+     * published by a {@link SimulationThread}, when the game is not safe to
+     * read from this thread.
+     *
+     * @param left
+     * @param right
+     */
+    public void update(int left, int right) {
+        leftScore.set(left);
+        rightScore.set(right);
+    }
+
+    /**
+     * @return The game being observed.
+     */
+    public PongGame getGame() {
+        return game;
+    }
+
+    /**
+     * @return A Property containing the left player's score.
+     */
+    public ReadOnlyIntegerProperty leftScoreProperty() {
+        return leftScore;
+    }
+
+    /**
+     * @return A Property containing the right player's score.
+     */
+    public ReadOnlyIntegerProperty rightScoreProperty() {
+        return rightScore;
+    }
+}
@@ -0,0 +1,107 @@
+package com.mateoi.pong;
+
+/**
+ * The part of a game's state that is needed to draw a frame. Renderers fill
+ * one of these from the game, or from a state published by another thread,
+ * and reuse it every frame.
+ *
+ * @author mateo
+ */
+public class RenderState {
+
+    /** X position of the ball */
+    private double ballX;
+    /** Y position of the ball */
+    private double ballY;
+    /** Y position of the left paddle's center */
+    private double leftPaddleY;
+    /** Y position of the right paddle's center */
+    private double rightPaddleY;
+    /** Left player's score */
+    private int leftScore;
+    /** Right player's score */
+    private int rightScore;
+    /** Number of frames played in this state */
+    private long frame;
+
+    /**
+     * Copies the current state of the game.
+     *
+     * @param game
+     */
+    public void copyFrom(PongGame game) {
+        set(game.getBallX(), game.getBallY(), game.getLeftPaddleY(), game.getRightPaddleY(), game.getLeftScore(),
+                game.getRightScore(), game.getFrames());
+    }
+
+    /**
+     * Sets every value at once.
+     *
+     * @param ballX
+     * @param ballY
+     * @param leftPaddleY
+     * @param rightPaddleY
+     * @param leftScore
+     * @param rightScore
+     * @param frame
+     */
+    void set(double ballX, double ballY, double leftPaddleY, double rightPaddleY, int leftScore, int rightScore,
+            long frame) {
+        this.ballX = ballX;
+        this.ballY = ballY;
+        this.leftPaddleY = leftPaddleY;
+        this.rightPaddleY = rightPaddleY;
+        this.leftScore = leftScore;
+        this.rightScore = rightScore;
+        this.frame = frame;
+    }
+
+    /**
+     * @return The ball's x position.
+     */
+    public double getBallX() {
+        return ballX;
+    }
+
+    /**
+     * @return The ball's y position.
+     */
+    public double getBallY() {
+        return ballY;
+    }
+
+    /**
+     * @return The y position of the left paddle's center.
+     */
+    public double getLeftPaddleY() {
+        return leftPaddleY;
+    }
+
+    /**
+     * @return The y position of the right paddle's center.
+     */
+    public double getRightPaddleY() {
+        return rightPaddleY;
+    }
+
+    /**
+     * @return The left player's score.
+     */
+    public int getLeftScore() {
+        return leftScore;
+    }
+
+    /**
+     * @return The right player's score.
+     */
+    public int getRightScore() {
+        return rightScore;
+    }
+
+    /**
+     * @return The number of frames played in this state.
+     */
+    public long getFrame() {
+        return frame;
+    }
+}
@@ -0,0 +1,455 @@
+package com.mateoi.pong;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Plays a game against a peer on another machine with rollback netcode. Both
+ * peers simulate the whole game from the same seed and settings, and only
+ * exchange their moves.
+ *
+ * The local player's moves are applied immediately. The peer's moves are
+ * predicted to repeat the last one received until the real ones arrive; if a
+ * prediction turns out wrong, the game is restored to the snapshot of the
+ * first mispredicted frame and re-simulated up to the present. Every packet
+ * carries all the local moves the peer has not yet acknowledged, so a lost
+ * packet is made up for by the next one.
+ *
+ * The session plugs into any game loop through two {@link Player}s: the local
+ * one, which wraps the player at the keyboard, and the remote one, which is
+ * fed by the network. Rollbacks happen inside their {@link Player#move}
+ * calls, before the frame is played. The game loop must call
+ * {@link #canAdvance()} before every frame and skip the frame when it returns
+ * false, so the loop never blocks while the game is too far ahead of the
+ * peer; {@link #getState()} tells whether the session is waiting for the peer
+ * or has lost it.
+ *
+ * Events of the game describe the frames as they were first played, with
+ * predicted moves, and are not sent again when frames are corrected. A copy of
+ * the game, {@link #getConfirmedGame()}, only plays frames once both players'
+ * moves are known, so its events are never taken back. Statistics set on the
+ * game when the session starts are moved to that copy, so they only count
+ * the real match.
+ *
+ * @author mateo
+ */
+public class RollbackSession {
+
+    /**
+     * What a session is doing, for instance to show it on screen.
+     */
+    public enum State {
+        /** Frames are being played */
+        PLAYING,
+        /** The game is as far ahead of the peer as it can be */
+        WAITING,
+        /** Nothing has arrived from the peer for the stall timeout */
+        LOST
+    }
+
+    /** Identifies the packets of a session */
+    static final int MAGIC = 0x504E474E;
+    /** Most frames the game can run ahead of the peer's last confirmed move */
+    public static final int MAX_ROLLBACK = 60;
+    /** Most moves sent in one packet */
+    private static final int MAX_PACKET_MOVES = 64;
+    /** Moves kept for each side, indexed by frame modulo this */
+    private static final int HISTORY = 256;
+    /** Size of the packet header: magic, first frame, move count and ack */
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 4;
+
+    /** The game being played */
+    private final PongGame game;
+    /** A copy of the game that only plays frames whose moves are all known */
+    private final PongGame confirmedGame;
+    /** Whether the local player is on the left */
+    private final boolean localIsLeft;
+    /** The player at this machine */
+    private final Player localPlayer;
+    /** The connection to the peer */
+    private final Transport transport;
+
+    /** The game before every frame that may still be rolled back */
+    private final SnapshotBuffer snapshots = new SnapshotBuffer(MAX_ROLLBACK + 1);
+    /** Local moves, by frame */
+    private final byte[] localMoves = new byte[HISTORY];
+    /** Remote moves received, by frame */
+    private final byte[] remoteMoves = new byte[HISTORY];
+    /** The frame each entry of the remote moves belongs to, or -1 */
+    private final int[] remoteFrames = new int[HISTORY];
+    /** The remote moves the game was actually simulated with, by frame */
+    private final byte[] usedRemoteMoves = new byte[HISTORY];
+    /** Last frame up to which every remote move has been received */
+    private int confirmedFrame = -1;
+    /** Last frame up to which the peer has received every local move */
+    private int acknowledgedFrame = -1;
+    /** Last frame whose local move has been read */
+    private int preparedFrame = -1;
+
+    /** Buffer the outgoing packets are written to */
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(HEADER_SIZE + MAX_PACKET_MOVES);
+    /** Buffer the incoming packets are read into */
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(1500);
+    /** How long to wait for a peer that has fallen behind */
+    private long stallTimeoutNanos = 5_000_000_000L;
+    /** When the game started waiting for the peer */
+    private long waitingSince;
+    /** What the session is doing; read by other threads to show it */
+    private volatile State state = State.PLAYING;
+
+    // Statistics
+    private long frames = 0;
+    private long rollbacks = 0;
+    private long resimulatedFrames = 0;
+    private int maxRollbackDepth = 0;
+    private long resimulationNanos = 0;
+    private long stalls = 0;
+
+    /**
+     * Creates a new session. Both peers must create their game with the same
+     * seed and settings, and start the session before the first frame.
+     *
+     * @param game
+     * @param localIsLeft
+     *            Whether the local player controls the left paddle
+     * @param localPlayer
+     * @param transport
+     */
+    public RollbackSession(PongGame game, boolean localIsLeft, Player localPlayer, Transport transport) {
+        if (game.getFrames() != 0) {
+            throw new IllegalArgumentException("Session must start before the first frame");
+        }
+        this.game = game;
+        this.localIsLeft = localIsLeft;
+        this.localPlayer = localPlayer;
+        this.transport = transport;
+        confirmedGame = new PongGame(game);
+        confirmedGame.setStatistics(game.getStatistics());
+        game.setStatistics(null);
+        Arrays.fill(remoteFrames, -1);
+    }
+
+    /**
+     * @return The player for the local side of the field.
+     */
+    public Player getLocalPlayer() {
+        return state -> {
+            prepare();
+            return localMoves[frame() % HISTORY];
+        };
+    }
+
+    /**
+     * @return The player for the remote side of the field, fed by the
+     *         network.
+     */
+    public Player getRemotePlayer() {
+        return state -> {
+            prepare();
+            final int frame = frame();
+            final byte move = remoteMove(frame);
+            usedRemoteMoves[frame % HISTORY] = move;
+            return move;
+        };
+    }
+
+    /**
+     * @return The frame about to be played.
+     */
+    private int frame() {
+        return (int) game.getFrames();
+    }
+
+    /**
+     * Gets the frame about to be played ready, once per frame: applies the
+     * moves that have arrived, saves a snapshot, reads the local move and
+     * sends it. Never waits for the peer.
+     */
+    private void prepare() {
+        final int frame = frame();
+        if (preparedFrame == frame) {
+            return;
+        }
+        receive();
+        if (!withinWindow(frame)) {
+            throw new IllegalStateException(
+                    "Frame " + frame + " is too far ahead of the peer; check canAdvance() before every frame");
+        }
+        snapshots.save(frame % snapshots.getCapacity(), game);
+        localMoves[frame % HISTORY] = (byte) localPlayer.move(game);
+        preparedFrame = frame;
+        frames++;
+        advanceConfirmed();
+        send();
+    }
+
+    /**
+     * Plays the confirmed game up to the last frame whose moves are known on
+     * both sides.
+     */
+    private void advanceConfirmed() {
+        final int last = Math.min(confirmedFrame, preparedFrame);
+        for (int frame = (int) confirmedGame.getFrames(); frame <= last; frame++) {
+            final byte remote = remoteMoves[frame % HISTORY];
+            final byte local = localMoves[frame % HISTORY];
+            confirmedGame.nextFrame(localIsLeft ? local : remote, localIsLeft ? remote : local);
+        }
+    }
+
+    /**
+     * Receives the peer's moves and rolls back if any of them differs from
+     * the prediction used, then sends any unacknowledged moves. Call this
+     * between frames while the game is not advancing, so the peer can catch
+     * up.
+     */
+    public void poll() {
+        receive();
+        send();
+    }
+
+    /**
+     * Polls the connection and checks whether the next frame can be played
+     * without waiting for the peer. Never blocks: when it returns false, the
+     * game loop skips the frame and asks again on the next one, and the state
+     * becomes {@link State#WAITING}, or {@link State#LOST} once the peer has
+     * been waited for longer than the stall timeout.
+     *
+     * @return Whether the game is close enough to the peer to advance
+     */
+    public boolean canAdvance() {
+        poll();
+        if (withinWindow(frame())) {
+            state = State.PLAYING;
+            return true;
+        }
+        final long now = System.nanoTime();
+        if (state == State.PLAYING) {
+            stalls++;
+            waitingSince = now;
+            state = State.WAITING;
+        } else if (now - waitingSince > stallTimeoutNanos) {
+            state = State.LOST;
+        }
+        return false;
+    }
+
+    /**
+     * @param frame
+     * @return Whether a frame can be played without losing the ability to roll
+     *         it back.
+     */
+    private boolean withinWindow(int frame) {
+        return frame - confirmedFrame <= MAX_ROLLBACK && frame - acknowledgedFrame <= MAX_PACKET_MOVES;
+    }
+
+    /**
+     * @param frame
+     * @return The remote move for a frame: the real one if it has arrived, or
+     *         else the last one that did.
+     */
+    private byte remoteMove(int frame) {
+        if (frame <= confirmedFrame) {
+            return remoteMoves[frame % HISTORY];
+        }
+        return confirmedFrame < 0 ? 0 : remoteMoves[confirmedFrame % HISTORY];
+    }
+
+    /**
+     * Reads every packet that has arrived, and rolls back to the first frame
+     * that was simulated with a wrong prediction.
+     */
+    private void receive() {
+        final int current = frame();
+        int rollbackFrame = Integer.MAX_VALUE;
+        try {
+            while (transport.receive(receiveBuffer)) {
+                if (receiveBuffer.remaining() < HEADER_SIZE || receiveBuffer.getInt() != MAGIC) {
+                    continue;
+                }
+                final int first = receiveBuffer.getInt();
+                final int count = Math.min(receiveBuffer.get() & 0xFF, receiveBuffer.remaining() - 4);
+                final int ack = receiveBuffer.getInt();
+                acknowledgedFrame = Math.max(acknowledgedFrame, ack);
+                for (int i = 0; i < count; i++) {
+                    final int frame = first + i;
+                    final byte move = receiveBuffer.get();
+                    if (frame > confirmedFrame && frame - confirmedFrame < HISTORY) {
+                        remoteMoves[frame % HISTORY] = move;
+                        remoteFrames[frame % HISTORY] = frame;
+                    }
+                }
+                while (remoteFrames[(confirmedFrame + 1) % HISTORY] == confirmedFrame + 1) {
+                    confirmedFrame++;
+                    final int index = confirmedFrame % HISTORY;
+                    if (confirmedFrame < current && usedRemoteMoves[index] != remoteMoves[index]) {
+                        rollbackFrame = Math.min(rollbackFrame, confirmedFrame);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (rollbackFrame < current) {
+            rollback(rollbackFrame, current);
+        }
+        advanceConfirmed();
+    }
+
+    /**
+     * Restores the game to the given frame and plays it again up to the
+     * present, with the remote moves known now.
+     *
+     * @param from
+     * @param to
+     */
+    private void rollback(int from, int to) {
+        final long start = System.nanoTime();
+        final int capacity = snapshots.getCapacity();
+        // Listeners are told about the frames as first predicted, and not
+        // about them again: the goals and hits of the corrected frames may
+        // differ, so listeners that need the real outcome follow the
+        // confirmed game instead
+        final boolean flightEvents = game.isFlightEvents();
+        final MatchStatistics statistics = game.getStatistics();
+        final GameListener listener = game.getListener();
+        game.setFlightEvents(false);
+        game.setStatistics(null);
+        game.setListener(null);
+        snapshots.restore(from % capacity, game);
+        for (int frame = from; frame < to; frame++) {
+            if (frame > from) {
+                snapshots.save(frame % capacity, game);
+            }
+            final byte remote = remoteMove(frame);
+            final byte local = localMoves[frame % HISTORY];
+            usedRemoteMoves[frame % HISTORY] = remote;
+            game.nextFrame(localIsLeft ? local : remote, localIsLeft ? remote : local);
+        }
+        game.setFlightEvents(flightEvents);
+        game.setStatistics(statistics);
+        game.setListener(listener);
+        final int depth = to - from;
+        rollbacks++;
+        resimulatedFrames += depth;
+        maxRollbackDepth = Math.max(maxRollbackDepth, depth);
+        resimulationNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Sends every local move the peer has not acknowledged, and the last frame
+     * up to which the peer's moves have all been received.
+     */
+    private void send() {
+        final int first = acknowledgedFrame + 1;
+        final int count = Math.max(0, Math.min(MAX_PACKET_MOVES, preparedFrame - acknowledgedFrame));
+        sendBuffer.clear();
+        sendBuffer.putInt(MAGIC);
+        sendBuffer.putInt(first);
+        sendBuffer.put((byte) count);
+        sendBuffer.putInt(confirmedFrame);
+        for (int i = 0; i < count; i++) {
+            sendBuffer.put(localMoves[(first + i) % HISTORY]);
+        }
+        sendBuffer.flip();
+        try {
+            transport.send(sendBuffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Set how long to wait for a peer that has fallen too far behind before
+     * reporting it as lost. The session keeps polling, and goes on playing if
+     * the peer comes back.
+     *
+     * @param stallTimeoutNanos
+     */
+    public void setStallTimeout(long stallTimeoutNanos) {
+        this.stallTimeoutNanos = stallTimeoutNanos;
+    }
+
+    /**
+     * @return A copy of the game that only plays a frame once the moves of
+     *         both players for it are known, up to {@link #MAX_ROLLBACK}
+     *         frames behind the game. Listeners added to it are told about
+     *         every goal, hit and serve of the real match, once.
+     */
+    public PongGame getConfirmedGame() {
+        return confirmedGame;
+    }
+
+    /**
+     * @return The last frame up to which every remote move has been received.
+     */
+    public int getConfirmedFrame() {
+        return confirmedFrame;
+    }
+
+    /**
+     * @return The last frame up to which the peer has received every local
+     *         move.
+     */
+    public int getAcknowledgedFrame() {
+        return acknowledgedFrame;
+    }
+
+    /**
+     * @return The number of frames played.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return The number of rollbacks.
+     */
+    public long getRollbacks() {
+        return rollbacks;
+    }
+
+    /**
+     * @return The most frames re-simulated by a single rollback.
+     */
+    public int getMaxRollbackDepth() {
+        return maxRollbackDepth;
+    }
+
+    /**
+     * @return The average number of frames re-simulated per rollback.
+     */
+    public double getAverageRollbackDepth() {
+        return rollbacks == 0 ? 0 : (double) resimulatedFrames / rollbacks;
+    }
+
+    /**
+     * @return The average number of frames re-simulated per frame played.
+     */
+    public double getResimulatedFramesPerFrame() {
+        return frames == 0 ? 0 : (double) resimulatedFrames / frames;
+    }
+
+    /**
+     * @return The average time spent re-simulating per frame played, in
+     *         nanoseconds.
+     */
+    public double getResimulationNanosPerFrame() {
+        return frames == 0 ? 0 : (double) resimulationNanos / frames;
+    }
+
+    /**
+     * @return What the session is doing. Safe to call from any thread.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return The number of times the game had to wait for the peer.
+     */
+    public long getStalls() {
+        return stalls;
+    }
+}
@@ -0,0 +1,318 @@
+package com.mateoi.pong;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Runs a game on its own thread at a fixed tick rate, independently of how
+ * often the screen is redrawn. After every tick the new state is published,
+ * and renderers read it without blocking the simulation and interpolate
+ * between the last two ticks.
+ *
+ * @author mateo
+ */
+public class SimulationThread {
+
+    /**
+     * The most ticks that are run back to back to catch up after the thread
+     * was stalled. Older ticks are dropped so the game does not speed up.
+     */
+    private static final int MAX_CATCH_UP_TICKS = 5;
+
+    /** The game that's being played */
+    private final PongGame game;
+    /** Player that controls the left paddle */
+    private final Player leftPlayer;
+    /** Player that controls the right paddle */
+    private final Player rightPlayer;
+    /** Length of a tick */
+    private final long tickNanos;
+    /** Score to win the game */
+    private final int winningScore;
+
+    /** Guards the published state; readers use optimistic reads */
+    private final StampedLock lock = new StampedLock();
+    // State published at the previous tick
+    private double previousBallX;
+    private double previousBallY;
+    private double previousLeftPaddleY;
+    private double previousRightPaddleY;
+    private int previousServes;
+    // State published at the latest tick
+    private double ballX;
+    private double ballY;
+    private double leftPaddleY;
+    private double rightPaddleY;
+    private int leftScore;
+    private int rightScore;
+    private int serves;
+    private long frame;
+    /** When the latest tick was published */
+    private long tickTime;
+
+    /** Whether the simulation should keep running */
+    private volatile boolean running = false;
+    /** The thread the simulation runs on */
+    private Thread thread;
+    /** Number of ticks simulated */
+    private volatile long ticks = 0;
+    /** Number of ticks dropped because the simulation fell behind */
+    private volatile long droppedTicks = 0;
+    /** Where to record how long the ticks take, or null */
+    private volatile FrameMetrics metrics;
+    /** Keyboard input to advance every tick, or null */
+    private volatile KeyboardInput input;
+    /** Session of a networked game, which may hold ticks back, or null */
+    private volatile RollbackSession session;
+
+    /**
+     * Creates a new simulation. It does not run until {@link #start()} is
+     * called.
+     *
+     * @param game
+     * @param leftPlayer
+     * @param rightPlayer
+     * @param ticksPerSecond
+     * @param winningScore
+     *            The simulation stops when a player reaches this score
+     */
+    public SimulationThread(PongGame game, Player leftPlayer, Player rightPlayer, int ticksPerSecond,
+            int winningScore) {
+        this.game = game;
+        this.leftPlayer = leftPlayer;
+        this.rightPlayer = rightPlayer;
+        this.winningScore = winningScore;
+        tickNanos = TimeUnit.SECONDS.toNanos(1) / ticksPerSecond;
+        publish(System.nanoTime());
+        publish(tickTime);
+    }
+
+    /**
+     * Starts simulating on a new daemon thread.
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "Pong simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the simulation. It can not be restarted.
+     */
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * The simulation loop: runs every tick that is due, then sleeps until the
+     * next one.
+     */
+    private void run() {
+        long nextTick = System.nanoTime() + tickNanos;
+        while (running) {
+            long now = System.nanoTime();
+            if (now - nextTick > MAX_CATCH_UP_TICKS * tickNanos) {
+                final long behind = (now - nextTick) / tickNanos - MAX_CATCH_UP_TICKS;
+                droppedTicks += behind;
+                nextTick += behind * tickNanos;
+            }
+            while (running && now - nextTick >= 0) {
+                tick(nextTick);
+                nextTick += tickNanos;
+            }
+            now = System.nanoTime();
+            if (nextTick - now > 0) {
+                LockSupport.parkNanos(nextTick - now);
+            }
+        }
+    }
+
+    /**
+     * Plays one frame and publishes the result.
+     *
+     * @param time
+     *            The time this tick was scheduled for
+     */
+    private void tick(long time) {
+        final RollbackSession session = this.session;
+        if (session != null && !session.canAdvance()) {
+            // Too far ahead of the peer: the tick is skipped
+            return;
+        }
+        final KeyboardInput input = this.input;
+        if (input != null) {
+            input.advance(time, game.getFrames());
+        }
+        final FrameMetrics metrics = measuring();
+        final GameEvents.Frame frameEvent = GameEvents.beginFrame();
+        final long start = metrics == null ? 0 : System.nanoTime();
+        long lap = start;
+        final int leftMove = GameEvents.move(leftPlayer, game, true);
+        if (metrics != null) {
+            lap = metrics.lap(FrameMetrics.Phase.LEFT_MOVE, lap);
+        }
+        final int rightMove = GameEvents.move(rightPlayer, game, false);
+        if (metrics != null) {
+            lap = metrics.lap(FrameMetrics.Phase.RIGHT_MOVE, lap);
+        }
+        game.nextFrame(leftMove, rightMove);
+        if (metrics != null) {
+            lap = metrics.lap(FrameMetrics.Phase.PHYSICS, lap);
+            metrics.record(FrameMetrics.Phase.FRAME, lap - start);
+        }
+        GameEvents.endFrame(frameEvent, game, leftMove, rightMove);
+        ticks++;
+        publish(time);
+        if (game.getLeftScore() >= winningScore || game.getRightScore() >= winningScore) {
+            running = false;
+        }
+    }
+
+    /**
+     * @return The metrics to record into, or null if they are not wanted.
+     */
+    private FrameMetrics measuring() {
+        final FrameMetrics metrics = this.metrics;
+        return metrics != null && metrics.isEnabled() ? metrics : null;
+    }
+
+    /**
+     * Set where to record how long the players and the physics take every
+     * tick.
+     *
+     * @param metrics
+     *            The metrics, or null to not measure
+     */
+    public void setMetrics(FrameMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the keyboard input the players read, so each tick applies the key
+     * events that happened before it was due.
+     *
+     * @param input
+     *            The input, or null if no player uses the keyboard
+     */
+    public void setInput(KeyboardInput input) {
+        this.input = input;
+    }
+
+    /**
+     * Set the session of a networked game. A tick is skipped when the session
+     * can not advance without waiting for the peer.
+     *
+     * @param session
+     *            The session, or null for a local game
+     */
+    public void setSession(RollbackSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Makes the current state of the game visible to renderers, keeping the
+     * previously published state for interpolation.
+     *
+     * @param time
+     */
+    private void publish(long time) {
+        final long stamp = lock.writeLock();
+        try {
+            previousBallX = ballX;
+            previousBallY = ballY;
+            previousLeftPaddleY = leftPaddleY;
+            previousRightPaddleY = rightPaddleY;
+            previousServes = serves;
+            ballX = game.getBallX();
+            ballY = game.getBallY();
+            leftPaddleY = game.getLeftPaddleY();
+            rightPaddleY = game.getRightPaddleY();
+            leftScore = game.getLeftScore();
+            rightScore = game.getRightScore();
+            serves = game.getServes();
+            frame = game.getFrames();
+            tickTime = time;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Reads the latest published state, interpolated so that it shows the game
+     * one tick behind the given time. Never blocks the simulation.
+     *
+     * @param now
+     *            The time the frame will be shown, from
+     *            {@link System#nanoTime()}
+     * @param target
+     *            Where to store the state
+     */
+    public void read(long now, RenderState target) {
+        double px, py, plp, prp, x, y, lp, rp;
+        int ls, rs, ps, s;
+        long f, time;
+        long stamp;
+        do {
+            stamp = lock.tryOptimisticRead();
+            px = previousBallX;
+            py = previousBallY;
+            plp = previousLeftPaddleY;
+            prp = previousRightPaddleY;
+            ps = previousServes;
+            x = ballX;
+            y = ballY;
+            lp = leftPaddleY;
+            rp = rightPaddleY;
+            ls = leftScore;
+            rs = rightScore;
+            s = serves;
+            f = frame;
+            time = tickTime;
+        } while (!lock.validate(stamp));
+
+        final double alpha = Math.max(0, Math.min(1, (double) (now - time) / tickNanos));
+        // Don't drag the ball across the field when it was served
+        final boolean served = s != ps;
+        target.set(served ? x : lerp(px, x, alpha), served ? y : lerp(py, y, alpha), lerp(plp, lp, alpha),
+                lerp(prp, rp, alpha), ls, rs, f);
+    }
+
+    /**
+     * Linear interpolation between two values.
+     *
+     * @param from
+     * @param to
+     * @param alpha
+     * @return
+     */
+    private static double lerp(double from, double to, double alpha) {
+        return from + (to - from) * alpha;
+    }
+
+    /**
+     * @return Whether the simulation is still running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return The number of ticks simulated so far.
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return The number of ticks that were dropped because the simulation
+     *         fell behind.
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+}
@@ -0,0 +1,122 @@
+package com.mateoi.pong;
+
+/**
+ * A reusable store of game snapshots, kept together in a single preallocated
+ * array so that saving and restoring never allocates. Snapshots can be
+ * addressed by slot, for example as a ring of past frames, or used as a stack
+ * when searching ahead and backtracking.
+ *
+ * @author mateo
+ */
+public class SnapshotBuffer {
+
+    /** All the snapshots, one after the other */
+    private final long[] states;
+    /** Number of snapshots that fit in the buffer */
+    private final int capacity;
+    /** Number of snapshots on the stack */
+    private int size = 0;
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param capacity
+     *            The number of snapshots it can hold
+     */
+    public SnapshotBuffer(int capacity) {
+        this.capacity = capacity;
+        states = new long[capacity * PongGame.SNAPSHOT_SIZE];
+    }
+
+    /**
+     * Stores the state of a game in the given slot.
+     *
+     * @param slot
+     * @param game
+     */
+    public void save(int slot, PongGame game) {
+        game.save(states, slot * PongGame.SNAPSHOT_SIZE);
+    }
+
+    /**
+     * Restores a game to the state stored in the given slot.
+     *
+     * @param slot
+     * @param game
+     */
+    public void restore(int slot, PongGame game) {
+        game.restore(states, slot * PongGame.SNAPSHOT_SIZE);
+    }
+
+    /**
+     * Copies the snapshot in one slot to another.
+     *
+     * @param from
+     * @param to
+     */
+    public void copy(int from, int to) {
+        System.arraycopy(states, from * PongGame.SNAPSHOT_SIZE, states, to * PongGame.SNAPSHOT_SIZE,
+                PongGame.SNAPSHOT_SIZE);
+    }
+
+    /**
+     * Stores the state of a game on top of the stack.
+     *
+     * @param game
+     * @throws IllegalStateException
+     *             If the buffer is full
+     */
+    public void push(PongGame game) {
+        if (size == capacity) {
+            throw new IllegalStateException("Snapshot buffer is full");
+        }
+        save(size++, game);
+    }
+
+    /**
+     * Restores a game to the state on top of the stack, and removes it.
+     *
+     * @param game
+     * @throws IllegalStateException
+     *             If the stack is empty
+     */
+    public void pop(PongGame game) {
+        peek(game);
+        size--;
+    }
+
+    /**
+     * Restores a game to the state on top of the stack, leaving it there.
+     *
+     * @param game
+     * @throws IllegalStateException
+     *             If the stack is empty
+     */
+    public void peek(PongGame game) {
+        if (size == 0) {
+            throw new IllegalStateException("Snapshot buffer is empty");
+        }
+        restore(size - 1, game);
+    }
+
+    /**
+     * Empties the stack.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return The number of snapshots on the stack.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of snapshots the buffer can hold.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,186 @@
+package com.mateoi.pong;
+
+import java.util.Arrays;
+
+/**
+ * Draws the same scene as {@link PongController} - walls, paddles, ball and
+ * scores - into an array of ARGB pixels, without JavaFX or a display, so
+ * headless matches can be turned into images or video.
+ *
+ * The walls and the black background never change, so they are drawn once
+ * and copied into every frame. Scores use a small built-in bitmap font of
+ * about the size of the font on screen. A renderer holds no state between
+ * frames, so one renderer can draw into different buffers from many threads
+ * at once.
+ *
+ * @author mateo
+ */
+public class SoftwareRenderer {
+
+    /** Color of the background */
+    static final int BLACK = 0xFF000000;
+    /** Color of everything else */
+    static final int WHITE = 0xFFFFFFFF;
+
+    /** Digits of the score font, 5 pixels wide: one row of bits per line */
+    private static final int[][] DIGITS = {
+            { 0x0E, 0x11, 0x13, 0x15, 0x19, 0x11, 0x0E }, { 0x04, 0x0C, 0x04, 0x04, 0x04, 0x04, 0x0E },
+            { 0x0E, 0x11, 0x01, 0x02, 0x04, 0x08, 0x1F }, { 0x1F, 0x02, 0x04, 0x02, 0x01, 0x11, 0x0E },
+            { 0x02, 0x06, 0x0A, 0x12, 0x1F, 0x02, 0x02 }, { 0x1F, 0x10, 0x1E, 0x01, 0x01, 0x11, 0x0E },
+            { 0x06, 0x08, 0x10, 0x1E, 0x11, 0x11, 0x0E }, { 0x1F, 0x01, 0x02, 0x04, 0x08, 0x08, 0x08 },
+            { 0x0E, 0x11, 0x11, 0x0E, 0x11, 0x11, 0x0E }, { 0x0E, 0x11, 0x11, 0x0F, 0x01, 0x02, 0x0C } };
+    /** Size of a pixel of the font on screen */
+    private static final int FONT_SCALE = 2;
+    /** Width of a digit including the space after it */
+    private static final int DIGIT_ADVANCE = 6 * FONT_SCALE;
+    /** Baseline of the scores, as on screen */
+    private static final int SCORE_BASELINE = 25;
+
+    /** Width of the image */
+    private final int width;
+    /** Height of the image */
+    private final int height;
+    /** Width of the playing field */
+    private final double fieldWidth;
+    /** Half the length of a paddle */
+    private final double paddleRadius;
+    /** Offset between the image edge and the game edge */
+    private final int wallOffset;
+    /** How thick the lines are */
+    private final int lineThickness;
+    /** The background with the walls, copied into every frame */
+    private final int[] background;
+
+    /**
+     * Creates a renderer for games with the size and paddles of the given
+     * one. The image is as large as the field plus the wall offset on every
+     * side, like the canvas of the game's window.
+     *
+     * @param game
+     * @param wallOffset
+     * @param lineThickness
+     */
+    public SoftwareRenderer(PongGame game, int wallOffset, int lineThickness) {
+        fieldWidth = game.getFieldWidth();
+        paddleRadius = game.getPaddleRadius();
+        this.wallOffset = wallOffset;
+        this.lineThickness = lineThickness;
+        width = (int) Math.ceil(fieldWidth + 2 * wallOffset);
+        height = (int) Math.ceil(game.getFieldHeight() + 2 * wallOffset);
+        background = new int[width * height];
+        Arrays.fill(background, BLACK);
+        fillRect(background, 0, wallOffset - lineThickness, width, lineThickness);
+        fillRect(background, 0, height - wallOffset, width, lineThickness);
+    }
+
+    /**
+     * @return A buffer large enough for one image.
+     */
+    public int[] newBuffer() {
+        return new int[width * height];
+    }
+
+    /**
+     * Draws a state of the game into a buffer, one row after another from
+     * the top. Safe to call from many threads at once with different
+     * buffers.
+     *
+     * @param state
+     * @param pixels
+     *            At least {@link #getWidth()} times {@link #getHeight()}
+     *            pixels
+     */
+    public void render(RenderState state, int[] pixels) {
+        if (pixels.length < background.length) {
+            throw new IllegalArgumentException("Buffer too small: " + pixels.length + " < " + background.length);
+        }
+        System.arraycopy(background, 0, pixels, 0, background.length);
+        final double ly = state.getLeftPaddleY() + wallOffset;
+        final double ry = state.getRightPaddleY() + wallOffset;
+        fillRect(pixels, wallOffset - lineThickness, ly - paddleRadius, lineThickness, 2 * paddleRadius);
+        fillRect(pixels, fieldWidth + wallOffset, ry - paddleRadius, lineThickness, 2 * paddleRadius);
+        final double x = state.getBallX() + wallOffset;
+        final double y = state.getBallY() + wallOffset;
+        fillRect(pixels, x - lineThickness / 2, y - lineThickness / 2, lineThickness, lineThickness);
+        final int centerline = width / 2;
+        drawNumber(pixels, state.getLeftScore(), centerline - 20);
+        drawNumber(pixels, state.getRightScore(), centerline + 5);
+    }
+
+    /**
+     * Fills a rectangle with white, covering the pixels whose centers are
+     * inside it, and clipped to the image.
+     *
+     * @param pixels
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     */
+    private void fillRect(int[] pixels, double x, double y, double w, double h) {
+        final int x0 = Math.max(0, (int) Math.round(x));
+        final int x1 = Math.min(width, (int) Math.round(x + w));
+        final int y0 = Math.max(0, (int) Math.round(y));
+        final int y1 = Math.min(height, (int) Math.round(y + h));
+        if (x0 >= x1) {
+            return;
+        }
+        for (int row = y0; row < y1; row++) {
+            Arrays.fill(pixels, row * width + x0, row * width + x1, WHITE);
+        }
+    }
+
+    /**
+     * Draws a non-negative number with its first digit at the given x.
+     *
+     * @param pixels
+     * @param number
+     * @param x
+     */
+    private void drawNumber(int[] pixels, int number, int x) {
+        int digits = 1;
+        for (int n = number / 10; n > 0; n /= 10) {
+            digits++;
+        }
+        int left = x + (digits - 1) * DIGIT_ADVANCE;
+        int n = Math.max(0, number);
+        for (int i = 0; i < digits; i++) {
+            drawDigit(pixels, n % 10, left);
+            n /= 10;
+            left -= DIGIT_ADVANCE;
+        }
+    }
+
+    /**
+     * Draws a digit, sitting on the scores' baseline.
+     *
+     * @param pixels
+     * @param digit
+     * @param x
+     */
+    private void drawDigit(int[] pixels, int digit, int x) {
+        final int[] rows = DIGITS[digit];
+        final int top = SCORE_BASELINE - rows.length * FONT_SCALE;
+        for (int r = 0; r < rows.length; r++) {
+            for (int c = 0; c < 5; c++) {
+                if ((rows[r] & (0x10 >>> c)) != 0) {
+                    fillRect(pixels, x + c * FONT_SCALE, top + r * FONT_SCALE, FONT_SCALE, FONT_SCALE);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The width of the image in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the image in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,215 @@
+package com.mateoi.pong;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The receiving side of a {@link SpectatorServer} stream. It decodes frames
+ * against the frames it decoded before, and acknowledges the latest one so the
+ * server can send the next frames as small differences. The channel may be
+ * blocking or non-blocking.
+ *
+ * @author mateo
+ */
+public class SpectatorClient {
+
+    /** Connection to the server */
+    private final SocketChannel channel;
+    /** Bytes received and not yet decoded */
+    private final ByteBuffer in = ByteBuffer.allocate(4096);
+    /** The acknowledgement being written */
+    private final ByteBuffer ack = ByteBuffer.allocate(4);
+    /** Frames decoded, by frame number modulo the history */
+    private final int[][] history = new int[SpectatorServer.HISTORY][SpectatorServer.FIELDS];
+    /** The frame number stored in each entry of the history */
+    private final int[] historyFrames = new int[SpectatorServer.HISTORY];
+    /** The latest frame decoded */
+    private int frame = -1;
+
+    // Statistics
+    private long framesReceived = 0;
+    private long fullFrames = 0;
+    private long bytesReceived = 0;
+
+    /**
+     * Creates a client on a connected channel.
+     *
+     * @param channel
+     */
+    public SpectatorClient(SocketChannel channel) {
+        this.channel = channel;
+        for (int i = 0; i < historyFrames.length; i++) {
+            historyFrames[i] = -1;
+        }
+        ack.flip();
+    }
+
+    /**
+     * Reads what has arrived, decodes every complete frame and acknowledges
+     * the latest one.
+     *
+     * @return The number of frames decoded, or -1 if the server closed the
+     *         connection
+     * @throws IOException
+     */
+    public int read() throws IOException {
+        final int read = channel.read(in);
+        if (read < 0) {
+            return -1;
+        }
+        bytesReceived += read;
+        in.flip();
+        int decoded = 0;
+        while (in.remaining() >= 2 && in.remaining() >= 2 + (in.getShort(in.position()) & 0xFFFF)) {
+            final int length = in.getShort() & 0xFFFF;
+            final int end = in.position() + length;
+            if (decode()) {
+                decoded++;
+            }
+            in.position(end);
+        }
+        in.compact();
+        if (decoded > 0 && !ack.hasRemaining()) {
+            ack.clear();
+            ack.putInt(frame);
+            ack.flip();
+        }
+        if (ack.hasRemaining()) {
+            // If the socket is full the acknowledgement is simply sent later
+            channel.write(ack);
+        }
+        return decoded;
+    }
+
+    /**
+     * Decodes one frame.
+     *
+     * @return Whether the frame could be decoded; it can't if its base is no
+     *         longer known
+     */
+    private boolean decode() {
+        final int number = in.getInt();
+        final int base = in.getInt();
+        final int mask = in.get();
+        final int[] baseValues;
+        if (base < 0) {
+            baseValues = null;
+            fullFrames++;
+        } else if (historyFrames[base % SpectatorServer.HISTORY] == base) {
+            baseValues = history[base % SpectatorServer.HISTORY];
+        } else {
+            return false;
+        }
+        final int[] values = history[number % SpectatorServer.HISTORY];
+        for (int i = 0; i < SpectatorServer.FIELDS; i++) {
+            int value = baseValues == null ? 0 : baseValues[i];
+            if ((mask & (1 << i)) != 0) {
+                final int zigzag = getVarint(in);
+                value += (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+            values[i] = value;
+        }
+        historyFrames[number % SpectatorServer.HISTORY] = number;
+        frame = Math.max(frame, number);
+        framesReceived++;
+        return true;
+    }
+
+    /**
+     * Reads an unsigned varint written by
+     * {@link SpectatorServer#putVarint(ByteBuffer, int)}.
+     *
+     * @param buffer
+     * @return
+     */
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * @param field
+     * @return A value of the latest frame.
+     */
+    private int latest(int field) {
+        return frame < 0 ? 0 : history[frame % SpectatorServer.HISTORY][field];
+    }
+
+    /**
+     * @return The number of the latest frame decoded, or -1.
+     */
+    public int getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return The ball's x position in the latest frame.
+     */
+    public double getBallX() {
+        return latest(0) / SpectatorServer.POSITION_SCALE;
+    }
+
+    /**
+     * @return The ball's y position in the latest frame.
+     */
+    public double getBallY() {
+        return latest(1) / SpectatorServer.POSITION_SCALE;
+    }
+
+    /**
+     * @return The y position of the left paddle's center in the latest frame.
+     */
+    public double getLeftPaddleY() {
+        return latest(2) / SpectatorServer.POSITION_SCALE;
+    }
+
+    /**
+     * @return The y position of the right paddle's center in the latest frame.
+     */
+    public double getRightPaddleY() {
+        return latest(3) / SpectatorServer.POSITION_SCALE;
+    }
+
+    /**
+     * @return The left player's score in the latest frame.
+     */
+    public int getLeftScore() {
+        return latest(4);
+    }
+
+    /**
+     * @return The right player's score in the latest frame.
+     */
+    public int getRightScore() {
+        return latest(5);
+    }
+
+    /**
+     * @return The number of frames decoded.
+     */
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    /**
+     * @return The number of frames that were sent in full.
+     */
+    public long getFullFrames() {
+        return fullFrames;
+    }
+
+    /**
+     * @return The number of bytes received.
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+}
@@ -0,0 +1,144 @@
+package com.mateoi.pong;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects many spectators to a {@link SpectatorServer} from a single thread
+ * and reports how well the server keeps up with them: the share of frames each
+ * spectator received and the bandwidth used.
+ *
+ * Usage: SpectatorLoadTest [host|local] [port] [spectators] [seconds]
+ *
+ * With "local", a server streaming an AI-vs-AI game is started in the same
+ * process, and the server's own statistics are reported as well. Run the
+ * server alone with {@code taskset -c 0} to see what one core can serve.
+ *
+ * @author mateo
+ */
+public class SpectatorLoadTest {
+
+    /** Frames per second sent by a local server */
+    private static final int TICK_RATE = 60;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final String host = args.length > 0 ? args[0] : "local";
+        final int port = args.length > 1 ? Integer.parseInt(args[1]) : 7777;
+        final int count = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        final int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        SpectatorServer server = null;
+        Thread game = null;
+        if (host.equals("local")) {
+            server = new SpectatorServer(port, TICK_RATE);
+            server.start();
+            game = startGame(server);
+        }
+        final InetSocketAddress address = new InetSocketAddress(host.equals("local") ? "127.0.0.1" : host, port);
+
+        try (Selector selector = Selector.open()) {
+            final List<SpectatorClient> clients = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final SocketChannel channel = SocketChannel.open(address);
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                final SpectatorClient client = new SpectatorClient(channel);
+                channel.register(selector, SelectionKey.OP_READ, client);
+                clients.add(client);
+            }
+            System.out.println("Connected " + count + " spectators");
+
+            final long start = System.nanoTime();
+            final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            final long[] firstFrames = new long[count];
+            for (int i = 0; i < count; i++) {
+                firstFrames[i] = clients.get(i).getFramesReceived();
+            }
+            while (System.nanoTime() < end) {
+                selector.select(100);
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (((SpectatorClient) key.attachment()).read() < 0) {
+                        key.cancel();
+                    }
+                }
+            }
+            final double elapsed = (System.nanoTime() - start) / 1e9;
+
+            long frames = 0;
+            long full = 0;
+            long bytes = 0;
+            int keepingUp = 0;
+            double worst = Double.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                final SpectatorClient client = clients.get(i);
+                final double rate = (client.getFramesReceived() - firstFrames[i]) / elapsed;
+                frames += client.getFramesReceived();
+                full += client.getFullFrames();
+                bytes += client.getBytesReceived();
+                if (rate >= 0.95 * TICK_RATE) {
+                    keepingUp++;
+                }
+                worst = Math.min(worst, rate);
+            }
+            System.out.printf("%d of %d spectators received at least 95%% of %d frames per second%n", keepingUp,
+                    count, TICK_RATE);
+            System.out.printf("Average %.1f, worst %.1f frames per second per spectator%n",
+                    frames / elapsed / count, worst);
+            System.out.printf("%.1f bytes per frame, %.1f%% full frames%n", (double) bytes / Math.max(1, frames),
+                    100.0 * full / Math.max(1, frames));
+            if (server != null) {
+                System.out.printf("Server: %d frames sent, %d skipped, %d late ticks%n", server.getFramesSent(),
+                        server.getFramesSkipped(), server.getLateTicks());
+                final double tickMicros = server.getAverageTickNanos() / 1000;
+                System.out.printf("Server: %.0f us per tick, %.2f us per spectator, about %.0f spectators per core%n",
+                        tickMicros, tickMicros / count, count * 1e6 / TICK_RATE / tickMicros);
+            }
+        } finally {
+            if (game != null) {
+                game.interrupt();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Plays an AI-vs-AI game in real time and publishes it to a server.
+     *
+     * @param server
+     * @return The thread the game runs on
+     */
+    private static Thread startGame(SpectatorServer server) {
+        final Thread thread = new Thread(() -> {
+            final long frameNanos = TimeUnit.SECONDS.toNanos(1) / TICK_RATE;
+            long next = System.nanoTime();
+            while (!Thread.currentThread().isInterrupted()) {
+                final PongGame game = new PongGame(500, 300);
+                final HeadlessMatch match = new HeadlessMatch(game, new AIPlayer(true), new AIPlayer(false), 11);
+                while (!match.step()) {
+                    server.publish(game);
+                    next += frameNanos;
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(Math.max(0, next - System.nanoTime()));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "Spectated game");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,489 @@
+package com.mateoi.pong;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Streams the state of a live game to any number of spectators over TCP.
+ *
+ * The game publishes its state with {@link #publish(PongGame)}, which only
+ * copies a few values under a lock and costs the same however many spectators
+ * are connected. A single thread runs a selector, takes the latest published
+ * state at a fixed tick rate, and sends it to every spectator.
+ *
+ * Every frame is sent as the difference from the last frame the spectator
+ * acknowledged, or in full if that frame is too old. A spectator with
+ * {@link #MAX_IN_FLIGHT} frames sent but not acknowledged, or whose previous
+ * frame has not been fully written yet, simply skips the new one. Frames
+ * waiting in the socket buffers count as in flight, so slow spectators
+ * receive fewer, but always recent, frames instead of an ever growing
+ * backlog.
+ * Spectators with the same last acknowledged frame share one encoding.
+ *
+ * Message format: a 2-byte length of the rest, the frame number, the base
+ * frame number (-1 for a full frame), a byte with one bit per field that
+ * changed, and each changed field as a zigzag varint difference from the base.
+ * The fields are the ball position and paddle heights in 1/256 pixels, and
+ * the scores. Spectators reply with the 4-byte number of each frame they
+ * decode. See {@link SpectatorClient} for the receiving side.
+ *
+ * @author mateo
+ */
+public class SpectatorServer implements Closeable {
+
+    /** Number of values in a frame */
+    static final int FIELDS = 6;
+    /** Fixed-point scale of the positions */
+    static final double POSITION_SCALE = 256;
+    /** Largest encoded message, including its length */
+    static final int MAX_MESSAGE_SIZE = 2 + 4 + 4 + 1 + 5 * FIELDS;
+    /** Frames kept to encode differences against */
+    static final int HISTORY = 64;
+    /**
+     * Most frames sent to a spectator and not yet acknowledged; spectators
+     * further away than this many ticks get fewer frames
+     */
+    static final int MAX_IN_FLIGHT = 8;
+
+    /** The listening socket */
+    private final ServerSocketChannel server;
+    /** The selector every socket is registered with */
+    private final Selector selector;
+    /** Length of a tick */
+    private final long tickNanos;
+    /** The connected spectators */
+    private final List<Spectator> spectators = new ArrayList<>();
+
+    /** Guards the published state */
+    private final StampedLock lock = new StampedLock();
+    /** The latest published state, already quantized */
+    private final int[] published = new int[FIELDS];
+    /** Copy of the published state taken at each tick */
+    private final int[] current = new int[FIELDS];
+
+    /** The frames sent, by frame number modulo the history */
+    private final int[][] history = new int[HISTORY][FIELDS];
+    /** Number of the last frame sent */
+    private int frame = -1;
+    /** Encodings of the current frame, by distance to their base; 0 is full */
+    private final ByteBuffer[] encodings = new ByteBuffer[HISTORY];
+    /** The frame each encoding was made for */
+    private final int[] encodedFrames = new int[HISTORY];
+
+    /** Whether the server should keep running */
+    private volatile boolean running = false;
+    /** The thread the selector runs on */
+    private Thread thread;
+
+    // Statistics, written by the server thread only
+    private volatile long framesSent = 0;
+    private volatile long framesSkipped = 0;
+    private volatile long bytesSent = 0;
+    private volatile long lateTicks = 0;
+    private volatile long ticks = 0;
+    private volatile long tickTimeNanos = 0;
+    private volatile int spectatorCount = 0;
+
+    /**
+     * A connected spectator.
+     */
+    private static class Spectator {
+        final SocketChannel channel;
+        final SelectionKey key;
+        /** The frame being written, if any is left */
+        final ByteBuffer out = ByteBuffer.allocate(MAX_MESSAGE_SIZE);
+        /** Acknowledgements read so far */
+        final ByteBuffer in = ByteBuffer.allocate(64);
+        /** Last frame the spectator acknowledged */
+        int acknowledged = -1;
+        /** Last frame sent to the spectator */
+        int sent = -1;
+
+        Spectator(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            out.flip();
+        }
+    }
+
+    /**
+     * Opens a server on the given port. It does not send anything until
+     * {@link #start()} is called.
+     *
+     * @param port
+     * @param ticksPerSecond
+     *            How many frames are sent per second
+     * @throws IOException
+     */
+    public SpectatorServer(int port, int ticksPerSecond) throws IOException {
+        tickNanos = TimeUnit.SECONDS.toNanos(1) / ticksPerSecond;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.bind(new InetSocketAddress(port), 1024);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        for (int i = 0; i < HISTORY; i++) {
+            encodings[i] = ByteBuffer.allocate(MAX_MESSAGE_SIZE);
+            encodedFrames[i] = -1;
+        }
+    }
+
+    /**
+     * Publishes the current state of a game. Safe to call from any thread, and
+     * cheap enough to call every frame.
+     *
+     * @param game
+     */
+    public void publish(PongGame game) {
+        final long stamp = lock.writeLock();
+        try {
+            published[0] = (int) Math.round(game.getBallX() * POSITION_SCALE);
+            published[1] = (int) Math.round(game.getBallY() * POSITION_SCALE);
+            published[2] = (int) Math.round(game.getLeftPaddleY() * POSITION_SCALE);
+            published[3] = (int) Math.round(game.getRightPaddleY() * POSITION_SCALE);
+            published[4] = game.getLeftScore();
+            published[5] = game.getRightScore();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Starts sending frames on a new thread.
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "Spectator server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The selector loop: serves the sockets between ticks and sends a frame at
+     * every tick.
+     */
+    private void run() {
+        long nextTick = System.nanoTime();
+        try {
+            while (running) {
+                final long wait = nextTick - System.nanoTime();
+                if (wait > 0) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                } else {
+                    selector.selectNow();
+                }
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                final long now = System.nanoTime();
+                if (now >= nextTick) {
+                    tick();
+                    ticks++;
+                    tickTimeNanos += System.nanoTime() - now;
+                    nextTick += tickNanos;
+                    if (now - nextTick > tickNanos) {
+                        // Too far behind to catch up: skip the missed ticks
+                        lateTicks++;
+                        nextTick = now + tickNanos;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Handles a ready socket.
+     *
+     * @param key
+     * @throws IOException
+     */
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                final SelectionKey spectatorKey = channel.register(selector, SelectionKey.OP_READ);
+                final Spectator spectator = new Spectator(channel, spectatorKey);
+                spectatorKey.attach(spectator);
+                spectators.add(spectator);
+            }
+            spectatorCount = spectators.size();
+            return;
+        }
+        final Spectator spectator = (Spectator) key.attachment();
+        try {
+            if (key.isReadable()) {
+                readAcknowledgements(spectator);
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(spectator);
+            }
+        } catch (IOException e) {
+            disconnect(spectator);
+        }
+    }
+
+    /**
+     * Reads the frame numbers a spectator acknowledged.
+     *
+     * @param spectator
+     * @throws IOException
+     */
+    private void readAcknowledgements(Spectator spectator) throws IOException {
+        if (spectator.channel.read(spectator.in) < 0) {
+            disconnect(spectator);
+            return;
+        }
+        spectator.in.flip();
+        while (spectator.in.remaining() >= 4) {
+            final int acknowledged = spectator.in.getInt();
+            if (acknowledged <= frame && acknowledged > spectator.acknowledged) {
+                spectator.acknowledged = acknowledged;
+            }
+        }
+        spectator.in.compact();
+    }
+
+    /**
+     * Writes what is left of a spectator's frame, and stops waiting for the
+     * socket once it is all written.
+     *
+     * @param spectator
+     * @throws IOException
+     */
+    private void flush(Spectator spectator) throws IOException {
+        bytesSent += spectator.channel.write(spectator.out);
+        final int ops = spectator.key.interestOps();
+        if (spectator.out.hasRemaining()) {
+            if ((ops & SelectionKey.OP_WRITE) == 0) {
+                spectator.key.interestOps(ops | SelectionKey.OP_WRITE);
+            }
+        } else if ((ops & SelectionKey.OP_WRITE) != 0) {
+            spectator.key.interestOps(ops & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Closes a spectator's connection.
+     *
+     * @param spectator
+     */
+    private void disconnect(Spectator spectator) {
+        spectator.key.cancel();
+        try {
+            spectator.channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        spectators.remove(spectator);
+        spectatorCount = spectators.size();
+    }
+
+    /**
+     * Takes the latest published state as a new frame and sends it to every
+     * spectator that is ready for it.
+     */
+    private void tick() {
+        long stamp = lock.tryOptimisticRead();
+        System.arraycopy(published, 0, current, 0, FIELDS);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                System.arraycopy(published, 0, current, 0, FIELDS);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        frame++;
+        System.arraycopy(current, 0, history[frame % HISTORY], 0, FIELDS);
+
+        for (int i = spectators.size() - 1; i >= 0; i--) {
+            final Spectator spectator = spectators.get(i);
+            if (spectator.out.hasRemaining() || spectator.sent - spectator.acknowledged >= MAX_IN_FLIGHT) {
+                // Still busy with earlier frames
+                framesSkipped++;
+                continue;
+            }
+            final int acknowledged = spectator.acknowledged;
+            final int distance = acknowledged >= 0 && frame - acknowledged < HISTORY ? frame - acknowledged : 0;
+            final ByteBuffer encoding = encoding(distance);
+            spectator.out.clear();
+            spectator.out.put(encoding.array(), 0, encoding.limit());
+            spectator.out.flip();
+            try {
+                flush(spectator);
+                spectator.sent = frame;
+                framesSent++;
+            } catch (IOException e) {
+                disconnect(spectator);
+            }
+        }
+    }
+
+    /**
+     * @param distance
+     *            How many frames back the base is, or 0 for a full frame
+     * @return The current frame encoded against its base, cached for the
+     *         other spectators with the same base.
+     */
+    private ByteBuffer encoding(int distance) {
+        final ByteBuffer buffer = encodings[distance];
+        if (encodedFrames[distance] == frame) {
+            return buffer;
+        }
+        final int base = distance == 0 ? -1 : frame - distance;
+        final int[] baseValues = distance == 0 ? null : history[base % HISTORY];
+        buffer.clear();
+        buffer.putShort((short) 0);
+        buffer.putInt(frame);
+        buffer.putInt(base);
+        final int maskPosition = buffer.position();
+        buffer.put((byte) 0);
+        int mask = 0;
+        for (int i = 0; i < FIELDS; i++) {
+            final int difference = current[i] - (baseValues == null ? 0 : baseValues[i]);
+            if (difference != 0) {
+                mask |= 1 << i;
+                putVarint(buffer, (difference << 1) ^ (difference >> 31));
+            }
+        }
+        buffer.put(maskPosition, (byte) mask);
+        buffer.putShort(0, (short) (buffer.position() - 2));
+        buffer.flip();
+        encodedFrames[distance] = frame;
+        return buffer;
+    }
+
+    /**
+     * Writes an unsigned varint: 7 bits per byte, lowest first, with the high
+     * bit set on every byte but the last.
+     *
+     * @param buffer
+     * @param value
+     */
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Stops the server and disconnects every spectator.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Spectator spectator : new ArrayList<>(spectators)) {
+            disconnect(spectator);
+        }
+        server.close();
+        selector.close();
+    }
+
+    /**
+     * @return The number of connected spectators.
+     */
+    public int getSpectators() {
+        return spectatorCount;
+    }
+
+    /**
+     * @return The number of frames sent to spectators.
+     */
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * @return The number of frames skipped because a spectator was still
+     *         receiving an earlier one.
+     */
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    /**
+     * @return The number of bytes written to spectators.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return The number of times the server fell more than a tick behind.
+     */
+    public long getLateTicks() {
+        return lateTicks;
+    }
+
+    /**
+     * @return The average time spent sending a frame to every spectator, in
+     *         nanoseconds.
+     */
+    public double getAverageTickNanos() {
+        return ticks == 0 ? 0 : (double) tickTimeNanos / ticks;
+    }
+
+    /**
+     * Runs an AI-vs-AI game and streams it until stopped.
+     *
+     * Usage: SpectatorServer [port] [ticksPerSecond]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+        final int tickRate = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        try (SpectatorServer server = new SpectatorServer(port, tickRate)) {
+            server.start();
+            System.out.println("Streaming on port " + port + " at " + tickRate + " frames per second");
+            while (true) {
+                final PongGame game = new PongGame(500, 300);
+                final HeadlessMatch match = new HeadlessMatch(game, new AIPlayer(true), new AIPlayer(false), 11);
+                final long frameNanos = TimeUnit.SECONDS.toNanos(1) / 60;
+                long next = System.nanoTime();
+                while (!match.step()) {
+                    server.publish(game);
+                    next += frameNanos;
+                    final long sleep = next - System.nanoTime();
+                    if (sleep > 0) {
+                        TimeUnit.NANOSECONDS.sleep(sleep);
+                    }
+                    if (game.getFrames() % 600 == 0) {
+                        System.out.printf("%d spectators, %d frames sent, %d skipped, %d late ticks%n",
+                                server.getSpectators(), server.getFramesSent(), server.getFramesSkipped(),
+                                server.getLateTicks());
+                    }
+                }
+            }
+        }
+    }
+}
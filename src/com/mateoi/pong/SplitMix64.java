@@ -0,0 +1,79 @@
+package com.mateoi.pong;
+
+/**
+ * A small, fast and seedable random number generator (SplitMix64). Its whole
+ * state is a single long, which makes games easy to reproduce, copy and store.
+ *
+ * @author mateo
+ */
+public class SplitMix64 {
+
+    /** Increment of the state for every number generated */
+    static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** Current state */
+    private long state;
+
+    /**
+     * Creates a new generator.
+     *
+     * @param seed
+     */
+    public SplitMix64(long seed) {
+        state = seed;
+    }
+
+    /**
+     * @return The next pseudorandom long.
+     */
+    public long nextLong() {
+        state += GAMMA;
+        return mix(state);
+    }
+
+    /**
+     * @return The next pseudorandom double, uniformly distributed in [0, 1).
+     */
+    public double nextDouble() {
+        return toDouble(nextLong());
+    }
+
+    /**
+     * @return The current state, which can be passed to {@link #setState} to
+     *         resume the same sequence.
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Resumes the sequence from a state returned by {@link #getState()}.
+     *
+     * @param state
+     */
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    /**
+     * Scrambles a state into an output value.
+     *
+     * @param z
+     * @return
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Converts a random long into a double in [0, 1) using its upper 53 bits.
+     *
+     * @param bits
+     * @return
+     */
+    static double toDouble(long bits) {
+        return (bits >>> 11) * 0x1.0p-53;
+    }
+}
@@ -0,0 +1,31 @@
+package com.mateoi.pong;
+
+/**
+ * A player that looks its moves up in a {@link PolicyTable}. It keeps no state
+ * of its own, so a single table can serve any number of players at once.
+ *
+ * @author mateo
+ */
+public class TablePlayer implements Player {
+
+    /** The table the moves are looked up in */
+    private final PolicyTable table;
+    /** Whether this player is the left one */
+    private final boolean isLeft;
+
+    /**
+     * Creates a new table player.
+     *
+     * @param table
+     * @param isLeft
+     */
+    public TablePlayer(PolicyTable table, boolean isLeft) {
+        this.table = table;
+        this.isLeft = isLeft;
+    }
+
+    @Override
+    public int move(PongGame state) {
+        return table.move(state, isLeft);
+    }
+}
@@ -0,0 +1,186 @@
+package com.mateoi.pong;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A round-robin tournament between {@link Player} implementations. Every
+ * entrant plays every other entrant on both sides of the field, and all the
+ * matches are played headless in parallel on a fork-join pool.
+ *
+ * Every match gets its own seed, derived from the tournament's seed and the
+ * match's place in the schedule, for its serves and its players, so a
+ * tournament played again with the same seed has the same results no matter
+ * how the pool schedules the matches.
+ *
+ * @author mateo
+ */
+public class Tournament {
+
+    /** Total width of the field */
+    private final double fieldWidth;
+    /** Total height of the field */
+    private final double fieldHeight;
+    /** Names of the entrants */
+    private final List<String> names = new ArrayList<>();
+    /** Factories for the entrants' players */
+    private final List<PlayerFactory> factories = new ArrayList<>();
+
+    /** Score to win each match */
+    private int winningScore = 5;
+    /** How many times each pairing is played on each side */
+    private int rounds = 1;
+    /** Frames after which a match is abandoned */
+    private long maxFrames = 10_000_000;
+    /** Seed from which every match's seed is derived */
+    private long seed = 0;
+
+    /**
+     * Creates a new tournament played on fields of the given size.
+     *
+     * @param width
+     * @param height
+     */
+    public Tournament(double width, double height) {
+        fieldWidth = width;
+        fieldHeight = height;
+    }
+
+    /**
+     * Adds an entrant to the tournament.
+     *
+     * @param name
+     * @param factory
+     */
+    public void addEntrant(String name, PlayerFactory factory) {
+        names.add(name);
+        factories.add(factory);
+    }
+
+    /**
+     * Plays every match of the tournament on the common fork-join pool.
+     *
+     * @return The merged results
+     */
+    public TournamentResult play() {
+        return play(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Plays every match of the tournament on the given pool.
+     *
+     * @param pool
+     * @return The merged results
+     */
+    public TournamentResult play(ForkJoinPool pool) {
+        List<int[]> schedule = new ArrayList<>();
+        for (int round = 0; round < rounds; round++) {
+            for (int left = 0; left < names.size(); left++) {
+                for (int right = 0; right < names.size(); right++) {
+                    if (left != right) {
+                        schedule.add(new int[] { left, right });
+                    }
+                }
+            }
+        }
+        return pool.invoke(new MatchTask(schedule, 0, schedule.size()));
+    }
+
+    /**
+     * Plays a single match headless.
+     *
+     * @param index
+     *            Place of the match in the schedule
+     * @param left
+     *            Index of the left entrant
+     * @param right
+     *            Index of the right entrant
+     * @return The finished match
+     */
+    private HeadlessMatch playMatch(int index, int left, int right) {
+        final long matchSeed = SplitMix64.mix(seed ^ SplitMix64.mix(index));
+        PongGame game = new PongGame(fieldWidth, fieldHeight, matchSeed);
+        Player leftPlayer = factories.get(left).create(true, matchSeed + 1);
+        Player rightPlayer = factories.get(right).create(false, matchSeed + 2);
+        HeadlessMatch match = new HeadlessMatch(game, leftPlayer, rightPlayer, winningScore);
+        match.setMaxFrames(maxFrames);
+        match.play();
+        return match;
+    }
+
+    /**
+     * Plays a range of the schedule, splitting it in halves until a single
+     * match is left. Each task accumulates into its own result, so the
+     * workers never share mutable state.
+     */
+    private class MatchTask extends RecursiveTask<TournamentResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<int[]> schedule;
+        private final int from;
+        private final int to;
+
+        MatchTask(List<int[]> schedule, int from, int to) {
+            this.schedule = schedule;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TournamentResult compute() {
+            if (to - from <= 1) {
+                TournamentResult result = new TournamentResult(Collections.unmodifiableList(names));
+                if (to > from) {
+                    final int[] pairing = schedule.get(from);
+                    result.record(pairing[0], pairing[1], playMatch(from, pairing[0], pairing[1]));
+                }
+                return result;
+            }
+            final int middle = (from + to) >>> 1;
+            MatchTask first = new MatchTask(schedule, from, middle);
+            MatchTask second = new MatchTask(schedule, middle, to);
+            first.fork();
+            return second.compute().merge(first.join());
+        }
+    }
+
+    /**
+     * Set the score needed to win each match.
+     *
+     * @param winningScore
+     */
+    public void setWinningScore(int winningScore) {
+        this.winningScore = winningScore;
+    }
+
+    /**
+     * Set how many times each pairing is played on each side of the field.
+     *
+     * @param rounds
+     */
+    public void setRounds(int rounds) {
+        this.rounds = rounds;
+    }
+
+    /**
+     * Set the number of frames after which a match is abandoned.
+     *
+     * @param maxFrames
+     */
+    public void setMaxFrames(long maxFrames) {
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * Set the seed from which the seeds of every match are derived.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
@@ -0,0 +1,215 @@
+package com.mateoi.pong;
+
+import java.util.List;
+
+/**
+ * Accumulated statistics for every entrant of a {@link Tournament}. Partial
+ * results computed in parallel are combined with {@link #merge}.
+ *
+ * @author mateo
+ */
+public class TournamentResult {
+
+    /** Names of the entrants, in entry order */
+    private final List<String> names;
+    /** Matches played by each entrant */
+    private final int[] matches;
+    /** Matches won by each entrant */
+    private final int[] wins;
+    /** Matches abandoned because they hit the frame limit */
+    private final int[] abandoned;
+    /** Points scored by each entrant */
+    private final int[] pointsFor;
+    /** Points scored against each entrant */
+    private final int[] pointsAgainst;
+    /** Balls returned by each entrant */
+    private final long[] hits;
+    /** Longest rally in any match of each entrant */
+    private final int[] longestRally;
+    /** Dead balls in the matches of each entrant */
+    private final int[] deadBalls;
+    /** Wins of the row entrant against the column entrant */
+    private final int[][] headToHead;
+    /** Total frames simulated */
+    private long frames = 0;
+
+    /**
+     * Creates an empty result for the given entrants.
+     *
+     * @param names
+     */
+    public TournamentResult(List<String> names) {
+        this.names = names;
+        final int n = names.size();
+        matches = new int[n];
+        wins = new int[n];
+        abandoned = new int[n];
+        pointsFor = new int[n];
+        pointsAgainst = new int[n];
+        hits = new long[n];
+        longestRally = new int[n];
+        deadBalls = new int[n];
+        headToHead = new int[n][n];
+    }
+
+    /**
+     * Records the outcome of a finished match.
+     *
+     * @param left
+     *            Index of the entrant that played on the left
+     * @param right
+     *            Index of the entrant that played on the right
+     * @param match
+     *            The finished match
+     */
+    public void record(int left, int right, HeadlessMatch match) {
+        final PongGame game = match.getGame();
+        frames += match.getFrames();
+        matches[left]++;
+        matches[right]++;
+        pointsFor[left] += game.getLeftScore();
+        pointsAgainst[left] += game.getRightScore();
+        pointsFor[right] += game.getRightScore();
+        pointsAgainst[right] += game.getLeftScore();
+        hits[left] += game.getLeftHits();
+        hits[right] += game.getRightHits();
+        longestRally[left] = Math.max(longestRally[left], game.getLongestRally());
+        longestRally[right] = Math.max(longestRally[right], game.getLongestRally());
+        deadBalls[left] += game.getDeadBalls();
+        deadBalls[right] += game.getDeadBalls();
+        if (match.isAbandoned()) {
+            abandoned[left]++;
+            abandoned[right]++;
+        } else if (match.leftWins()) {
+            wins[left]++;
+            headToHead[left][right]++;
+        } else {
+            wins[right]++;
+            headToHead[right][left]++;
+        }
+    }
+
+    /**
+     * Adds the statistics of another result for the same entrants to this one.
+     *
+     * @param other
+     * @return This result
+     */
+    public TournamentResult merge(TournamentResult other) {
+        for (int i = 0; i < names.size(); i++) {
+            matches[i] += other.matches[i];
+            wins[i] += other.wins[i];
+            abandoned[i] += other.abandoned[i];
+            pointsFor[i] += other.pointsFor[i];
+            pointsAgainst[i] += other.pointsAgainst[i];
+            hits[i] += other.hits[i];
+            longestRally[i] = Math.max(longestRally[i], other.longestRally[i]);
+            deadBalls[i] += other.deadBalls[i];
+            for (int j = 0; j < names.size(); j++) {
+                headToHead[i][j] += other.headToHead[i][j];
+            }
+        }
+        frames += other.frames;
+        return this;
+    }
+
+    /**
+     * @param entrant
+     * @return The fraction of its matches that the entrant won.
+     */
+    public double getWinRate(int entrant) {
+        return matches[entrant] == 0 ? 0 : (double) wins[entrant] / matches[entrant];
+    }
+
+    /**
+     * @param entrant
+     * @return The number of matches the entrant played.
+     */
+    public int getMatches(int entrant) {
+        return matches[entrant];
+    }
+
+    /**
+     * @param entrant
+     * @return The number of matches the entrant won.
+     */
+    public int getWins(int entrant) {
+        return wins[entrant];
+    }
+
+    /**
+     * @param entrant
+     * @return The number of times the entrant hit the ball.
+     */
+    public long getHits(int entrant) {
+        return hits[entrant];
+    }
+
+    /**
+     * @param entrant
+     * @return The longest rally in any of the entrant's matches.
+     */
+    public int getLongestRally(int entrant) {
+        return longestRally[entrant];
+    }
+
+    /**
+     * @param entrant
+     * @return The number of dead balls in the entrant's matches.
+     */
+    public int getDeadBalls(int entrant) {
+        return deadBalls[entrant];
+    }
+
+    /**
+     * @param winner
+     * @param loser
+     * @return How many times one entrant beat the other.
+     */
+    public int getWins(int winner, int loser) {
+        return headToHead[winner][loser];
+    }
+
+    /**
+     * @return The names of the entrants.
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return The total number of frames simulated.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return A table with one row per entrant, followed by the head-to-head
+     *         wins.
+     */
+    @Override
+    public String toString() {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-20s %8s %8s %8s %9s %9s %10s %8s %8s%n", "Player", "Matches", "Wins",
+                "Win %", "Points", "Against", "Hits", "Longest", "Dead"));
+        for (int i = 0; i < names.size(); i++) {
+            table.append(String.format("%-20s %8d %8d %8.1f %9d %9d %10d %8d %8d%n", names.get(i), matches[i],
+                    wins[i], 100 * getWinRate(i), pointsFor[i], pointsAgainst[i], hits[i], longestRally[i],
+                    deadBalls[i]));
+        }
+        table.append(String.format("%nHead to head (row beat column)%n%-20s", ""));
+        for (int j = 0; j < names.size(); j++) {
+            table.append(String.format(" %8.8s", names.get(j)));
+        }
+        table.append(String.format("%n"));
+        for (int i = 0; i < names.size(); i++) {
+            table.append(String.format("%-20s", names.get(i)));
+            for (int j = 0; j < names.size(); j++) {
+                table.append(String.format(" %8d", headToHead[i][j]));
+            }
+            table.append(String.format("%n"));
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package com.mateoi.pong;
+
+/**
+ * The complete physical state of a game at one frame, as stored in a trace
+ * archive. Readers fill and reuse one of these for every frame they decode.
+ *
+ * @author mateo
+ */
+public class TraceFrame {
+
+    /** Number of state values in a frame */
+    static final int FIELDS = 8;
+
+    /** Frame number in the game */
+    private long frame;
+    /** Raw bits of the state values, in the order of the getters below */
+    private final long[] bits = new long[FIELDS];
+
+    /**
+     * Copies the state of a game.
+     *
+     * @param game
+     */
+    public void copyFrom(PongGame game) {
+        frame = game.getFrames();
+        bits[0] = Double.doubleToRawLongBits(game.getBallX());
+        bits[1] = Double.doubleToRawLongBits(game.getBallY());
+        bits[2] = Double.doubleToRawLongBits(game.getBallVelocityX());
+        bits[3] = Double.doubleToRawLongBits(game.getBallVelocityY());
+        bits[4] = Double.doubleToRawLongBits(game.getLeftPaddleY());
+        bits[5] = Double.doubleToRawLongBits(game.getLeftPaddleVelocityY());
+        bits[6] = Double.doubleToRawLongBits(game.getRightPaddleY());
+        bits[7] = Double.doubleToRawLongBits(game.getRightPaddleVelocityY());
+    }
+
+    /**
+     * @return The raw bits of the state values, for encoding and decoding.
+     */
+    long[] bits() {
+        return bits;
+    }
+
+    /**
+     * @param frame
+     */
+    void setFrame(long frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * @return The frame number in the game.
+     */
+    public long getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return The ball's x position.
+     */
+    public double getBallX() {
+        return Double.longBitsToDouble(bits[0]);
+    }
+
+    /**
+     * @return The ball's y position.
+     */
+    public double getBallY() {
+        return Double.longBitsToDouble(bits[1]);
+    }
+
+    /**
+     * @return The ball's x velocity.
+     */
+    public double getBallVelocityX() {
+        return Double.longBitsToDouble(bits[2]);
+    }
+
+    /**
+     * @return The ball's y velocity.
+     */
+    public double getBallVelocityY() {
+        return Double.longBitsToDouble(bits[3]);
+    }
+
+    /**
+     * @return The y position of the left paddle's center.
+     */
+    public double getLeftPaddleY() {
+        return Double.longBitsToDouble(bits[4]);
+    }
+
+    /**
+     * @return The y velocity of the left paddle.
+     */
+    public double getLeftPaddleVelocityY() {
+        return Double.longBitsToDouble(bits[5]);
+    }
+
+    /**
+     * @return The y position of the right paddle's center.
+     */
+    public double getRightPaddleY() {
+        return Double.longBitsToDouble(bits[6]);
+    }
+
+    /**
+     * @return The y velocity of the right paddle.
+     */
+    public double getRightPaddleVelocityY() {
+        return Double.longBitsToDouble(bits[7]);
+    }
+}
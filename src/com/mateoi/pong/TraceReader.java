@@ -0,0 +1,222 @@
+package com.mateoi.pong;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a trace archive written by a {@link TraceWriter}. The archive is
+ * memory-mapped a region at a time, so archives of any size can be read, and
+ * the rally index allows jumping straight to the start of any rally.
+ *
+ * @author mateo
+ */
+public class TraceReader implements Closeable {
+
+    /** Size of the regions of the file that are mapped at a time */
+    private static final long REGION_SIZE = 256 << 20;
+
+    /** The archive file */
+    private final FileChannel channel;
+    /** Size of the archive */
+    private final long size;
+
+    // The rally index
+    private final long[] rallyOffsets;
+    private final long[] rallyFrames;
+    private final int[] rallyServes;
+    private final int[] rallyLeftScores;
+    private final int[] rallyRightScores;
+
+    /** Currently mapped region of the archive */
+    private MappedByteBuffer buffer;
+    /** Position of the mapped region in the file */
+    private long bufferStart;
+    /** The last frame decoded, which the next delta frame is applied to */
+    private final TraceFrame last = new TraceFrame();
+
+    /**
+     * Opens an archive and loads its index.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public TraceReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+
+        final File indexFile = TraceWriter.indexFile(file);
+        final int rallies = (int) (indexFile.length() / TraceWriter.INDEX_ENTRY_SIZE);
+        rallyOffsets = new long[rallies];
+        rallyFrames = new long[rallies];
+        rallyServes = new int[rallies];
+        rallyLeftScores = new int[rallies];
+        rallyRightScores = new int[rallies];
+        try (DataInputStream index = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            for (int i = 0; i < rallies; i++) {
+                rallyOffsets[i] = index.readLong();
+                rallyFrames[i] = index.readLong();
+                rallyServes[i] = index.readInt();
+                rallyLeftScores[i] = index.readInt();
+                rallyRightScores[i] = index.readInt();
+            }
+        }
+
+        map(0);
+        if (buffer.getInt() != TraceWriter.MAGIC) {
+            throw new IOException("Not a trace archive");
+        }
+        final int version = buffer.getInt();
+        if (version != TraceWriter.VERSION) {
+            throw new IOException("Unsupported trace version " + version);
+        }
+    }
+
+    /**
+     * Maps the region of the file starting at the given position.
+     *
+     * @param position
+     * @throws IOException
+     */
+    private void map(long position) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position));
+        bufferStart = position;
+    }
+
+    /**
+     * @return The position in the file of the next byte to read.
+     */
+    private long position() {
+        return bufferStart + buffer.position();
+    }
+
+    /**
+     * Moves to the start of a rally, mapping its region if needed.
+     *
+     * @param rally
+     * @throws IOException
+     */
+    public void seekRally(int rally) throws IOException {
+        final long offset = rallyOffsets[rally];
+        if (offset >= bufferStart && offset + TraceWriter.MAX_RECORD_SIZE <= bufferStart + buffer.limit()) {
+            buffer.position((int) (offset - bufferStart));
+        } else {
+            map(offset);
+        }
+    }
+
+    /**
+     * Moves to the start of the rally that contains the given frame. The next
+     * frames have to be read until the frame itself is reached. Frame numbers
+     * are only unique if the archive holds a single game.
+     *
+     * @param frame
+     * @return The rally that contains the frame
+     * @throws IOException
+     */
+    public int seekFrame(long frame) throws IOException {
+        int rally = Arrays.binarySearch(rallyFrames, frame);
+        if (rally < 0) {
+            rally = Math.max(0, -rally - 2);
+        }
+        seekRally(rally);
+        return rally;
+    }
+
+    /**
+     * Decodes the next frame.
+     *
+     * @param target
+     *            Where to store the frame
+     * @return false if the end of the archive was reached
+     * @throws IOException
+     */
+    public boolean next(TraceFrame target) throws IOException {
+        if (position() >= size) {
+            return false;
+        }
+        if (buffer.remaining() < TraceWriter.MAX_RECORD_SIZE && bufferStart + buffer.limit() < size) {
+            map(position());
+        }
+        final long[] bits = last.bits();
+        if (buffer.get() == TraceWriter.KEY_FRAME) {
+            last.setFrame(buffer.getLong());
+            for (int i = 0; i < TraceFrame.FIELDS; i++) {
+                bits[i] = buffer.getLong();
+            }
+        } else {
+            last.setFrame(last.getFrame() + 1);
+            final int lengths = buffer.getInt();
+            for (int i = 0; i < TraceFrame.FIELDS; i++) {
+                final int length = (lengths >>> (4 * i)) & 0xF;
+                long difference = 0;
+                for (int b = 0; b < length; b++) {
+                    difference |= (buffer.get() & 0xFFL) << (8 * b);
+                }
+                bits[i] ^= difference;
+            }
+        }
+        target.setFrame(last.getFrame());
+        System.arraycopy(bits, 0, target.bits(), 0, TraceFrame.FIELDS);
+        return true;
+    }
+
+    /**
+     * @return The number of rallies in the archive.
+     */
+    public int getRallyCount() {
+        return rallyOffsets.length;
+    }
+
+    /**
+     * @param rally
+     * @return The frame number at which the rally starts.
+     */
+    public long getRallyFrame(int rally) {
+        return rallyFrames[rally];
+    }
+
+    /**
+     * @param rally
+     * @return The serve count of the game when the rally starts.
+     */
+    public int getRallyServe(int rally) {
+        return rallyServes[rally];
+    }
+
+    /**
+     * @param rally
+     * @return The left player's score when the rally starts.
+     */
+    public int getRallyLeftScore(int rally) {
+        return rallyLeftScores[rally];
+    }
+
+    /**
+     * @param rally
+     * @return The right player's score when the rally starts.
+     */
+    public int getRallyRightScore(int rally) {
+        return rallyRightScores[rally];
+    }
+
+    /**
+     * @return The size of the archive in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+    }
+}
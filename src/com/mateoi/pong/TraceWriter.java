@@ -0,0 +1,184 @@
+package com.mateoi.pong;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends the full state of a game, frame by frame, to a binary trace archive.
+ * The archive is written through a memory-mapped file, one region at a time.
+ *
+ * Every rally starts with a key frame holding the raw state, and so does any
+ * frame that does not directly follow the one appended before it, for
+ * instance when frames are skipped. The other frames only store what
+ * changed: each value is XORed with its previous value and only the non-zero
+ * low bytes are written, with a 4-bit length per value. A separate index
+ * file lists where every rally starts, so a {@link TraceReader} can jump to
+ * any rally without decoding what comes before it.
+ *
+ * @author mateo
+ */
+public class TraceWriter implements Closeable {
+
+    /** Identifies the trace format */
+    static final int MAGIC = 0x504E4754;
+    /** Version of the trace format */
+    static final int VERSION = 1;
+    /** Size of the file header */
+    static final int HEADER_SIZE = 8;
+    /** Tag of a frame stored as differences from the previous frame */
+    static final byte DELTA_FRAME = 0;
+    /** Tag of a frame stored in full, with its frame number */
+    static final byte KEY_FRAME = 1;
+    /** The largest encoded frame: a tag, a frame number and every value */
+    static final int MAX_RECORD_SIZE = 1 + 8 + 8 * TraceFrame.FIELDS;
+    /** Size of each index entry: offset, frame, serve and both scores */
+    static final int INDEX_ENTRY_SIZE = 8 + 8 + 4 + 4 + 4;
+    /** Size of the regions of the file that are mapped at a time */
+    private static final long REGION_SIZE = 64 << 20;
+
+    /** The archive file */
+    private final FileChannel channel;
+    /** The rally index */
+    private final DataOutputStream index;
+    /** Currently mapped region of the archive */
+    private MappedByteBuffer buffer;
+    /** Position of the mapped region in the file */
+    private long bufferStart;
+
+    /** The frame being written */
+    private TraceFrame current = new TraceFrame();
+    /** The last frame written */
+    private TraceFrame previous = new TraceFrame();
+    /** Serve count of the last frame written */
+    private int lastServe = -1;
+
+    /**
+     * Creates a new, empty archive, replacing any existing one.
+     *
+     * @param file
+     *            The archive; the index is written next to it
+     * @throws IOException
+     */
+    public TraceWriter(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile(file))));
+        map(0);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    /**
+     * @param file
+     * @return The index file that belongs to an archive.
+     */
+    static File indexFile(File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    /**
+     * Maps the region of the file starting at the given position.
+     *
+     * @param position
+     * @throws IOException
+     */
+    private void map(long position) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, REGION_SIZE);
+        bufferStart = position;
+    }
+
+    /**
+     * @return The position in the file the next byte will be written at.
+     */
+    private long position() {
+        return bufferStart + buffer.position();
+    }
+
+    /**
+     * Appends the current state of the game. A new rally is started
+     * automatically when the ball has been served since the last frame.
+     * Frames may be skipped, but the frame is then stored in full.
+     *
+     * @param game
+     * @throws IOException
+     */
+    public void append(PongGame game) throws IOException {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            map(position());
+        }
+        current.copyFrom(game);
+        final long[] bits = current.bits();
+        final boolean rally = game.getServes() != lastServe;
+        if (rally) {
+            lastServe = game.getServes();
+            index.writeLong(position());
+            index.writeLong(current.getFrame());
+            index.writeInt(lastServe);
+            index.writeInt(game.getLeftScore());
+            index.writeInt(game.getRightScore());
+        }
+        // Delta frames are read as the frame after the previous one
+        if (rally || current.getFrame() != previous.getFrame() + 1) {
+            buffer.put(KEY_FRAME);
+            buffer.putLong(current.getFrame());
+            for (int i = 0; i < TraceFrame.FIELDS; i++) {
+                buffer.putLong(bits[i]);
+            }
+        } else {
+            final long[] previousBits = previous.bits();
+            int lengths = 0;
+            for (int i = 0; i < TraceFrame.FIELDS; i++) {
+                final long difference = bits[i] ^ previousBits[i];
+                final int length = (64 - Long.numberOfLeadingZeros(difference) + 7) >>> 3;
+                lengths |= length << (4 * i);
+            }
+            buffer.put(DELTA_FRAME);
+            buffer.putInt(lengths);
+            for (int i = 0; i < TraceFrame.FIELDS; i++) {
+                final long difference = bits[i] ^ previousBits[i];
+                final int length = (lengths >>> (4 * i)) & 0xF;
+                for (int b = 0; b < length; b++) {
+                    buffer.put((byte) (difference >>> (8 * b)));
+                }
+            }
+        }
+        TraceFrame swap = previous;
+        previous = current;
+        current = swap;
+    }
+
+    /**
+     * Makes the next frame start a new rally. Call this before appending the
+     * frames of another game to the same archive.
+     */
+    public void endMatch() {
+        lastServe = -1;
+    }
+
+    /**
+     * @return The number of bytes written to the archive so far.
+     */
+    public long getSize() {
+        return position();
+    }
+
+    /**
+     * Flushes the index and trims the archive to the data actually written.
+     */
+    @Override
+    public void close() throws IOException {
+        final long length = position();
+        buffer.force();
+        buffer = null;
+        index.close();
+        channel.truncate(length);
+        channel.close();
+    }
+}
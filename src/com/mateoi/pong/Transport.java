@@ -0,0 +1,32 @@
+package com.mateoi.pong;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends and receives small packets between two peers. Delivery is not
+ * guaranteed: packets may be late, reordered or lost. Neither method ever
+ * blocks.
+ *
+ * @author mateo
+ */
+public interface Transport {
+
+    /**
+     * Sends the remaining bytes of a buffer as one packet.
+     *
+     * @param packet
+     * @throws IOException
+     */
+    public void send(ByteBuffer packet) throws IOException;
+
+    /**
+     * Receives the next packet that has arrived, if any. The buffer is
+     * cleared, filled with the packet, and flipped for reading.
+     *
+     * @param packet
+     * @return Whether a packet was received
+     * @throws IOException
+     */
+    public boolean receive(ByteBuffer packet) throws IOException;
+}
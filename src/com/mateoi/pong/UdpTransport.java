@@ -0,0 +1,61 @@
+package com.mateoi.pong;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * A {@link Transport} over UDP, using a non-blocking {@link DatagramChannel}.
+ * Packets from any address other than the peer's are ignored.
+ *
+ * @author mateo
+ */
+public class UdpTransport implements Transport, Closeable {
+
+    /** The socket */
+    private final DatagramChannel channel;
+    /** Address of the peer */
+    private final SocketAddress peer;
+
+    /**
+     * Opens a socket on a local port that talks to the given peer.
+     *
+     * @param localPort
+     * @param peer
+     * @throws IOException
+     */
+    public UdpTransport(int localPort, InetSocketAddress peer) throws IOException {
+        this.peer = peer;
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(new InetSocketAddress(localPort));
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException {
+        channel.send(packet, peer);
+    }
+
+    @Override
+    public boolean receive(ByteBuffer packet) throws IOException {
+        while (true) {
+            packet.clear();
+            final SocketAddress source = channel.receive(packet);
+            if (source == null) {
+                return false;
+            }
+            if (source.equals(peer)) {
+                packet.flip();
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}